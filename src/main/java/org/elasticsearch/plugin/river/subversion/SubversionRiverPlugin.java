@@ -16,11 +16,18 @@
 
 package org.elasticsearch.plugin.river.subversion;
 
+import com.google.common.collect.ImmutableList;
+import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.plugins.AbstractPlugin;
 import org.elasticsearch.river.RiversModule;
 import org.elasticsearch.river.subversion.SubversionRiverModule;
+import org.elasticsearch.river.subversion.SubversionRiverNodeModule;
+import org.elasticsearch.river.subversion.SubversionRiverPool;
+import org.elasticsearch.river.subversion.SubversionWorker;
+
+import java.util.Collection;
 
 /**
  * Created by : Pascal.Lombard
@@ -40,6 +47,19 @@ public class SubversionRiverPlugin extends AbstractPlugin {
         return "River Subversion Plugin";
     }
 
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        return ImmutableList.<Class<? extends Module>>of(SubversionRiverNodeModule.class);
+    }
+
+    // The signature of AbstractPlugin uses the raw type
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Collection<Class<? extends LifecycleComponent>> services() {
+        return ImmutableList.<Class<? extends LifecycleComponent>>of(
+                SubversionRiverPool.class, SubversionWorker.class);
+    }
+
     @Override public void processModule(Module module) {
         if (module instanceof RiversModule) {
             ((RiversModule) module).registerRiver("svn", SubversionRiverModule.class);
@@ -0,0 +1,251 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Sender of indexing actions adapting to the pressure of the cluster.
+ * The actions are split into bulks sent concurrently, whose size and number
+ * grow additively while the cluster keeps up, and are halved as soon as
+ * bulks get rejected, or fail too much (AIMD).
+ * Rejected actions are sent again after a backoff.
+ * Optional ceilings in documents and bytes per second keep the river within a budget.
+ */
+public class BulkThrottle {
+
+    private static ESLogger logger = Loggers.getLogger(BulkThrottle.class);
+
+    // Ratio of failed actions of a bulk above which the cluster is considered overloaded
+    static final double FAILURE_RATIO = 0.1;
+    // Number of rejections in a row after which the rejected actions are given up
+    static final int MAX_REJECTIONS = 10;
+    private static final long INITIAL_BACKOFF = 100;
+    private static final long MAXIMUM_BACKOFF = 30000;
+
+    private final Client client;
+    private final int maxBulkActions;
+    private final int minBulkActions;
+    private final int maxConcurrentBulks;
+    private final RateLimiter docsLimiter;
+    private final RateLimiter bytesLimiter;
+
+    // AIMD state
+    private int bulkActions;
+    private int concurrentBulks = 1;
+    private int rejections = 0;
+
+    // State of the current execution
+    private final LinkedList<ActionRequest<?>> pending = Lists.newLinkedList();
+    private int inFlight = 0;
+    private long failed = 0;
+    private long givenUp = 0;
+
+    /**
+     * @param client the client
+     * @param maxBulkActions the maximum number of actions of each bulk
+     * @param maxConcurrentBulks the maximum number of bulks sent at the same time
+     * @param docsPerSecond the maximum number of actions sent per second, 0 for no limit
+     * @param bytesPerSecond the maximum number of bytes sent per second, 0 for no limit
+     */
+    public BulkThrottle(Client client,
+                        int maxBulkActions,
+                        int maxConcurrentBulks,
+                        double docsPerSecond,
+                        double bytesPerSecond) {
+        this.client = client;
+        this.maxBulkActions = Math.max(1, maxBulkActions);
+        this.minBulkActions = Math.max(1, maxBulkActions / 32);
+        this.maxConcurrentBulks = Math.max(1, maxConcurrentBulks);
+        this.docsLimiter = docsPerSecond > 0 ? RateLimiter.create(docsPerSecond) : null;
+        this.bytesLimiter = bytesPerSecond > 0 ? RateLimiter.create(bytesPerSecond) : null;
+        this.bulkActions = this.maxBulkActions;
+    }
+
+    /**
+     * Send actions, and wait for all of them to be answered.
+     * @param actions the actions to send
+     * @return true if all the actions were accepted by the cluster, even if some failed,
+     *         false if some were given up after too many rejections
+     * @throws InterruptedException
+     */
+    public boolean execute(List<ActionRequest<?>> actions) throws InterruptedException {
+        synchronized (this) {
+            pending.addAll(actions);
+            failed = 0;
+            givenUp = 0;
+        }
+        while (true) {
+            List<ActionRequest<?>> chunk = Lists.newArrayList();
+            long backoff;
+            synchronized (this) {
+                try {
+                    while ((!pending.isEmpty() && inFlight >= concurrentBulks)
+                            || (pending.isEmpty() && inFlight > 0)) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    pending.clear();
+                    throw e;
+                }
+                if (pending.isEmpty()) {
+                    break;
+                }
+                while (!pending.isEmpty() && chunk.size() < bulkActions) {
+                    chunk.add(pending.removeFirst());
+                }
+                inFlight++;
+                // Let the cluster breathe after a rejection
+                backoff = rejections == 0 ? 0
+                        : Math.min(MAXIMUM_BACKOFF, INITIAL_BACKOFF << Math.min(rejections, 16));
+            }
+            try {
+                if (backoff > 0) {
+                    Thread.sleep(backoff);
+                }
+                send(chunk);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    // Whatever is left will be sent again on the next run
+                    inFlight--;
+                    pending.clear();
+                }
+                throw e;
+            } catch (Exception e) {
+                logger.error("failed to execute bulk", e);
+                done(chunk.size(), Lists.<ActionRequest<?>>newArrayList(), chunk.size());
+            }
+        }
+        synchronized (this) {
+            if (failed > 0) {
+                logger.warn("{} actions failed", failed);
+            }
+            if (givenUp > 0) {
+                logger.error("{} actions given up after {} rejections", givenUp, MAX_REJECTIONS);
+            }
+            return givenUp == 0;
+        }
+    }
+
+    public synchronized int getBulkActions() {
+        return bulkActions;
+    }
+
+    public synchronized int getConcurrentBulks() {
+        return concurrentBulks;
+    }
+
+    private void send(final List<ActionRequest<?>> chunk) {
+        BulkRequest bulk = new BulkRequest();
+        for (ActionRequest<?> action : chunk) {
+            bulk.add(action);
+        }
+        if (docsLimiter != null) {
+            docsLimiter.acquire(chunk.size());
+        }
+        if (bytesLimiter != null) {
+            bytesLimiter.acquire((int) Math.min(Integer.MAX_VALUE, Math.max(1, bulk.estimatedSizeInBytes())));
+        }
+        logger.debug("Sending bulk of {} actions", chunk.size());
+        client.bulk(bulk, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                List<ActionRequest<?>> rejected = Lists.newArrayList();
+                int failures = 0;
+                for (BulkItemResponse item : response.getItems()) {
+                    if (!item.isFailed()) {
+                        continue;
+                    }
+                    if (item.getFailureMessage() != null
+                            && item.getFailureMessage().contains(EsRejectedExecutionException.class.getSimpleName())) {
+                        rejected.add(chunk.get(item.getItemId()));
+                    } else {
+                        failures++;
+                    }
+                }
+                if (failures > 0) {
+                    logger.error("failed to execute" + response.buildFailureMessage());
+                }
+                done(chunk.size(), rejected, failures);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException) {
+                    done(chunk.size(), chunk, 0);
+                } else {
+                    logger.error("failed to execute bulk", e);
+                    done(chunk.size(), Lists.<ActionRequest<?>>newArrayList(), chunk.size());
+                }
+            }
+        });
+    }
+
+    private synchronized void done(int actions, List<ActionRequest<?>> rejected, int failures) {
+        inFlight--;
+        failed += failures;
+        if (adapt(actions, rejected.size(), failures)) {
+            pending.addAll(0, rejected);
+        } else {
+            givenUp += rejected.size();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Adapt the size and number of the bulks to the answer of the cluster
+     * @param actions the number of actions of the bulk
+     * @param rejected the number of actions rejected
+     * @param failures the number of actions which failed otherwise
+     * @return false if the rejected actions have to be given up
+     */
+    synchronized boolean adapt(int actions, int rejected, int failures) {
+        if (rejected > 0 || failures > actions * FAILURE_RATIO) {
+            // Multiplicative decrease
+            bulkActions = Math.max(minBulkActions, bulkActions / 2);
+            concurrentBulks = Math.max(1, concurrentBulks / 2);
+            logger.info("Cluster under pressure, sending bulks of {} actions, {} at a time",
+                    bulkActions, concurrentBulks);
+            if (rejected > 0) {
+                rejections++;
+            }
+            return rejections <= MAX_REJECTIONS;
+        }
+        // Additive increase, of the size first, and then of the concurrency
+        rejections = 0;
+        if (bulkActions < maxBulkActions) {
+            bulkActions = Math.min(maxBulkActions, bulkActions + minBulkActions);
+        } else if (concurrentBulks < maxConcurrentBulks) {
+            concurrentBulks++;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.collect.Lists;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.river.subversion.crawler.Parameters;
+import org.elasticsearch.river.subversion.crawler.SubversionCrawler;
+import org.elasticsearch.river.subversion.type.SubversionDeadLetter;
+import org.elasticsearch.river.subversion.type.SubversionDocument;
+import org.elasticsearch.search.SearchHit;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Background worker for the lazy_content mode :
+ * documents are first indexed with their metadata only,
+ * and their content is fetched and applied afterwards, with partial updates.
+ * A document whose content keeps failing to load is recorded as a dead letter.
+ */
+public class ContentLoader implements Runnable {
+
+    private static ESLogger logger = Loggers.getLogger(ContentLoader.class);
+
+    // Loads of a document before it is recorded as a dead letter
+    static final int MAX_ATTEMPTS = 3;
+
+    private final Client client;
+    private final String indexName;
+    private final URL reposAsURL;
+    private final Parameters parameters;
+    private final int bulkSize;
+    private final BlockingQueue<PendingContent> queue = new LinkedBlockingQueue<PendingContent>();
+
+    private volatile boolean closed;
+    private volatile boolean paused;
+    private volatile boolean recover = true;
+    private final Object batchLock = new Object();
+
+    public ContentLoader(Client client,
+                         String indexName,
+                         URL reposAsURL,
+                         Parameters parameters,
+                         int bulkSize) {
+        this.client = client;
+        this.indexName = indexName;
+        this.reposAsURL = reposAsURL;
+        this.parameters = parameters;
+        this.bulkSize = bulkSize;
+    }
+
+    /**
+     * Queue a document whose content has to be loaded.
+     * The document must already be indexed.
+     * @param document the document indexed without its content
+     * @param id the id of the indexed document
+     * @param index the index of the document
+     * @param parent the id of the parent revision of the document, or null if none
+     */
+    public void enqueue(SubversionDocument document, String id, String index, String parent) {
+        if (document.isPending()) {
+            queue.add(new PendingContent(index, id, parent, document.getRepository(),
+                    document.getFullname(), document.getChange(), document.getRevision()));
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Stop loading contents, once the batch in progress is done
+     */
+    public void pause() {
+        paused = true;
+        synchronized (batchLock) {
+            logger.debug("Subversion river content loader paused");
+        }
+    }
+
+    /**
+     * Load contents again, the pending ones being read again from the index,
+     * as it may have been rebuilt meanwhile
+     */
+    public void resume() {
+        queue.clear();
+        recover = true;
+        paused = false;
+    }
+
+    @Override
+    public void run() {
+        SVNRepository repository = null;
+        List<PendingContent> batch = Lists.newArrayList();
+        while (!closed) {
+            try {
+                if (recover) {
+                    // Documents left pending by a previous run of the river
+                    // (node restart...) are queued again first.
+                    recover = false;
+                    recoverPendingDocuments();
+                }
+                PendingContent first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.clear();
+                batch.add(first);
+                queue.drainTo(batch, bulkSize - 1);
+
+                synchronized (batchLock) {
+                    if (paused) {
+                        queue.addAll(batch);
+                        batch.clear();
+                        Thread.sleep(1000);
+                        continue;
+                    }
+                    if (repository == null) {
+                        repository = SubversionCrawler.getRepository(reposAsURL, parameters);
+                    }
+                    load(batch, repository);
+                }
+            } catch (InterruptedException e) {
+                logger.debug("Subversion river content loader interrupted");
+            } catch (Exception e) {
+                logger.warn("Subversion river content loader exception", e);
+                // Put the batch back in the queue, and start again with a new session,
+                // unless it keeps failing
+                List<PendingContent> failed = Lists.newArrayList();
+                for (PendingContent pendingContent : batch) {
+                    if (++pendingContent.attempts < MAX_ATTEMPTS) {
+                        queue.add(pendingContent);
+                    } else {
+                        failed.add(pendingContent);
+                    }
+                }
+                batch.clear();
+                addDeadLetters(failed, e.getMessage());
+                repository = closeSession(repository);
+            }
+        }
+        closeSession(repository);
+        logger.info("Subversion river content loader stopped, {} documents still pending", queue.size());
+    }
+
+    /**
+     * Load the contents of a batch of documents, and apply them
+     */
+    private void load(List<PendingContent> batch, SVNRepository repository) throws IOException {
+        BulkRequestBuilder bulk = client.prepareBulk();
+        List<PendingContent> retries = Lists.newArrayList();
+        for (PendingContent pendingContent : batch) {
+            SVNDirEntry entry;
+            String content;
+            try {
+                // The size of the file was left to the loader, along with its content
+                entry = SubversionCrawler.info(repository, pendingContent.path, pendingContent.revision, parameters);
+                content = entry == null ? null : SubversionCrawler.getContent(entry, repository, parameters);
+            } catch (SVNException e) {
+                // Only this document is tried again, on its own
+                if (++pendingContent.attempts < MAX_ATTEMPTS) {
+                    retries.add(pendingContent);
+                } else {
+                    addDeadLetter(bulk, pendingContent, e.getMessage());
+                }
+                continue;
+            }
+            bulk.add(getUpdateRequest(pendingContent, content, entry == null ? null : entry.getSize()));
+        }
+        if (bulk.numberOfActions() > 0) {
+            BulkResponse response = bulk.execute().actionGet();
+            if (response.hasFailures()) {
+                logger.error("failed to load content" + response.buildFailureMessage());
+            }
+            logger.debug("Loaded content of {} documents in {}ms, {} remaining",
+                    batch.size(), response.getTookInMillis(), queue.size());
+        }
+        // Queued again once the batch is done with, as a failing bulk sends back the whole batch
+        queue.addAll(retries);
+    }
+
+    private UpdateRequest getUpdateRequest(PendingContent pendingContent, String content, Long size)
+            throws IOException {
+        XContentBuilder doc = jsonBuilder()
+                .startObject()
+                    .field("content", content)
+                    .field("pending", false);
+        if (size != null) {
+            doc.field("size", size);
+        }
+        return new UpdateRequest(pendingContent.index, SubversionDocument.TYPE_NAME, pendingContent.id)
+                .parent(pendingContent.parent)
+                .doc(doc.endObject());
+    }
+
+    /**
+     * Give up on a document whose content keeps failing to load :
+     * it is recorded as a dead letter, and no longer pending.
+     */
+    private void addDeadLetter(BulkRequestBuilder bulk, PendingContent pendingContent, String error)
+            throws IOException {
+        logger.error("Content of [{}@{}] not loaded after {} attempts : {}",
+                pendingContent.path, pendingContent.revision, pendingContent.attempts, error);
+        SubversionDeadLetter deadLetter = new SubversionDeadLetter(pendingContent.repository,
+                pendingContent.revision, pendingContent.path, pendingContent.change, error);
+        bulk.add(new IndexRequest(pendingContent.index, SubversionDeadLetter.TYPE_NAME, deadLetter.id())
+                .source(deadLetter.json()));
+        bulk.add(getUpdateRequest(pendingContent, null, null));
+    }
+
+    private void addDeadLetters(List<PendingContent> failed, String error) {
+        if (failed.isEmpty()) {
+            return;
+        }
+        try {
+            BulkRequestBuilder bulk = client.prepareBulk();
+            for (PendingContent pendingContent : failed) {
+                addDeadLetter(bulk, pendingContent, error);
+            }
+            BulkResponse response = bulk.execute().actionGet();
+            if (response.hasFailures()) {
+                logger.error("failed to record dead letters" + response.buildFailureMessage());
+            }
+        } catch (Exception e) {
+            // Still pending in the index, so recovered on the next start
+            logger.warn("failed to record dead letters", e);
+        }
+    }
+
+    private static SVNRepository closeSession(SVNRepository repository) {
+        if (repository != null) {
+            repository.closeSession();
+        }
+        return null;
+    }
+
+    /**
+     * Scan the index for documents still flagged as pending.
+     */
+    private void recoverPendingDocuments() {
+        try {
+            SearchResponse scrollResponse = client.prepareSearch(indexName)
+                    .setTypes(SubversionDocument.TYPE_NAME)
+                    .setSearchType(SearchType.SCAN)
+                    .setScroll(TimeValue.timeValueMinutes(1))
+                    .setQuery(QueryBuilders.termQuery("pending", true))
+                    .addFields("repository", "fullname", "change", "revision", "_parent")
+                    .setSize(bulkSize)
+                    .execute().actionGet();
+            while (!closed) {
+                scrollResponse = client.prepareSearchScroll(scrollResponse.getScrollId())
+                        .setScroll(TimeValue.timeValueMinutes(1))
+                        .execute().actionGet();
+                if (scrollResponse.getHits().getHits().length == 0) {
+                    break;
+                }
+                for (SearchHit hit : scrollResponse.getHits()) {
+                    queue.add(new PendingContent(
+                            hit.getIndex(),
+                            hit.getId(),
+                            hit.field("_parent") == null ? null : (String) hit.field("_parent").getValue(),
+                            hit.field("repository") == null ? "" : (String) hit.field("repository").getValue(),
+                            (String) hit.field("fullname").getValue(),
+                            hit.field("change") == null ? 'M' : hit.field("change").getValue().toString().charAt(0),
+                            ((Number) hit.field("revision").getValue()).longValue()
+                    ));
+                }
+            }
+            logger.info("Subversion river content loader recovered {} pending documents", queue.size());
+        } catch (Exception e) {
+            logger.warn("failed to recover pending documents on index [{}]", e, indexName);
+        }
+    }
+
+    /**
+     * POJO for a document waiting for its content
+     */
+    private static class PendingContent {
+        final String index;
+        final String id;
+        final String parent;
+        final String repository;
+        final String path;
+        final char change;
+        final long revision;
+        int attempts;
+
+        PendingContent(String index, String id, String parent, String repository, String path, char change,
+                       long revision) {
+            this.index = index;
+            this.id = id;
+            this.parent = parent;
+            this.repository = repository;
+            this.path = path;
+            this.change = change;
+            this.revision = revision;
+        }
+    }
+}
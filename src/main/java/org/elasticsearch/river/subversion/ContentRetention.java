@@ -0,0 +1,303 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.BoolFilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.river.subversion.type.SubversionDocument;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Background worker for the retention of the contents :
+ * the documents of the last revisions, or days, keep their content,
+ * and the older ones are periodically stripped of it, with partial updates,
+ * keeping their metadata. The latest version of each path can keep its content whatever its age.
+ */
+public class ContentRetention implements Runnable {
+
+    private static ESLogger logger = Loggers.getLogger(ContentRetention.class);
+
+    private final Client client;
+    private final String indexName;
+    private final long revisions;
+    private final int days;
+    private final boolean keepHead;
+    private final long interval;
+    private final int bulkSize;
+
+    private volatile String subtreePath;
+    private volatile long lastRevision = -1L;
+    private volatile boolean closed;
+    private volatile boolean paused;
+    private final Object passLock = new Object();
+
+    /**
+     * @param client the client
+     * @param indexName the index, or alias, of the river
+     * @param revisions the number of last revisions whose documents keep their content, 0 for no limit
+     * @param days the number of last days whose documents keep their content, 0 for no limit
+     * @param keepHead true for the latest version of each path to keep its content, whatever its age
+     * @param interval the time between two passes, in ms
+     * @param bulkSize the number of documents of each bulk
+     */
+    public ContentRetention(Client client,
+                            String indexName,
+                            long revisions,
+                            int days,
+                            boolean keepHead,
+                            long interval,
+                            int bulkSize) {
+        this.client = client;
+        this.indexName = indexName;
+        this.revisions = revisions;
+        this.days = days;
+        this.keepHead = keepHead;
+        this.interval = interval;
+        this.bulkSize = bulkSize;
+    }
+
+    /**
+     * @param subtreePath the path crawled by the river, relative to the repository root,
+     *                    as the full names of its documents
+     */
+    public void setSubtreePath(String subtreePath) {
+        this.subtreePath = subtreePath;
+    }
+
+    public String getSubtreePath() {
+        return subtreePath;
+    }
+
+    /**
+     * @param lastRevision the last indexed revision, from which the last revisions are counted
+     */
+    public void setLastRevision(long lastRevision) {
+        this.lastRevision = lastRevision;
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Stop stripping contents, once the pass in progress is interrupted
+     */
+    public void pause() {
+        paused = true;
+        synchronized (passLock) {
+            logger.debug("Subversion river content retention paused");
+        }
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            try {
+                Thread.sleep(interval);
+                long start = System.currentTimeMillis();
+                long stripped;
+                synchronized (passLock) {
+                    stripped = paused ? 0 : strip();
+                }
+                if (stripped > 0) {
+                    logger.info("Stripped the content of {} documents of [{}] in {}ms",
+                            stripped, indexName, System.currentTimeMillis() - start);
+                }
+            } catch (InterruptedException e) {
+                logger.debug("Subversion river content retention interrupted");
+            } catch (Exception e) {
+                logger.warn("Subversion river content retention exception", e);
+            }
+        }
+        logger.info("Subversion river content retention stopped");
+    }
+
+    /**
+     * Strip the content of the documents out of the retention
+     * @return the number of documents stripped
+     * @throws IOException
+     */
+    long strip() throws IOException {
+        BoolFilterBuilder filter = getExpiredFilter(lastRevision);
+        if (filter == null) {
+            return 0;
+        }
+        long stripped = 0;
+        SearchResponse scrollResponse = client.prepareSearch(indexName)
+                .setTypes(SubversionDocument.TYPE_NAME)
+                .setSearchType(SearchType.SCAN)
+                .setScroll(TimeValue.timeValueMinutes(5))
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filter))
+                .addFields("fullname", "revision", "_parent")
+                // A document updated meanwhile, by the river or the content loader, is left alone
+                .setVersion(true)
+                .setSize(bulkSize)
+                .execute().actionGet();
+        while (true) {
+            if (closed || paused) {
+                client.prepareClearScroll().addScrollId(scrollResponse.getScrollId()).execute().actionGet();
+                break;
+            }
+            scrollResponse = client.prepareSearchScroll(scrollResponse.getScrollId())
+                    .setScroll(TimeValue.timeValueMinutes(5))
+                    .execute().actionGet();
+            if (scrollResponse.getHits().getHits().length == 0) {
+                break;
+            }
+            Map<String, Long> heads = keepHead
+                    ? getHeadRevisions(scrollResponse.getHits().getHits())
+                    : Maps.<String, Long>newHashMap();
+            BulkRequestBuilder bulk = client.prepareBulk();
+            for (SearchHit hit : scrollResponse.getHits()) {
+                if (keepHead && isHead(hit, heads)) {
+                    continue;
+                }
+                bulk.add(new UpdateRequest(hit.getIndex(), SubversionDocument.TYPE_NAME, hit.getId())
+                        .version(hit.getVersion())
+                        .parent(hit.field("_parent") == null ? null : (String) hit.field("_parent").getValue())
+                        .doc(jsonBuilder()
+                                .startObject()
+                                    .nullField("content")
+                                .endObject()
+                        )
+                );
+            }
+            if (bulk.numberOfActions() == 0) {
+                continue;
+            }
+            BulkResponse response = bulk.execute().actionGet();
+            stripped += bulk.numberOfActions();
+            for (BulkItemResponse item : response.getItems()) {
+                if (!item.isFailed()) {
+                    continue;
+                }
+                stripped--;
+                // Changed since the scan : out of the retention again at the next pass, if still old enough
+                if (item.getFailure().getStatus() != RestStatus.CONFLICT) {
+                    logger.error("failed to strip content of [{}] : {}", item.getId(), item.getFailureMessage());
+                }
+            }
+        }
+        return stripped;
+    }
+
+    /**
+     * @param lastRevision the last indexed revision, or -1 if not known yet
+     * @return the filter of the documents of the path with a content, out of the retention,
+     *         or null if none can be
+     */
+    BoolFilterBuilder getExpiredFilter(long lastRevision) {
+        if (subtreePath == null) {
+            return null;
+        }
+        BoolFilterBuilder filter = FilterBuilders.boolFilter()
+                .must(FilterBuilders.existsFilter("content"))
+                // The content loader is not done with them yet
+                .mustNot(FilterBuilders.termFilter("pending", true));
+        String basePath = subtreePath.replaceAll("/+$", "");
+        if (!basePath.isEmpty()) {
+            filter.must(FilterBuilders.prefixFilter("fullname.untouched", basePath + "/"));
+        }
+        // Out of the retention once older than all the limits
+        boolean limited = false;
+        if (revisions > 0) {
+            if (lastRevision <= revisions) {
+                return null;
+            }
+            filter.must(FilterBuilders.rangeFilter("revision").lte(lastRevision - revisions));
+            limited = true;
+        }
+        if (days > 0) {
+            filter.must(FilterBuilders.rangeFilter("date").lt("now-" + days + "d"));
+            limited = true;
+        }
+        return limited ? filter : null;
+    }
+
+    /**
+     * @param hits documents out of the retention
+     * @return the latest revision indexed for each of their paths
+     */
+    private Map<String, Long> getHeadRevisions(SearchHit[] hits) {
+        Set<String> fullnames = Sets.newHashSet();
+        for (SearchHit hit : hits) {
+            if (hit.field("fullname") != null) {
+                fullnames.add((String) hit.field("fullname").getValue());
+            }
+        }
+        Map<String, Long> heads = Maps.newHashMap();
+        if (fullnames.isEmpty()) {
+            return heads;
+        }
+        SearchResponse response = client.prepareSearch(indexName)
+                .setTypes(SubversionDocument.TYPE_NAME)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                        FilterBuilders.termsFilter("fullname.untouched", fullnames)))
+                .setSize(0)
+                .addAggregation(AggregationBuilders.terms("paths")
+                        .field("fullname.untouched")
+                        .size(fullnames.size())
+                        .subAggregation(AggregationBuilders.max("head").field("revision")))
+                .execute().actionGet();
+        Terms paths = response.getAggregations().get("paths");
+        for (Terms.Bucket bucket : paths.getBuckets()) {
+            Max head = bucket.getAggregations().get("head");
+            heads.put(bucket.getKey(), (long) head.getValue());
+        }
+        return heads;
+    }
+
+    /**
+     * @return true if the document is the latest version of its path,
+     *         or if that cannot be told, as its content is then kept
+     */
+    static boolean isHead(SearchHit hit, Map<String, Long> heads) {
+        if (hit.field("fullname") == null || hit.field("revision") == null) {
+            return true;
+        }
+        Long head = heads.get((String) hit.field("fullname").getValue());
+        return head == null || ((Number) hit.field("revision").getValue()).longValue() >= head;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.admin.indices.optimize.OptimizeResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+/**
+ * Split of the index of a river into buckets of revisions, or of time,
+ * all behind an alias named after the index, used for the searches.
+ * Each revision is written to the bucket it belongs to.
+ * Once a newer bucket is in use, the older ones can be optimized and made read-only.
+ */
+public class IndexRollover {
+
+    private static ESLogger logger = Loggers.getLogger(IndexRollover.class);
+
+    public static final String REVISIONS = "revisions";
+    public static final String MONTH = "month";
+    public static final String YEAR = "year";
+
+    private final Client client;
+    private final String alias;
+    private final String policy;
+    private final long revisionsPerBucket;
+    private final boolean seal;
+    private final Map<String, XContentBuilder> mappings;
+
+    // Buckets sorted from the oldest to the newest
+    private final TreeSet<String> buckets = Sets.newTreeSet();
+    private final Set<String> sealed = Sets.newHashSet();
+
+    /**
+     * @param client the client
+     * @param alias the index name of the river, used as an alias of the buckets
+     * @param policy "revisions", "month" or "year"
+     * @param revisionsPerBucket the number of revisions of each bucket, for the "revisions" policy
+     * @param seal true to optimize and make read-only the buckets no longer written to
+     * @param mappings the mappings of the buckets, by type
+     */
+    public IndexRollover(Client client,
+                         String alias,
+                         String policy,
+                         long revisionsPerBucket,
+                         boolean seal,
+                         Map<String, XContentBuilder> mappings) {
+        this.client = client;
+        this.alias = alias;
+        this.policy = policy;
+        this.revisionsPerBucket = revisionsPerBucket;
+        this.seal = seal;
+        this.mappings = mappings;
+    }
+
+    /**
+     * @param policy the policy from the settings
+     * @return true if the policy is known
+     */
+    public static boolean isValidPolicy(String policy) {
+        return REVISIONS.equals(policy) || MONTH.equals(policy) || YEAR.equals(policy);
+    }
+
+    /**
+     * Find the existing buckets behind the alias
+     * @return false if the alias is already the name of a real index, or of an index which is not a bucket,
+     *         so that no rollover is possible
+     */
+    public boolean init() {
+        MetaData metaData = client.admin().cluster().prepareState()
+                .execute().actionGet().getState().metaData();
+        if (metaData.hasConcreteIndex(alias)) {
+            return false;
+        }
+        for (String index : metaData.concreteIndicesIgnoreMissing(new String[]{alias})) {
+            // Like the index of a river created without rollover
+            if (!isBucket(index)) {
+                return false;
+            }
+            buckets.add(index);
+        }
+        // The buckets older than the last one were sealed by a previous run
+        if (!buckets.isEmpty()) {
+            sealed.addAll(buckets.headSet(buckets.last()));
+        }
+        logger.info("Rollover of [{}] by [{}] : buckets {}", alias, policy, buckets);
+        return true;
+    }
+
+    /**
+     * @param revision the revision to write
+     * @param date the date of the revision
+     * @return the bucket of the revision, created if needed
+     */
+    public synchronized String getIndex(long revision, Date date) {
+        String bucket = getWritableBucket(alias + "-" + getBucketKey(revision, date), buckets, sealed);
+        if (!buckets.contains(bucket)) {
+            createBucket(bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Svn dates are not always increasing : a revision dated back to a sealed bucket
+     * goes to the newest bucket instead, as a sealed one is read-only.
+     * @param bucket the bucket of the revision
+     * @param buckets the existing buckets
+     * @param sealed the sealed buckets
+     * @return the bucket where to write the revision
+     */
+    static String getWritableBucket(String bucket, NavigableSet<String> buckets, Set<String> sealed) {
+        return sealed.contains(bucket) ? buckets.last() : bucket;
+    }
+
+    /**
+     * @param revision the last indexed revision
+     * @return the index where to write the last indexed revision : the newest bucket
+     */
+    public synchronized String getCheckpointIndex(long revision) {
+        if (buckets.isEmpty()) {
+            return getIndex(revision, new Date());
+        }
+        return buckets.last();
+    }
+
+    /**
+     * @return the buckets, from the newest to the oldest
+     */
+    public synchronized List<String> getCheckpointIndices() {
+        return Lists.newArrayList(buckets.descendingSet());
+    }
+
+    /**
+     * Optimize and make read-only the buckets older than the newest one,
+     * once everything is indexed up to the newest one.
+     */
+    public synchronized void sealOldBuckets() {
+        if (!seal || buckets.isEmpty()) {
+            return;
+        }
+        for (final String bucket : buckets.headSet(buckets.last())) {
+            if (!sealed.add(bucket)) {
+                continue;
+            }
+            logger.info("Sealing bucket [{}] of [{}]", bucket, alias);
+            client.admin().indices().prepareOptimize(bucket)
+                    .setMaxNumSegments(1)
+                    .execute(new ActionListener<OptimizeResponse>() {
+                        @Override
+                        public void onResponse(OptimizeResponse optimizeResponse) {
+                            client.admin().indices().prepareUpdateSettings(bucket)
+                                    .setSettings(ImmutableSettings.settingsBuilder()
+                                            .put("index.blocks.write", true))
+                                    .execute();
+                            logger.info("Sealed bucket [{}] of [{}]", bucket, alias);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            logger.warn("failed to seal bucket [{}]", e, bucket);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * @param index an index behind the alias
+     * @return true if it is named like a bucket of the alias
+     */
+    boolean isBucket(String index) {
+        return index.startsWith(alias + "-")
+                && index.substring(alias.length() + 1).matches("r\\d{10}|\\d{4}(\\.\\d{2})?");
+    }
+
+    String getBucketKey(long revision, Date date) {
+        if (REVISIONS.equals(policy)) {
+            // Padded, for the buckets to sort as their revisions
+            return String.format(Locale.ROOT, "r%010d", (revision / revisionsPerBucket) * revisionsPerBucket);
+        }
+        SimpleDateFormat format = new SimpleDateFormat(MONTH.equals(policy) ? "yyyy.MM" : "yyyy", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date == null ? new Date() : date);
+    }
+
+    private void createBucket(String bucket) {
+        boolean exists = client.admin().indices().prepareExists(bucket)
+                .execute().actionGet().isExists();
+        if (!exists) {
+            logger.info("Creating bucket [{}] of [{}]", bucket, alias);
+            CreateIndexRequestBuilder createIndex = client.admin().indices().prepareCreate(bucket);
+            for (Map.Entry<String, XContentBuilder> mapping : mappings.entrySet()) {
+                createIndex.addMapping(mapping.getKey(), mapping.getValue());
+            }
+            createIndex.execute().actionGet();
+            client.admin().cluster().prepareHealth(bucket)
+                    .setWaitForYellowStatus()
+                    .execute().actionGet();
+        }
+        client.admin().indices().prepareAliases()
+                .addAlias(bucket, alias)
+                .execute().actionGet();
+        buckets.add(bucket);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.river.subversion.type.SubversionDocument;
+import org.elasticsearch.river.subversion.type.SubversionRevision;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rebuild of the index of a river from its own documents, without the repository :
+ * a new index is created with the current mappings, the documents are copied
+ * with a scan/scroll search and concurrent bulks, and the alias of the river
+ * is moved to the new index, along with the indexed_revision checkpoint it contains.
+ * The old index is only deleted once the new one holds as many documents.
+ * Only an index of the river behind an alias, and whose _source holds every field, can be reindexed.
+ */
+public class Reindexer {
+
+    private static ESLogger logger = Loggers.getLogger(Reindexer.class);
+
+    private final Client client;
+    private final String indexName;
+    private final int bulkSize;
+    private final int concurrentBulks;
+
+    // Bulks sent and not answered yet, as closing the bulk processor does not wait for them
+    private int pendingBulks = 0;
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param client the client
+     * @param indexName the index, or alias, of the river
+     * @param bulkSize the number of documents of each bulk
+     * @param concurrentBulks the number of bulks sent at the same time
+     */
+    public Reindexer(Client client, String indexName, int bulkSize, int concurrentBulks) {
+        this.client = client;
+        this.indexName = indexName;
+        this.bulkSize = bulkSize;
+        this.concurrentBulks = concurrentBulks;
+    }
+
+    /**
+     * Copy the documents to a new index, and move the alias of the river to it
+     * @param mappings the mappings of the new index, by type
+     * @return the name of the new index, or null if the reindexing failed
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public String reindex(Map<String, XContentBuilder> mappings) throws InterruptedException, IOException {
+        MetaData metaData = client.admin().cluster().prepareState()
+                .execute().actionGet().getState().metaData();
+        String[] sources = metaData.concreteIndices(new String[]{indexName});
+        if (sources.length != 1) {
+            logger.warn("Cannot reindex [{}], which points to {} indices", indexName, sources.length);
+            return null;
+        }
+        String source = sources[0];
+        if (metaData.hasConcreteIndex(indexName)) {
+            // The alias could only be created once the index of the same name is deleted,
+            // leaving the river without index in between
+            logger.warn("Cannot reindex [{}], which is an index and not an alias", indexName);
+            return null;
+        }
+        for (String type : new String[]{SubversionDocument.TYPE_NAME, SubversionRevision.TYPE_NAME}) {
+            MappingMetaData mapping = metaData.index(source).mapping(type);
+            if (mapping != null && !isSourceComplete(mapping.sourceAsMap())) {
+                // The copy would lose the fields left out of the _source, like the content of the compact profile
+                logger.warn("Cannot reindex [{}], whose _source of [{}] lacks some fields", indexName, type);
+                return null;
+            }
+        }
+        String target = newIndexName(indexName);
+        logger.info("Reindexing [{}] from [{}] to [{}]", indexName, source, target);
+
+        CreateIndexRequestBuilder createIndex = client.admin().indices().prepareCreate(target);
+        for (Map.Entry<String, XContentBuilder> mapping : mappings.entrySet()) {
+            createIndex.addMapping(mapping.getKey(), mapping.getValue());
+        }
+        createIndex.execute().actionGet();
+        boolean done = false;
+        try {
+            client.admin().cluster().prepareHealth(target)
+                    .setWaitForYellowStatus()
+                    .execute().actionGet();
+
+            long copied = copy(source, target);
+            if (failures.get() > 0) {
+                logger.error("Reindexing of [{}] failed for {} documents, keeping [{}]",
+                        indexName, failures.get(), source);
+                return null;
+            }
+            client.admin().indices().prepareRefresh(source, target).execute().actionGet();
+            long sourceCount = client.prepareCount(source).execute().actionGet().getCount();
+            long targetCount = client.prepareCount(target).execute().actionGet().getCount();
+            if (sourceCount != targetCount) {
+                // The source is only deleted once all of its documents are known to be in the copy
+                logger.error("Reindexing of [{}] copied {} documents, {} indexed out of {}, keeping [{}]",
+                        indexName, copied, targetCount, sourceCount, source);
+                return null;
+            }
+
+            client.admin().indices().prepareAliases()
+                    .removeAlias(source, indexName)
+                    .addAlias(target, indexName)
+                    .execute().actionGet();
+            done = true;
+            client.admin().indices().prepareDelete(source).execute().actionGet();
+            logger.info("Reindexed [{}] documents of [{}] to [{}]", targetCount, indexName, target);
+            return target;
+        } finally {
+            if (!done) {
+                // Nothing points to the partial copy
+                logger.info("Deleting partial copy [{}] of [{}]", target, indexName);
+                try {
+                    client.admin().indices().prepareDelete(target).execute().actionGet();
+                } catch (Exception e) {
+                    logger.warn("failed to delete partial copy [{}]", e, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param indexName the index name of the river, used as an alias
+     * @return the name of a new index behind the alias, named after it with a timestamp
+     */
+    public static String newIndexName(String indexName) {
+        return indexName + "-" + new SimpleDateFormat("yyyyMMddHHmmss", Locale.ROOT).format(new Date());
+    }
+
+    /**
+     * @param mapping the mapping of a type, with or without its type name as root
+     * @return true if the _source of the type is enabled, and neither includes nor excludes fields
+     */
+    public static boolean isSourceComplete(Map<String, Object> mapping) {
+        if (mapping.size() == 1 && mapping.values().iterator().next() instanceof Map
+                && !mapping.containsKey("_source") && !mapping.containsKey("properties")) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> typeMapping = (Map<String, Object>) mapping.values().iterator().next();
+            mapping = typeMapping;
+        }
+        if (!(mapping.get("_source") instanceof Map)) {
+            return true;
+        }
+        Map<?, ?> sourceMapping = (Map<?, ?>) mapping.get("_source");
+        return XContentMapValues.nodeBooleanValue(sourceMapping.get("enabled"), true)
+                && isEmpty(sourceMapping.get("includes"))
+                && isEmpty(sourceMapping.get("excludes"));
+    }
+
+    private static boolean isEmpty(Object node) {
+        return node == null
+                || (node instanceof Collection && ((Collection<?>) node).isEmpty())
+                || (node instanceof Object[] && ((Object[]) node).length == 0);
+    }
+
+    private long copy(String source, String target) throws InterruptedException {
+        BulkProcessor bulkProcessor = BulkProcessor.builder(client, new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+                bulkStarted();
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                if (response.hasFailures()) {
+                    logger.error("failed to reindex" + response.buildFailureMessage());
+                    for (int i = 0; i < response.getItems().length; i++) {
+                        if (response.getItems()[i].isFailed()) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+                bulkDone();
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                logger.error("failed to reindex", failure);
+                failures.addAndGet(request.numberOfActions());
+                bulkDone();
+            }
+        })
+                .setName("subversion_river_reindexer")
+                .setBulkActions(bulkSize)
+                .setConcurrentRequests(concurrentBulks)
+                .build();
+
+        long copied = 0;
+        SearchResponse scrollResponse = client.prepareSearch(source)
+                .setSearchType(SearchType.SCAN)
+                .setScroll(TimeValue.timeValueMinutes(5))
+                .setQuery(QueryBuilders.matchAllQuery())
+                .addFields("_source", "_parent")
+                .setSize(bulkSize)
+                .execute().actionGet();
+        while (true) {
+            scrollResponse = client.prepareSearchScroll(scrollResponse.getScrollId())
+                    .setScroll(TimeValue.timeValueMinutes(5))
+                    .execute().actionGet();
+            if (scrollResponse.getHits().getHits().length == 0) {
+                break;
+            }
+            for (SearchHit hit : scrollResponse.getHits()) {
+                IndexRequest request = new IndexRequest(target, hit.getType(), hit.getId())
+                        .source(hit.getSourceRef());
+                // Children must stay with their parent
+                if (hit.field("_parent") != null) {
+                    request.parent((String) hit.field("_parent").getValue());
+                }
+                bulkProcessor.add(request);
+                copied++;
+            }
+            logger.debug("Reindexing [{}] : {}/{} documents", indexName,
+                    copied, scrollResponse.getHits().getTotalHits());
+        }
+        bulkProcessor.close();
+        waitForBulks();
+        return copied;
+    }
+
+    private synchronized void bulkStarted() {
+        pendingBulks++;
+    }
+
+    private synchronized void bulkDone() {
+        pendingBulks--;
+        notifyAll();
+    }
+
+    private synchronized void waitForBulks() throws InterruptedException {
+        while (pendingBulks > 0) {
+            wait();
+        }
+    }
+}
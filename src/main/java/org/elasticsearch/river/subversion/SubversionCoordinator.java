@@ -0,0 +1,264 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.river.cluster.RiverNodeHelper;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Coordinator of a river crawling several repositories, or paths, spread over the nodes of the cluster.
+ * Every task is leased to a node, by a lease document in the _river index,
+ * which the SubversionWorker of that node renews while it crawls the task.
+ * The tasks of the nodes which left, or stopped renewing their leases, are leased again,
+ * and the tasks are moved from the busiest nodes to the idlest ones, when nodes join :
+ * a moved task only starts on its new node once the previous one released it, or its lease expired.
+ * Every task keeps its own indexed_revision checkpoint, so that it resumes wherever it goes.
+ */
+public class SubversionCoordinator {
+
+    private static ESLogger logger = Loggers.getLogger(SubversionCoordinator.class);
+
+    public static final String LEASE = "lease";
+    public static final String LEASE_PREFIX = "_lease_";
+
+    private final String name;
+    private final Client client;
+    private final ThreadPool threadPool;
+    private final long leaseTimeout;
+    // Settings of every task, by name, like the _meta document of a river
+    private final Map<String, Map<String, Object>> tasks = Maps.newLinkedHashMap();
+    private volatile ScheduledFuture<?> ticks;
+    private final AtomicBoolean leasing = new AtomicBoolean();
+
+    /**
+     * @param name the name of the coordinator river
+     * @param tasks the settings of the tasks, each one like the _meta document of a river,
+     *              with an optional "name"
+     * @param client the client
+     * @param threadPool the thread pool, to schedule the leasing
+     * @param leaseTimeout in ms, how long a lease lasts without being renewed
+     */
+    @SuppressWarnings("unchecked")
+    public SubversionCoordinator(String name,
+                                 List<?> tasks,
+                                 Client client,
+                                 ThreadPool threadPool,
+                                 long leaseTimeout) {
+        this.name = name;
+        this.client = client;
+        this.threadPool = threadPool;
+        this.leaseTimeout = leaseTimeout;
+        for (Object task : tasks) {
+            if (!(task instanceof Map)) {
+                logger.warn("Ignoring task [{}] of [{}], which is not an object", task, name);
+                continue;
+            }
+            Map<String, Object> taskSettings = (Map<String, Object>) task;
+            String taskName = XContentMapValues.nodeStringValue(taskSettings.get("name"),
+                    name + "_" + this.tasks.size());
+            this.tasks.put(taskName, taskSettings);
+        }
+    }
+
+    public void start() {
+        logger.info("Coordinating [{}] tasks of [{}], leased for [{}] ms", tasks.size(), name, leaseTimeout);
+        final Runnable leaser = new Runnable() {
+            @Override
+            public void run() {
+                if (!leasing.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    lease();
+                } catch (Exception e) {
+                    logger.warn("failed to lease the tasks of [{}]", e, name);
+                } finally {
+                    leasing.set(false);
+                }
+            }
+        };
+        // The scheduler thread only hands the leasing over, as it waits for the cluster
+        ticks = threadPool.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                threadPool.generic().execute(leaser);
+            }
+        }, TimeValue.timeValueMillis(Math.max(1000L, leaseTimeout / 3)));
+    }
+
+    /**
+     * Stop leasing. The leases are left as they are : the workers go on
+     * until the coordinator is started again, or its leases are deleted with the river.
+     */
+    public void close() {
+        if (ticks != null) {
+            ticks.cancel(false);
+        }
+    }
+
+    /**
+     * Lease the tasks without a live owner, and move some from the busiest nodes to the idlest ones
+     */
+    void lease() throws IOException {
+        List<String> nodes = Lists.newArrayList();
+        for (DiscoveryNode node : client.admin().cluster().prepareState()
+                .execute().actionGet().getState().nodes()) {
+            if (RiverNodeHelper.isRiverNode(node)) {
+                nodes.add(node.id());
+            }
+        }
+        client.admin().indices().prepareRefresh("_river").execute().actionGet();
+        SearchResponse response = client.prepareSearch("_river")
+                .setTypes(name)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                        FilterBuilders.existsFilter(LEASE + ".task")))
+                .setSize(Math.max(10, tasks.size() * 2))
+                .execute().actionGet();
+        long now = System.currentTimeMillis();
+        Map<String, String> owners = Maps.newHashMap();
+        Map<String, Long> heartbeats = Maps.newHashMap();
+        for (SearchHit hit : response.getHits()) {
+            Map<?, ?> lease = (Map<?, ?>) hit.sourceAsMap().get(LEASE);
+            String task = XContentMapValues.nodeStringValue(lease.get("task"), null);
+            if (!tasks.containsKey(task)) {
+                logger.info("Task [{}] of [{}] is gone, deleting its lease", task, name);
+                client.prepareDelete("_river", name, hit.getId()).execute().actionGet();
+                continue;
+            }
+            long heartbeat = XContentMapValues.nodeLongValue(lease.get("heartbeat"), 0L);
+            if (heartbeat > now - leaseTimeout) {
+                owners.put(task, XContentMapValues.nodeStringValue(lease.get("node"), null));
+                heartbeats.put(task, heartbeat);
+            }
+        }
+        Map<String, String> assignments = balance(tasks.keySet(), owners, nodes);
+        for (Map.Entry<String, String> assignment : assignments.entrySet()) {
+            String task = assignment.getKey();
+            if (assignment.getValue().equals(owners.get(task))) {
+                continue;
+            }
+            logger.info("Leasing task [{}] of [{}] to node [{}], instead of [{}]",
+                    task, name, assignment.getValue(), owners.get(task));
+            client.prepareIndex("_river", name, LEASE_PREFIX + task)
+                    .setSource(jsonBuilder()
+                            .startObject()
+                                .startObject(LEASE)
+                                    .field("task", task)
+                                    .field("node", assignment.getValue())
+                                    .field("heartbeat", now)
+                                    // The new node waits for the live owner to release the task
+                                    .field("previous", owners.get(task))
+                                    .field("previous_until", owners.containsKey(task) ?
+                                            heartbeats.get(task) + leaseTimeout : 0L)
+                                    // Kept as a string, for the settings of the tasks not to be mapped
+                                    .field("settings", jsonBuilder().map(tasks.get(task)).string())
+                                .endObject()
+                            .endObject())
+                    .setRefresh(true)
+                    .execute().actionGet();
+        }
+    }
+
+    /**
+     * Spread the tasks over the nodes : the tasks keep their live owner,
+     * the others go to the idlest nodes, and then tasks are moved, one at a time,
+     * until no node has more than one task more than another.
+     * @param tasks the tasks
+     * @param owners the live owner of the tasks, by task
+     * @param nodes the nodes which can run tasks
+     * @return the node of every task, none if there are no nodes
+     */
+    static Map<String, String> balance(Collection<String> tasks, Map<String, String> owners, Collection<String> nodes) {
+        Map<String, String> result = Maps.newLinkedHashMap();
+        if (nodes.isEmpty()) {
+            return result;
+        }
+        // Sorted, for the same tasks to go to the same nodes
+        TreeMap<String, List<String>> load = Maps.newTreeMap();
+        for (String node : nodes) {
+            load.put(node, Lists.<String>newArrayList());
+        }
+        List<String> orphans = Lists.newArrayList();
+        for (String task : tasks) {
+            String owner = owners.get(task);
+            if (owner != null && load.containsKey(owner)) {
+                load.get(owner).add(task);
+            } else {
+                orphans.add(task);
+            }
+        }
+        for (String orphan : orphans) {
+            load.get(idlest(load)).add(orphan);
+        }
+        while (true) {
+            List<String> busiest = load.get(busiest(load));
+            List<String> idlest = load.get(idlest(load));
+            if (busiest.size() - idlest.size() <= 1) {
+                break;
+            }
+            idlest.add(busiest.remove(busiest.size() - 1));
+        }
+        for (Map.Entry<String, List<String>> node : load.entrySet()) {
+            for (String task : node.getValue()) {
+                result.put(task, node.getKey());
+            }
+        }
+        return result;
+    }
+
+    private static String idlest(TreeMap<String, List<String>> load) {
+        String result = null;
+        for (Map.Entry<String, List<String>> node : load.entrySet()) {
+            if (result == null || node.getValue().size() < load.get(result).size()) {
+                result = node.getKey();
+            }
+        }
+        return result;
+    }
+
+    private static String busiest(TreeMap<String, List<String>> load) {
+        String result = null;
+        for (Map.Entry<String, List<String>> node : load.entrySet()) {
+            if (result == null || node.getValue().size() > load.get(result).size()) {
+                result = node.getKey();
+            }
+        }
+        return result;
+    }
+}
@@ -17,39 +17,68 @@
 package org.elasticsearch.river.subversion;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.GetRequestBuilder;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.common.Base64;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.get.GetField;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.elasticsearch.river.AbstractRiverComponent;
 import org.elasticsearch.river.River;
 import org.elasticsearch.river.RiverName;
 import org.elasticsearch.river.RiverSettings;
+import org.elasticsearch.river.subversion.crawler.BaseTextCache;
+import org.elasticsearch.river.subversion.crawler.CallWatchdog;
+import org.elasticsearch.river.subversion.crawler.ContentExtractor;
+import org.elasticsearch.river.subversion.crawler.HostLimiter;
+import org.elasticsearch.river.subversion.crawler.MemoryBudget;
+import org.elasticsearch.river.subversion.crawler.MirrorCache;
+import org.elasticsearch.river.subversion.crawler.DocumentHandler;
 import org.elasticsearch.river.subversion.crawler.Parameters;
+import org.elasticsearch.river.subversion.crawler.RevisionBitmap;
+import org.elasticsearch.river.subversion.crawler.RevisionHandler;
 import org.elasticsearch.river.subversion.crawler.SubversionCrawler;
 import org.elasticsearch.river.subversion.mapping.IndexedRevisionMapping;
+import org.elasticsearch.river.subversion.mapping.MappingProfile;
+import org.elasticsearch.river.subversion.mapping.SubversionDeadLetterMapping;
 import org.elasticsearch.river.subversion.mapping.SubversionDocumentMapping;
 import org.elasticsearch.river.subversion.mapping.SubversionRevisionMapping;
+import org.elasticsearch.river.subversion.type.SubversionDeadLetter;
 import org.elasticsearch.river.subversion.type.SubversionDocument;
 import org.elasticsearch.river.subversion.type.SubversionRevision;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.tmatesoft.svn.core.SVNException;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 
 import static org.elasticsearch.client.Requests.indexRequest;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
@@ -60,7 +89,6 @@ import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 public class SubversionRiver extends AbstractRiverComponent implements River {
 
     private Client client;
-    @SuppressWarnings("unused")
     private ThreadPool threadPool;
 
     private String indexName = null;
@@ -69,11 +97,48 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
     private Parameters crawlerParameters;
     private int updateRate;
     private int bulkSize;
-    private long indexedRevision;
+    private boolean currentTree;
+    private boolean snapshot;
+    private String dumpFile;
+    private volatile long indexedRevision;
     private String indexedRevisionID;
 
     private volatile boolean closed;
+    // The thread of the pool running the cycle in progress, if any
     private volatile Thread indexerThread;
+    private final Indexer indexer = new Indexer();
+    private ScheduledFuture<?> nextCycle;
+    private SubversionRiverPool pool;
+    // True while the indexer sends bulks, which a close waits for instead of interrupting them
+    private volatile boolean indexing;
+    private final Object shutdownLock = new Object();
+    private long shutdownTimeout = 30000L;
+    private volatile Thread contentLoaderThread;
+    private volatile ContentLoader contentLoader;
+    private volatile Thread contentRetentionThread;
+    private volatile ContentRetention contentRetention;
+    private long retentionRevisions;
+    private int retentionDays;
+    private boolean retentionHead;
+    private long retentionInterval;
+    private BaseTextCache baseTextCache;
+    private String mirrorPath;
+    private String rolloverPolicy;
+    private long rolloverRevisions;
+    private boolean rolloverSeal;
+    private IndexRollover rollover;
+    private MirrorCache mirror;
+    private BulkThrottle bulkThrottle;
+    private MemoryBudget memoryBudget;
+    private boolean skipIndexed;
+    // Loaded from the checkpoint on the first cycle
+    private RevisionBitmap indexedRevisions;
+    // Revisions added to the bulks, known to be indexed once the bulks are executed
+    private final List<Long> unconfirmedRevisions = Lists.newArrayList();
+    // Actions of the cycle sent ahead of its checkpoint, and lost
+    private boolean actionsFailed;
+    private MappingProfile mappingProfile = MappingProfile.full();
+    private SubversionCoordinator coordinator;
 
     private static final HashFunction hf = Hashing.md5();
     private static final Long NOT_INDEXED_REVISION = 0L;
@@ -83,11 +148,22 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
     protected SubversionRiver(RiverName riverName,
                               RiverSettings settings,
                               Client client,
-                              ThreadPool threadPool) {
+                              ThreadPool threadPool,
+                              SubversionRiverPool pool) {
         super(riverName, settings);
         logger.info("Creating subversion river");
         this.client = client;
         this.threadPool = threadPool;
+        this.pool = pool;
+        // A coordinator only leases its tasks to the nodes, which crawl them
+        if (XContentMapValues.isArray(settings.settings().get("tasks"))) {
+            coordinator = new SubversionCoordinator(riverName.name(),
+                    (List<?>) settings.settings().get("tasks"),
+                    client,
+                    threadPool,
+                    XContentMapValues.nodeLongValue(settings.settings().get("lease_timeout"), 30000L));
+            return;
+        }
         if (settings.settings().containsKey("svn")) {
             @SuppressWarnings("unchecked")
             Map<String, Object> subversionSettings = (Map<String, Object>) settings.settings().get("svn");
@@ -114,13 +190,152 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
                 //.setPatternsToFilter((Set<Pattern>) subversionSettings.get("patterns_to_filter"))
                 .setStoreDiffs(XContentMapValues.nodeBooleanValue(
                     subversionSettings.get("store_diffs"), false))
+                .setLazyContent(XContentMapValues.nodeBooleanValue(
+                    subversionSettings.get("lazy_content"), false))
+                .setContentExtractors(loadContentExtractors(
+                    subversionSettings.get("content_extractors")))
+                .setExtractorSizeBudget(XContentMapValues.nodeLongValue(
+                    subversionSettings.get("extractor_size_budget"), 0L))
+                .setFallbackCharset(XContentMapValues.nodeStringValue(
+                    subversionSettings.get("fallback_charset"), null))
+                .setDeltaContent(XContentMapValues.nodeBooleanValue(
+                    subversionSettings.get("delta_content"), false))
+                .setDeltaCacheSize(XContentMapValues.nodeLongValue(
+                    subversionSettings.get("delta_cache_size"), 0L))
+                .setRetries(XContentMapValues.nodeIntegerValue(
+                    subversionSettings.get("retries"), 3))
+                .setRetryDelay(XContentMapValues.nodeLongValue(
+                    subversionSettings.get("retry_delay"), 1000L))
+                .setFsfsReader(XContentMapValues.nodeBooleanValue(
+                    subversionSettings.get("fsfs_reader"), false))
+                .setSkipPropertyChanges(XContentMapValues.nodeBooleanValue(
+                    subversionSettings.get("skip_property_changes"), false))
+                .setConnectTimeout(XContentMapValues.nodeIntegerValue(
+                    subversionSettings.get("connect_timeout"), 30000))
+                .setReadTimeout(XContentMapValues.nodeIntegerValue(
+                    subversionSettings.get("read_timeout"), 300000))
+                .setCallTimeout(XContentMapValues.nodeLongValue(
+                    subversionSettings.get("call_timeout"), 600000L))
             .create();
             logger.info("Init Subversion river, crawler parameters [{}]", crawlerParameters);
             // River settings
             updateRate = XContentMapValues.nodeIntegerValue(subversionSettings.get("update_rate"), 15 * 60 * 1000);
+            shutdownTimeout = XContentMapValues.nodeLongValue(subversionSettings.get("shutdown_timeout"), 30000L);
+            memoryBudget = new MemoryBudget(pool.getBreaker(),
+                    XContentMapValues.nodeLongValue(subversionSettings.get("memory_budget"), 0L));
             indexName = XContentMapValues.nodeStringValue(subversionSettings.get("index"), riverName.name());
             typeName = XContentMapValues.nodeStringValue(subversionSettings.get("type"), "svn");
             bulkSize = XContentMapValues.nodeIntegerValue(subversionSettings.get("bulk_size"), 200);
+            currentTree = XContentMapValues.nodeBooleanValue(subversionSettings.get("current_tree"), false);
+            snapshot = XContentMapValues.nodeBooleanValue(subversionSettings.get("snapshot"), false);
+            dumpFile = XContentMapValues.nodeStringValue(subversionSettings.get("dump_file"), null);
+            skipIndexed = XContentMapValues.nodeBooleanValue(subversionSettings.get("skip_indexed"), false);
+            mirrorPath = XContentMapValues.nodeStringValue(subversionSettings.get("mirror_path"), null);
+            rolloverPolicy = XContentMapValues.nodeStringValue(subversionSettings.get("rollover"), null);
+            rolloverRevisions = XContentMapValues.nodeLongValue(subversionSettings.get("rollover_revisions"), 100000L);
+            rolloverSeal = XContentMapValues.nodeBooleanValue(subversionSettings.get("rollover_seal"), true);
+            retentionRevisions = XContentMapValues.nodeLongValue(subversionSettings.get("retention_revisions"), 0L);
+            retentionDays = XContentMapValues.nodeIntegerValue(subversionSettings.get("retention_days"), 0);
+            retentionHead = XContentMapValues.nodeBooleanValue(subversionSettings.get("retention_head"), false);
+            retentionInterval = XContentMapValues.nodeLongValue(
+                    subversionSettings.get("retention_interval"), 60 * 60 * 1000L);
+            if (rolloverPolicy != null && !IndexRollover.isValidPolicy(rolloverPolicy)) {
+                logger.warn("Unknown rollover [{}], ignoring it", rolloverPolicy);
+                rolloverPolicy = null;
+            }
+            if (rolloverPolicy != null && currentTree) {
+                // Documents are updated in place, whatever their revision
+                logger.warn("Rollover is not possible with current_tree, ignoring it");
+                rolloverPolicy = null;
+            }
+            if (rolloverPolicy != null && snapshot) {
+                // The documents of a snapshot would be spread over buckets about to be sealed
+                logger.warn("snapshot is not possible with a rollover, indexing the whole history");
+                snapshot = false;
+            }
+            mappingProfile = MappingProfile.forName(XContentMapValues.nodeStringValue(
+                    subversionSettings.get("mapping_profile"), MappingProfile.FULL));
+            if (mappingProfile == null) {
+                logger.warn("Unknown mapping_profile [{}], using the full one",
+                        subversionSettings.get("mapping_profile"));
+                mappingProfile = MappingProfile.full();
+            }
+            if (XContentMapValues.isArray(subversionSettings.get("untouched_fields"))) {
+                Set<String> untouchedFields = Sets.newHashSet();
+                for (Object field : (List<?>) subversionSettings.get("untouched_fields")) {
+                    untouchedFields.add(XContentMapValues.nodeStringValue(field, null));
+                }
+                mappingProfile.setUntouchedFields(untouchedFields);
+            }
+            if ((currentTree || isRetention()) && !mappingProfile.isUntouched("fullname")) {
+                // Paths are deleted and stripped by prefix on the untouched full name
+                logger.warn("untouched_fields must contain [fullname] with current_tree or retention, adding it");
+                mappingProfile.setUntouchedFields(Sets.union(
+                        mappingProfile.getUntouchedFields(), ImmutableSet.of("fullname")));
+            }
+            mappingProfile
+                .setAllField(XContentMapValues.nodeBooleanValue(
+                        subversionSettings.get("all_field"), mappingProfile.isAllField()))
+                .setSourceContent(XContentMapValues.nodeBooleanValue(
+                        subversionSettings.get("source_content"), mappingProfile.isSourceContent()))
+                .setCompressSource(XContentMapValues.nodeBooleanValue(
+                        subversionSettings.get("compress_source"), mappingProfile.isCompressSource()))
+                .setDocumentMessage(XContentMapValues.nodeBooleanValue(
+                        subversionSettings.get("document_message"), mappingProfile.isDocumentMessage()));
+            String documentModel = XContentMapValues.nodeStringValue(
+                    subversionSettings.get("document_model"), MappingProfile.FLAT);
+            if (!MappingProfile.isValidDocumentModel(documentModel)) {
+                logger.warn("Unknown document_model [{}], using flat documents", documentModel);
+                documentModel = MappingProfile.FLAT;
+            }
+            if (!MappingProfile.FLAT.equals(documentModel) && (currentTree || snapshot)) {
+                // Documents are not indexed along with the revision of their change
+                logger.warn("document_model [{}] is not possible with current_tree or snapshot, " +
+                        "using flat documents", documentModel);
+                documentModel = MappingProfile.FLAT;
+            }
+            if (MappingProfile.NESTED.equals(documentModel) && crawlerParameters.getLazyContent().get()) {
+                // Nested documents cannot be updated on their own
+                logger.warn("document_model [nested] is not possible with lazy_content, using flat documents");
+                documentModel = MappingProfile.FLAT;
+            }
+            mappingProfile.setDocumentModel(documentModel);
+            if (isRetention() && isNestedModel()) {
+                // Nested documents cannot be updated on their own
+                logger.warn("retention is not possible with document_model [nested], ignoring it");
+                retentionRevisions = 0L;
+                retentionDays = 0;
+            }
+            if (isRetention() && rolloverPolicy != null && rolloverSeal) {
+                // The older buckets are the ones to strip
+                logger.warn("rollover_seal is not possible with a retention, the buckets are left writable");
+                rolloverSeal = false;
+            }
+            // The requests to the repository host are limited for all the rivers of the node
+            double svnRequestsPerSecond = XContentMapValues.nodeDoubleValue(
+                    subversionSettings.get("svn_requests_per_second"), 0);
+            int svnMaxRequests = XContentMapValues.nodeIntegerValue(subversionSettings.get("svn_max_requests"), 0);
+            if (repos != null && (svnRequestsPerSecond > 0 || svnMaxRequests > 0)) {
+                try {
+                    HostLimiter.configure(new URL(repos).getHost(), svnRequestsPerSecond, svnMaxRequests);
+                } catch (MalformedURLException e) {
+                    logger.warn("failed to limit the requests to [{}]", e, repos);
+                }
+            }
+            int bulkConcurrency = XContentMapValues.nodeIntegerValue(subversionSettings.get("bulk_concurrency"), 1);
+            if (currentTree && bulkConcurrency > 1) {
+                // The versions of a path overwrite each other, so they must be applied in order
+                logger.warn("bulk_concurrency is not possible with current_tree, sending one bulk at a time");
+                bulkConcurrency = 1;
+            }
+            bulkThrottle = new BulkThrottle(client,
+                    XContentMapValues.nodeIntegerValue(subversionSettings.get("bulk_actions"), 1000),
+                    bulkConcurrency,
+                    XContentMapValues.nodeDoubleValue(subversionSettings.get("max_docs_per_second"), 0),
+                    XContentMapValues.nodeDoubleValue(subversionSettings.get("max_bytes_per_second"), 0));
+            if (crawlerParameters.getDeltaContent().get()) {
+                baseTextCache = new BaseTextCache(crawlerParameters.getDeltaCacheSize().get());
+            }
         }
 
         indexedRevisionID ="_indexed_revision_".concat(
@@ -133,9 +348,35 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
 
     }
 
+    /**
+     * Instantiate the content extractors declared in the settings
+     * @param classNames list of ContentExtractor implementations
+     * @return the content extractors
+     */
+    private List<ContentExtractor> loadContentExtractors(Object classNames) {
+        List<ContentExtractor> result = Lists.newArrayList();
+        if (!XContentMapValues.isArray(classNames)) {
+            return result;
+        }
+        for (Object className : (List<?>) classNames) {
+            try {
+                Class<?> extractorClass = settings.globalSettings().getClassLoader()
+                        .loadClass(XContentMapValues.nodeStringValue(className, null));
+                result.add((ContentExtractor) extractorClass.newInstance());
+            } catch (Exception e) {
+                logger.warn("failed to load content extractor [{}], ignoring it", e, className);
+            }
+        }
+        return result;
+    }
+
     @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
     @Override
     public void start() {
+        if (coordinator != null) {
+            coordinator.start();
+            return;
+        }
         logger.info("Starting Subversion River: repos [{}], path [{}], updateRate [{}], bulksize [{}], " +
                 "startRevision [{}], indexing to [{}]/[{}]",
                 repos, crawlerParameters.getPath().get(),
@@ -146,25 +387,42 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
             client.admin().cluster().prepareHealth()
                     .setWaitForYellowStatus()
                     .execute().actionGet();
-            // Checks if the index has already been created
-            IndicesExistsResponse existResponse = client.admin().indices()
-                    .prepareExists(indexName)
-                    .execute().actionGet();
-            if(!existResponse.isExists()) {
-                logger.info("Subversion River: Index [{}] does not exists, creating...",
-                        indexName);
-                client.admin().indices()
-                        .prepareCreate(indexName)
-                        .execute().actionGet();
-                // Wait for the cluster availability
-                client.admin().cluster().prepareHealth()
-                        .setWaitForYellowStatus()
+            // With a rollover, the index is an alias of buckets
+            if (rolloverPolicy != null) {
+                rollover = new IndexRollover(client, indexName, rolloverPolicy,
+                        rolloverRevisions, rolloverSeal, getMappings());
+                if (!rollover.init()) {
+                    logger.warn("Index [{}] already exists, rollover is not possible", indexName);
+                    rollover = null;
+                }
+            }
+            // With a rollover, the buckets are created on demand
+            if (rollover == null) {
+                // Checks if the index has already been created
+                IndicesExistsResponse existResponse = client.admin().indices()
+                        .prepareExists(indexName)
                         .execute().actionGet();
+                if(!existResponse.isExists()) {
+                    logger.info("Subversion River: Index [{}] does not exists, creating...",
+                            indexName);
+                    // Behind an alias, for the index to be rebuilt later on
+                    String concreteIndex = Reindexer.newIndexName(indexName);
+                    client.admin().indices()
+                            .prepareCreate(concreteIndex)
+                            .execute().actionGet();
+                    // Wait for the cluster availability
+                    client.admin().cluster().prepareHealth()
+                            .setWaitForYellowStatus()
+                            .execute().actionGet();
+                    client.admin().indices().prepareAliases()
+                            .addAlias(concreteIndex, indexName)
+                            .execute().actionGet();
+                }
+                // Create Mappings if needed
+                for (Map.Entry<String, XContentBuilder> mapping : getMappings().entrySet()) {
+                    CreateMapping(mapping.getKey(), mapping.getValue());
+                }
             }
-            // Create Mappings if needed
-            CreateMapping(SubversionRevision.TYPE_NAME, SubversionRevisionMapping.getInstance());
-            CreateMapping(SubversionDocument.TYPE_NAME, SubversionDocumentMapping.getInstance());
-            CreateMapping("indexed_revision", IndexedRevisionMapping.getInstance());
         } catch (Exception e) {
             Throwable cause = ExceptionsHelper.unwrapCause(e);
             if (!(cause instanceof IndexAlreadyExistsException) && !(cause instanceof ClusterBlockException)) {
@@ -173,9 +431,49 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
             }
         }
 
-        indexerThread = EsExecutors.daemonThreadFactory(settings.globalSettings(), "subversion_river_indexer")
-                .newThread(new Indexer());
-        indexerThread.start();
+        // The local mirror outlives the river and its index, to be reused when reindexing
+        if (mirrorPath != null) {
+            File mirrorFile = new File(mirrorPath,
+                    hf.newHasher()
+                            .putUnencodedChars(repos)
+                            .putUnencodedChars(crawlerParameters.getPath().get())
+                            .hash()
+                            .toString() + ".mirror");
+            try {
+                mirror = new MirrorCache(mirrorFile);
+            } catch (IOException e) {
+                logger.warn("failed to open mirror [{}], crawling without it", e, mirrorFile);
+            }
+        }
+
+        // Out of the retention, the contents are stripped by a low priority background thread
+        if (isRetention()) {
+            contentRetention = new ContentRetention(client, indexName,
+                    retentionRevisions, retentionDays, retentionHead, retentionInterval, bulkSize);
+            contentRetentionThread = EsExecutors.daemonThreadFactory(settings.globalSettings(),
+                    "subversion_river_content_retention")
+                    .newThread(contentRetention);
+            contentRetentionThread.setPriority(Thread.MIN_PRIORITY);
+            contentRetentionThread.start();
+        }
+
+        // In lazy mode, the content is loaded by a low priority background thread
+        if (crawlerParameters.getLazyContent().get()) {
+            try {
+                contentLoader = new ContentLoader(client, indexName, new URL(repos), crawlerParameters, bulkSize);
+            } catch (MalformedURLException e) {
+                logger.warn("failed to start content loader for [{}]", e, repos);
+                return;
+            }
+            contentLoaderThread = EsExecutors.daemonThreadFactory(settings.globalSettings(),
+                    "subversion_river_content_loader")
+                    .newThread(contentLoader);
+            contentLoaderThread.setPriority(Thread.MIN_PRIORITY);
+            contentLoaderThread.start();
+        }
+
+        // The cycles of the river run on the pool shared by the rivers of the node
+        submitCycle();
     }
 
     /**
@@ -205,8 +503,193 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
             return;
         }
         logger.info("Stopping Subversion River");
-        indexerThread.interrupt();
-        closed = true;
+        if (coordinator != null) {
+            coordinator.close();
+            closed = true;
+            return;
+        }
+        synchronized (shutdownLock) {
+            closed = true;
+            if (nextCycle != null) {
+                nextCycle.cancel(false);
+            }
+            // Stop the crawling, but let the bulks in flight complete
+            if (indexerThread != null && !indexing) {
+                indexerThread.interrupt();
+            }
+        }
+        if (contentLoader != null) {
+            contentLoader.close();
+            contentLoaderThread.interrupt();
+        }
+        if (contentRetention != null) {
+            contentRetention.close();
+            contentRetentionThread.interrupt();
+        }
+        // Wait for the cycle in progress, which closes the mirror when done
+        long deadline = System.currentTimeMillis() + shutdownTimeout;
+        synchronized (shutdownLock) {
+            try {
+                long remaining;
+                while (indexerThread != null && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    shutdownLock.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (indexerThread != null) {
+                logger.warn("Subversion river still indexing after {} ms, interrupting it", shutdownTimeout);
+                indexerThread.interrupt();
+                return;
+            }
+        }
+        closeMirror();
+        logger.info("Subversion river stopped at revision [{}]", indexedRevision);
+    }
+
+    /**
+     * @return the last revision indexed, or to be indexed by the cycle in progress
+     */
+    long getLastIndexedRevision() {
+        return indexedRevision;
+    }
+
+    /**
+     * Queue a cycle of the river on the pool
+     */
+    private void submitCycle() {
+        if (closed) {
+            return;
+        }
+        try {
+            pool.submit(indexer);
+        } catch (EsRejectedExecutionException e) {
+            logger.warn("failed to schedule the Subversion river, the node is stopping");
+        }
+    }
+
+    /**
+     * Enter the sending of bulks, which a close of the river does not interrupt
+     * @return true if the thread was interrupted before, to be restored by endIndexing
+     */
+    private boolean beginIndexing() {
+        synchronized (shutdownLock) {
+            indexing = true;
+            // Meant for the crawling, which will see it again afterwards
+            return Thread.interrupted();
+        }
+    }
+
+    private void endIndexing(boolean interrupted) {
+        synchronized (shutdownLock) {
+            indexing = false;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void closeMirror() {
+        if (mirror != null) {
+            try {
+                mirror.close();
+            } catch (IOException e) {
+                logger.warn("failed to close mirror", e);
+            }
+            mirror = null;
+        }
+    }
+
+    /**
+     * Rebuild the index with the current mappings, from its own documents,
+     * when asked to by a _reindex document in the _river index :
+     * curl -XPUT 'localhost:9200/_river/mysvnriver/_reindex' -d '{"concurrent_bulks": 2}'
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void reindexIfRequested() throws InterruptedException, IOException {
+        GetResponse command = client.prepareGet("_river", riverName.name(), "_reindex")
+                .execute().actionGet();
+        if (!command.isExists()) {
+            return;
+        }
+        int concurrentBulks = XContentMapValues.nodeIntegerValue(
+                command.getSourceAsMap().get("concurrent_bulks"), 2);
+        // Their updates of the documents already copied would be lost
+        if (contentLoader != null) {
+            contentLoader.pause();
+        }
+        if (contentRetention != null) {
+            contentRetention.pause();
+        }
+        try {
+            new Reindexer(client, indexName, bulkSize, concurrentBulks).reindex(getMappings());
+        } finally {
+            if (contentLoader != null) {
+                contentLoader.resume();
+            }
+            if (contentRetention != null) {
+                contentRetention.resume();
+            }
+            // Done once, whatever the outcome
+            client.prepareDelete("_river", riverName.name(), "_reindex").execute().actionGet();
+        }
+    }
+
+    /**
+     * @return the mappings of the index, by type
+     * @throws IOException
+     */
+    private Map<String, XContentBuilder> getMappings() throws IOException {
+        Map<String, XContentBuilder> mappings = Maps.newLinkedHashMap();
+        // A _parent can only point to a type not mapped yet
+        if (isChildModel()) {
+            mappings.put(SubversionDocument.TYPE_NAME, SubversionDocumentMapping.getInstance(mappingProfile));
+        }
+        mappings.put(SubversionRevision.TYPE_NAME, SubversionRevisionMapping.getInstance(mappingProfile));
+        if (!isChildModel()) {
+            mappings.put(SubversionDocument.TYPE_NAME, SubversionDocumentMapping.getInstance(mappingProfile));
+        }
+        mappings.put("indexed_revision", IndexedRevisionMapping.getInstance());
+        mappings.put("indexed_revisions", IndexedRevisionMapping.getIndexedInstance());
+        mappings.put(SubversionDeadLetter.TYPE_NAME, SubversionDeadLetterMapping.getInstance());
+        return mappings;
+    }
+
+    private void logHostLimiter() {
+        try {
+            HostLimiter limiter = HostLimiter.of(new URL(repos).getHost());
+            if (limiter.getRequests() > 0) {
+                logger.info("Waited [{}]ms on the limiter of [{}], over [{}] requests",
+                        limiter.getWaitTime(), limiter.getHost(), limiter.getRequests());
+            }
+            if (CallWatchdog.getStalledCalls() > 0) {
+                logger.info("[{}] stalled calls aborted on the node", CallWatchdog.getStalledCalls());
+            }
+        } catch (MalformedURLException e) {
+            logger.debug("No limiter for [{}]", repos);
+        }
+    }
+
+    private boolean isRetention() {
+        return retentionRevisions > 0 || retentionDays > 0;
+    }
+
+    private boolean isChildModel() {
+        return MappingProfile.CHILD.equals(mappingProfile.getDocumentModel());
+    }
+
+    private boolean isNestedModel() {
+        return MappingProfile.NESTED.equals(mappingProfile.getDocumentModel());
+    }
+
+    /**
+     * @param revision the revision to index
+     * @param date the date of the revision
+     * @return the index where to write the revision, and its documents
+     */
+    private String getWriteIndex(long revision, Date date) {
+        return rollover == null ? indexName : rollover.getIndex(revision, date);
     }
 
     /**
@@ -233,13 +716,13 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
         }
 
         // Attempt to get the last indexed revision with a GET.
-        // A NullPointerException basically means that there is no indexed_revision.
-        GetResponse response = client.prepareGet(indexName, "indexed_revision", indexedRevisionID)
-                .setFields("revision")
-                .execute()
-                .actionGet();
+        GetResponse response = getCheckpoint(client.prepareGet()
+                .setFields("revision"));
+        if (response == null) {
+            return NOT_INDEXED_REVISION;
+        }
         logger.debug("Get Indexed Revision Index [{}] Type [{}] Id [{}] Fields [{}]",
-                indexName, "indexed_revision", indexedRevisionID, response.getFields());
+                response.getIndex(), "indexed_revision", indexedRevisionID, response.getFields());
 
         Optional<GetField> indexedRevisionField = Optional.fromNullable(response.getField("revision"));
         if( !indexedRevisionField.isPresent()
@@ -253,91 +736,411 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
     }
 
     /**
-     * Main Indexer Class
+     * GET the checkpoint of the river, in real time as it may not be refreshed yet.
+     * Behind the alias of a rollover, it is in the newest bucket that has one.
+     * @param get the GET, with the fields to retrieve
+     * @return the checkpoint, not existing if there is none, null if there is no bucket yet
+     */
+    private GetResponse getCheckpoint(GetRequestBuilder get) {
+        return getCheckpoint(get, "indexed_revision");
+    }
+
+    /**
+     * @param get the GET, with the fields to retrieve
+     * @param type the type of the checkpoint document
+     * @return the checkpoint document of this type, not existing if there is none, null if there is no bucket yet
+     */
+    private GetResponse getCheckpoint(GetRequestBuilder get, String type) {
+        List<String> indices = rollover == null ?
+                Collections.singletonList(indexName)
+                : rollover.getCheckpointIndices();
+        GetResponse response = null;
+        for (String index : indices) {
+            response = get.setIndex(index)
+                    .setType(type)
+                    .setId(indexedRevisionID)
+                    .setRealtime(true)
+                    .execute().actionGet();
+            if (response.isExists()) {
+                break;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Read the revisions already indexed, persisted in their own document next to the checkpoint
+     * @return the revisions already indexed, none if they were not persisted yet
+     */
+    private RevisionBitmap loadIndexedRevisions() {
+        try {
+            // Older versions of the river kept them inside the checkpoint
+            for (String type : new String[]{"indexed_revisions", "indexed_revision"}) {
+                GetResponse response = getCheckpoint(client.prepareGet()
+                        .setFetchSource("indexed", null), type);
+                if (response != null && response.isExists()) {
+                    Object indexed = response.getSource().get("indexed");
+                    if (indexed != null) {
+                        RevisionBitmap bitmap = RevisionBitmap.fromBytes(Base64.decode(indexed.toString()));
+                        logger.info("[{}] revisions already indexed in [{}]", bitmap.size(), indexName);
+                        return bitmap;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("failed to read the revisions already indexed in [{}]", e, indexName);
+        }
+        return new RevisionBitmap();
+    }
+
+    /**
+     * Main Indexer Class : a cycle of the river, indexing one window of revisions
      */
     private class Indexer implements Runnable {
 
         @Override
         public void run() {
-            while (true) {
+            synchronized (shutdownLock) {
                 if (closed) {
                     return;
                 }
+                indexerThread = Thread.currentThread();
+            }
+            boolean catchingUp = false;
+            try {
+                int totalNumberOfActions = 0;
+                logger.info("Indexing subversion repository : {}/{}", repos, crawlerParameters.getPath().get());
+                URL reposAsURL = new URL(repos);
 
-                try {
-                    int totalNumberOfActions = 0;
-                    logger.info("Indexing subversion repository : {}/{}", repos, crawlerParameters.getPath().get());
-                    URL reposAsURL = new URL(repos);
-
-                    indexedRevision = getIndexedRevision();
-                    logger.info("Indexed Revision Value [{}]", indexedRevision);
-                    List<BulkRequestBuilder> bulks = Lists.newArrayList();
-
-                    long lastRevision = SubversionCrawler.getLatestRevision(reposAsURL, crawlerParameters);
-                    logger.debug("Checking last revision of repository : {}/{} --> [{}]",
-                            reposAsURL, crawlerParameters.getPath().get(), lastRevision);
-
-                    // if indexed revision is the last revision, we have nothing to do
-                    // but if it's not, we index the new subversion updates.
-                    if (indexedRevision < lastRevision) {
-                        UpdatePolicy updatePolicy = getUpdatePolicy(lastRevision, bulkSize);
-                        crawlerParameters.setStartRevision(Optional.of(updatePolicy.fromRevision));
-                        crawlerParameters.setEndRevision(Optional.of(updatePolicy.toRevision));
-
-                        logger.debug("Indexing repository {}/{} from revision [{}] to [{}] incremental [{}]",
-                            reposAsURL, crawlerParameters.getPath().get(),
-                            crawlerParameters.getStartRevision().get(),
-                            crawlerParameters.getEndRevision().get(),
-                            updatePolicy.incremental
-                        );
-
-                        // The total list of subversion documents is partitioned
-                        // into smaller lists, of max size bulksize
-                        List<SubversionRevision> subversionRevisionsBulk =
-                                SubversionCrawler.getRevisions(
-                                    reposAsURL,
-                                    crawlerParameters
-                                );
-                        // Send the revisions in bulk to the index
-                        BulkRequestBuilder bulk = client.prepareBulk();
-                        for (SubversionRevision svnRevision : subversionRevisionsBulk) {
-                            // First the revision...
-                            bulk.add(indexRequest(indexName)
-                                    .type(SubversionRevision.TYPE_NAME)
-                                    .id(svnRevision.id())
-                                    .source(svnRevision.json())
+                // A reindexing may have been asked for since the last run
+                reindexIfRequested();
+                actionsFailed = false;
+
+                indexedRevision = getIndexedRevision();
+                logger.info("Indexed Revision Value [{}]", indexedRevision);
+                if (contentRetention != null) {
+                    if (contentRetention.getSubtreePath() == null) {
+                        contentRetention.setSubtreePath(
+                                SubversionCrawler.getSubtreePath(reposAsURL, crawlerParameters));
+                    }
+                    contentRetention.setLastRevision(indexedRevision);
+                }
+                if (skipIndexed && indexedRevisions == null) {
+                    indexedRevisions = loadIndexedRevisions();
+                }
+                List<BulkRequestBuilder> bulks = Lists.newArrayList();
+
+                long lastRevision = SubversionCrawler.getLatestRevision(reposAsURL, crawlerParameters);
+                logger.debug("Checking last revision of repository : {}/{} --> [{}]",
+                        reposAsURL, crawlerParameters.getPath().get(), lastRevision);
+
+                // On the first run, the history can be read from a dump,
+                // instead of being asked to the repository.
+                if (dumpFile != null && indexedRevision == NOT_INDEXED_REVISION) {
+                    indexDump(reposAsURL);
+                }
+
+                // On the first run, the tree can be exported as a whole,
+                // instead of replaying its history.
+                if (snapshot && indexedRevision == NOT_INDEXED_REVISION) {
+                    indexSnapshot(reposAsURL, lastRevision);
+                }
+
+                // if indexed revision is the last revision, we have nothing to do
+                // but if it's not, we index the new subversion updates.
+                if (!closed && indexedRevision < lastRevision) {
+                    UpdatePolicy updatePolicy = getUpdatePolicy(lastRevision, bulkSize);
+                    crawlerParameters.setStartRevision(Optional.of(updatePolicy.fromRevision));
+                    crawlerParameters.setEndRevision(Optional.of(updatePolicy.toRevision));
+
+                    logger.debug("Indexing repository {}/{} from revision [{}] to [{}] incremental [{}]",
+                        reposAsURL, crawlerParameters.getPath().get(),
+                        crawlerParameters.getStartRevision().get(),
+                        crawlerParameters.getEndRevision().get(),
+                        updatePolicy.incremental
+                    );
+
+                    // The total list of subversion documents is partitioned
+                    // into smaller lists, of max size bulksize
+                    List<SubversionRevision> subversionRevisionsBulk =
+                            SubversionCrawler.getRevisions(
+                                reposAsURL,
+                                crawlerParameters,
+                                baseTextCache,
+                                mirror,
+                                memoryBudget,
+                                indexedRevisions
                             );
-                            // ... and then the documents/files
+                    // A close of the river stops the crawling between two revisions :
+                    // the revisions retrieved are indexed, and checkpointed precisely.
+                    // So does the memory budget, by moving the end of the window.
+                    long checkpoint = crawlerParameters.getEndRevision().get();
+                    if (Thread.interrupted()) {
+                        if (subversionRevisionsBulk.isEmpty()) {
+                            return;
+                        }
+                        checkpoint = subversionRevisionsBulk.get(subversionRevisionsBulk.size() - 1).getRevision();
+                    }
+                    // Send the revisions in bulk to the index
+                    BulkRequestBuilder bulk = client.prepareBulk();
+                    for (SubversionRevision svnRevision : subversionRevisionsBulk) {
+                        bulk = addRevision(bulk, svnRevision);
+                    }
+                    bulks.add(bulk);
+                    // Every revision is at least one action, whether or not already flushed
+                    totalNumberOfActions += subversionRevisionsBulk.size() + bulk.numberOfActions();
+                    if (memoryBudget != null) {
+                        memoryBudget.reserve(bulk.request().estimatedSizeInBytes());
+                    }
+                    executeBulksAndSetLastRevision(totalNumberOfActions,
+                        bulks,
+                        checkpoint
+                    );
+                    catchingUp = indexedRevision < lastRevision;
+                    // Now that the documents are indexed,
+                    // their content can be loaded.
+                    if (contentLoader != null && !closed) {
+                        for (SubversionRevision svnRevision : subversionRevisionsBulk) {
                             for (SubversionDocument svnDocument : svnRevision.getDocuments()) {
-                                bulk.add(indexRequest(indexName)
-                                        .type(SubversionDocument.TYPE_NAME)
-                                        .source(svnDocument.json())
-                                );
+                                contentLoader.enqueue(svnDocument, getDocumentId(svnDocument),
+                                        getWriteIndex(svnRevision.getRevision(), svnRevision.getDate()),
+                                        isChildModel() ? svnRevision.id() : null);
                             }
-                            logger.debug("Document added to queue :{}", svnRevision.json());
                         }
-                        bulks.add(bulk);
-                        totalNumberOfActions += bulk.numberOfActions();
-                        executeBulksAndSetLastRevision(totalNumberOfActions,
-                            bulks,
-                            crawlerParameters.getEndRevision().get()
-                        );
                     }
+                }
 
-                } catch (Exception e) {
-                    logger.warn("Subversion river exception", e);
+            } catch (Exception e) {
+                logger.warn("Subversion river exception", e);
+            } finally {
+                // The data of the cycle is indexed, or given up
+                if (memoryBudget != null) {
+                    memoryBudget.releaseAll();
+                }
+                synchronized (shutdownLock) {
+                    indexerThread = null;
+                    // An interruption by close() must not outlive the cycle, the thread is shared
+                    Thread.interrupted();
+                    shutdownLock.notifyAll();
                 }
+            }
+            logHostLimiter();
+            if (closed) {
+                closeMirror();
+                return;
+            }
+            // A river catching up takes its next turn behind the other rivers,
+            // otherwise it waits for its next tick without holding a thread
+            if (catchingUp) {
+                submitCycle();
+            } else {
+                logger.debug("Subversion river is going to sleep for {} ms", updateRate);
+                synchronized (shutdownLock) {
+                    nextCycle = threadPool.schedule(TimeValue.timeValueMillis(updateRate),
+                            ThreadPool.Names.SAME, new Runnable() {
+                                @Override
+                                public void run() {
+                                    submitCycle();
+                                }
+                            });
+                }
+            }
+        }
+    }
 
-                try {
-                    logger.debug("Subversion river is going to sleep for {} ms", updateRate);
-                    Thread.sleep(updateRate);
-                } catch (InterruptedException e) {
-                    // we shamefully swallow the interrupted exception
-                    logger.warn("Subversion river interrupted");
+    /**
+     * Add the actions of a revision, and of its documents, to a bulk
+     * @param bulk the bulk to add to
+     * @param svnRevision the revision
+     * @return the bulk to add the next actions to, a new one if the previous ones were flushed
+     */
+    private BulkRequestBuilder addRevision(BulkRequestBuilder bulk, SubversionRevision svnRevision) {
+        // The paths which could not be crawled are to be crawled again
+        if (indexedRevisions != null && svnRevision.getDeadLetters().isEmpty()) {
+            unconfirmedRevisions.add(svnRevision.getRevision());
+        }
+        // Already indexed, along with its documents
+        if (svnRevision.isIndexed()) {
+            return bulk;
+        }
+        String index = getWriteIndex(svnRevision.getRevision(), svnRevision.getDate());
+        // The paths which could not be crawled are recorded apart
+        for (SubversionDeadLetter deadLetter : svnRevision.getDeadLetters()) {
+            bulk.add(indexRequest(index)
+                    .type(SubversionDeadLetter.TYPE_NAME)
+                    .id(deadLetter.id())
+                    .source(deadLetter.json())
+            );
+        }
+        // Nested documents are indexed within their revision
+        if (isNestedModel()) {
+            bulk.add(indexRequest(index)
+                    .type(SubversionRevision.TYPE_NAME)
+                    .id(svnRevision.id())
+                    .source(svnRevision.json(SubversionDocument.REVISION_FIELDS))
+            );
+            return bulk;
+        }
+        // First the revision...
+        bulk.add(indexRequest(index)
+                .type(SubversionRevision.TYPE_NAME)
+                .id(svnRevision.id())
+                .source(svnRevision.json())
+        );
+        // ... and then the documents/files
+        for (SubversionDocument svnDocument : svnRevision.getDocuments()) {
+            if (currentTree && (svnDocument.getChange() == 'D'
+                    || svnDocument.getChange() == 'R')) {
+                // Deletions must be applied in order with the indexing,
+                // so the pending actions are sent first.
+                flushBulk(bulk);
+                bulk = client.prepareBulk();
+                deletePath(svnDocument);
+                if (svnDocument.getChange() == 'D') {
+                    continue;
                 }
+            }
+            if (isChildModel()) {
+                // Routed to the shard of their revision
+                bulk.add(indexRequest(index)
+                        .type(SubversionDocument.TYPE_NAME)
+                        .id(getDocumentId(svnDocument))
+                        .parent(svnRevision.id())
+                        .source(svnDocument.json(SubversionDocument.REVISION_FIELDS))
+                );
+                continue;
+            }
+            if (currentTree && svnDocument.isTextUnchanged()) {
+                // An update rebuilds the document from its _source, which may lack the content
+                if (!mappingProfile.isSourceContent()) {
+                    logger.debug("Keeping [{}] as indexed, without its content in _source",
+                            svnDocument.getFullname());
+                    continue;
+                }
+                // The content of the path is kept, only the rest is updated
+                String json = svnDocument.json(mappingProfile.isDocumentMessage());
+                bulk.add(new UpdateRequest(index, SubversionDocument.TYPE_NAME, getDocumentId(svnDocument))
+                        .doc(json)
+                        .upsert(json)
+                );
+                continue;
+            }
+            bulk.add(indexRequest(index)
+                    .type(SubversionDocument.TYPE_NAME)
+                    .id(getDocumentId(svnDocument))
+                    .source(svnDocument.json(mappingProfile.isDocumentMessage()))
+            );
+        }
+        logger.debug("Document added to queue :{}", svnRevision.json());
+        return bulk;
+    }
 
+    /**
+     * Index the revisions of the dump file, and set the last one
+     * as the last indexed revision, for the crawling to go on from there.
+     * @param reposAsURL URL to the repository
+     * @throws IOException
+     * @throws SVNException
+     * @throws URISyntaxException
+     */
+    private void indexDump(URL reposAsURL) throws IOException, SVNException, URISyntaxException {
+        DumpIndexer dumpIndexer = new DumpIndexer();
+        // A dump of another repository, or past its HEAD, would checkpoint revisions it does not have
+        long dumpRevision = SubversionCrawler.getDumpRevisions(new File(dumpFile),
+                reposAsURL.getPath(),
+                SubversionCrawler.getSubtreePath(reposAsURL, crawlerParameters),
+                SubversionCrawler.getRepositoryUUID(reposAsURL, crawlerParameters),
+                SubversionCrawler.getHeadRevision(reposAsURL, crawlerParameters),
+                crawlerParameters,
+                dumpIndexer);
+        if (dumpRevision < 0 || dumpIndexer.count == 0) {
+            logger.warn("No revision of {}{} in dump [{}], falling back to the repository",
+                    reposAsURL, crawlerParameters.getPath().get(), dumpFile);
+            return;
+        }
+        if (!dumpIndexer.executed) {
+            // Left without checkpoint, to be read again on the next cycle
+            logger.error("Dump [{}] of {}{} partially indexed",
+                    dumpFile, reposAsURL, crawlerParameters.getPath().get());
+        }
+        logger.info("Indexed dump [{}] of {}{} up to revision [{}] : [{}] revisions",
+                dumpFile, reposAsURL, crawlerParameters.getPath().get(), dumpRevision, dumpIndexer.count);
+        List<BulkRequestBuilder> bulks = Lists.newArrayList();
+        bulks.add(dumpIndexer.bulk);
+        executeBulksAndSetLastRevision(dumpIndexer.count, bulks, dumpRevision);
+    }
+
+    /**
+     * Send the revisions of a dump in bulks, as they are read
+     */
+    private class DumpIndexer implements RevisionHandler {
+
+        private BulkRequestBuilder bulk = client.prepareBulk();
+        private int count = 0;
+        private boolean executed = true;
+
+        @Override
+        public void handle(SubversionRevision svnRevision) {
+            bulk = addRevision(bulk, svnRevision);
+            count++;
+            if (bulk.numberOfActions() >= bulkSize) {
+                executed &= flushBulk(bulk);
+                bulk = client.prepareBulk();
+            }
+        }
+    }
+
+    /**
+     * Index the tree of the path at the given revision,
+     * and set it as the last indexed revision.
+     * @param reposAsURL URL to the repository
+     * @param lastRevision the revision to export
+     * @throws SVNException
+     * @throws URISyntaxException
+     */
+    private void indexSnapshot(URL reposAsURL, long lastRevision)
+            throws SVNException, URISyntaxException {
+        SnapshotIndexer snapshotIndexer = new SnapshotIndexer();
+        long count = SubversionCrawler.getSnapshot(reposAsURL, crawlerParameters, lastRevision, snapshotIndexer);
+        if (count < 0) {
+            logger.warn("Snapshot of {}{} failed, falling back to the history",
+                    reposAsURL, crawlerParameters.getPath().get());
+            return;
+        }
+        if (!snapshotIndexer.flush()) {
+            // Left without checkpoint, to be exported again on the next cycle
+            logger.error("Snapshot of {}{} partially indexed", reposAsURL, crawlerParameters.getPath().get());
+        }
+        logger.info("Indexed snapshot of {}{} at revision [{}] : [{}] documents",
+                reposAsURL, crawlerParameters.getPath().get(), lastRevision, count);
+        List<BulkRequestBuilder> bulks = Lists.newArrayList();
+        bulks.add(client.prepareBulk());
+        executeBulksAndSetLastRevision((int) count + 1, bulks, lastRevision);
+    }
+
+    /**
+     * Send the documents of a snapshot in bulks, as they are received
+     */
+    private class SnapshotIndexer implements DocumentHandler {
+
+        private BulkRequestBuilder bulk = client.prepareBulk();
+
+        @Override
+        public void handle(SubversionDocument svnDocument) {
+            bulk.add(indexRequest(getWriteIndex(svnDocument.getRevision(), svnDocument.getDate()))
+                    .type(SubversionDocument.TYPE_NAME)
+                    .id(getDocumentId(svnDocument))
+                    .source(svnDocument.json(mappingProfile.isDocumentMessage()))
+            );
+            if (bulk.numberOfActions() >= bulkSize) {
+                flush();
             }
+        }
 
+        boolean flush() {
+            boolean executed = flushBulk(bulk);
+            bulk = client.prepareBulk();
+            return executed;
         }
     }
 
@@ -360,48 +1163,144 @@ public class SubversionRiver extends AbstractRiverComponent implements River {
     }
 
     /**
-     * Execute a List of Bulks
+     * In current_tree mode, there is only one document per path
+     * @param svnDocument the document to index
+     * @return the id of the document
+     */
+    private String getDocumentId(SubversionDocument svnDocument) {
+        return currentTree ? svnDocument.pathId() : svnDocument.id();
+    }
+
+    /**
+     * Delete the documents of a path, and of everything below it,
+     * as in current_tree mode the deletion of a directory is not detailed
+     * file by file.
+     * @param svnDocument the deleted (or replaced) path
+     */
+    private void deletePath(SubversionDocument svnDocument) {
+        String path = svnDocument.getFullname();
+        logger.debug("Deleting path [{}] and its children from index [{}]", path, indexName);
+        try {
+            // The documents of the path may have been indexed by the bulk just flushed
+            client.admin().indices().prepareRefresh(indexName).execute().actionGet();
+            client.prepareDeleteByQuery(indexName)
+                    .setTypes(SubversionDocument.TYPE_NAME)
+                    .setQuery(QueryBuilders.boolQuery()
+                            .must(QueryBuilders.termQuery("repository", svnDocument.getRepository()))
+                            .must(QueryBuilders.boolQuery()
+                                    .should(QueryBuilders.termQuery("fullname.untouched", path))
+                                    .should(QueryBuilders.prefixQuery("fullname.untouched", path + "/"))
+                            )
+                    )
+                    .execute().actionGet();
+        } catch (Exception e) {
+            logger.error("failed to delete path [{}] from index [{}]", e, path, indexName);
+            actionsFailed = true;
+        }
+    }
+
+    /**
+     * Execute a bulk, without updating the last indexed revision.
+     * A failure keeps the next checkpoint of the cycle from being written.
+     * @param bulk the actions to execute
+     * @return true if every action was executed
+     */
+    private boolean flushBulk(BulkRequestBuilder bulk) {
+        if (bulk.numberOfActions() == 0) {
+            return true;
+        }
+        boolean interrupted = beginIndexing();
+        boolean executed = false;
+        try {
+            executed = bulkThrottle.execute(getActions(Collections.singletonList(bulk)));
+        } catch (InterruptedException e) {
+            logger.warn("Subversion river interrupted while indexing");
+            interrupted = true;
+        } finally {
+            endIndexing(interrupted);
+        }
+        if (!executed) {
+            logger.error("Some actions were rejected by the cluster, indexed_revision will not be updated");
+            actionsFailed = true;
+        }
+        return executed;
+    }
+
+    private static List<ActionRequest<?>> getActions(List<BulkRequestBuilder> bulks) {
+        List<ActionRequest<?>> actions = Lists.newArrayList();
+        for (BulkRequestBuilder bulk : bulks) {
+            for (ActionRequest<?> action : bulk.request().requests()) {
+                actions.add(action);
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Execute a List of Bulks, and then update the last indexed revision,
+     * unless some actions could not be sent.
      * @param bulks a bunch of bulks
      */
     private void executeBulks(List<BulkRequestBuilder> bulks) {
-        for( BulkRequestBuilder bulk : bulks)  {
-            // Update the last indexed revision
-            try {
-                bulk.add(indexRequest(indexName)
-                        .type("indexed_revision")
-                        .id(indexedRevisionID)
-                        .source(
-                                jsonBuilder()
-                                        .startObject()
-                                            .field("repos", repos)
-                                            .field("revision", indexedRevision)
-                                        .endObject()
-                        )
-                );
-                logger.info("Updating indexed_revision on index [{}] with id [{}] and value {[{}]:[{}]}",
-                        indexName, indexedRevisionID, repos, indexedRevision);
-            } catch (IOException e) {
-                logger.error("failed to update indexed_revision [{}] on index [{}]" +
-                        " because of Exception {}, aborting bulk operation",
-                        indexedRevision, indexName, e);
+        List<ActionRequest<?>> actions = getActions(bulks);
+        boolean interrupted = beginIndexing();
+        try {
+            logger.info("Execute {} actions", actions.size());
+            long start = System.currentTimeMillis();
+            if (!bulkThrottle.execute(actions) || actionsFailed) {
+                logger.error("Some actions were rejected by the cluster, indexed_revision is not updated to [{}]",
+                        indexedRevision);
                 return;
             }
-            logger.info("Indexed revision of repository : {}{} --> [{}]",
-                repos, crawlerParameters.getPath().get(), indexedRevision
-            );
+            logger.info("Completed {} actions in {}ms, with bulks of {} actions, {} at a time",
+                    actions.size(), System.currentTimeMillis() - start,
+                    bulkThrottle.getBulkActions(), bulkThrottle.getConcurrentBulks());
 
-            try {
-                logger.info("Execute bulk {} actions", bulk.numberOfActions());
-                BulkResponse response = bulk.execute().actionGet();
-                if (response.hasFailures()) {
-                    logger.error("failed to execute" + response.buildFailureMessage());
+            // Update the last indexed revision, once everything is indexed
+            String checkpointIndex = rollover == null ? indexName : rollover.getCheckpointIndex(indexedRevision);
+            XContentBuilder checkpoint = jsonBuilder()
+                    .startObject()
+                        .field("repos", repos)
+                        .field("revision", indexedRevision);
+            // Every revision indexed so far has its own document, kept whatever happens to the checkpoint
+            if (indexedRevisions != null) {
+                for (Long revision : unconfirmedRevisions) {
+                    indexedRevisions.add(revision);
                 }
-                logger.info("Completed bulk {} actions in {}ms",
-                        response.getItems().length,
-                        response.getTookInMillis());
-            } catch (Exception e) {
-                logger.error("failed to execute bulk", e);
+                client.prepareIndex(checkpointIndex, "indexed_revisions", indexedRevisionID)
+                        .setSource(jsonBuilder()
+                                .startObject()
+                                    .field("repos", repos)
+                                    .field("indexed", indexedRevisions.toBytes())
+                                .endObject())
+                        .execute().actionGet();
             }
+            client.prepareIndex(checkpointIndex, "indexed_revision", indexedRevisionID)
+                    .setSource(checkpoint.endObject())
+                    .execute().actionGet();
+            logger.info("Updating indexed_revision on index [{}] with id [{}] and value {[{}]:[{}]}",
+                    indexName, indexedRevisionID, repos, indexedRevision);
+        } catch (InterruptedException e) {
+            logger.warn("Subversion river interrupted while indexing");
+            interrupted = true;
+            return;
+        } catch (Exception e) {
+            logger.error("failed to update indexed_revision [{}] on index [{}]",
+                    e, indexedRevision, indexName);
+            return;
+        } finally {
+            unconfirmedRevisions.clear();
+            endIndexing(interrupted);
+        }
+        logger.info("Indexed revision of repository : {}{} --> [{}]",
+            repos, crawlerParameters.getPath().get(), indexedRevision
+        );
+        if (contentRetention != null) {
+            contentRetention.setLastRevision(indexedRevision);
+        }
+        // Everything is indexed up to the newest bucket : the older ones are done with
+        if (rollover != null) {
+            rollover.sealOldBuckets();
         }
     }
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsThreadPoolExecutor;
+
+/**
+ * Pool of threads shared by the Subversion rivers of a node, bounding how many of them crawl at a time.
+ * Every river submits one cycle at a time, and a river which still has revisions to index
+ * submits its next cycle behind the others : the rivers take turns on the threads, in order,
+ * instead of one catching up starving the others.
+ * Its size is set by the node setting "threadpool.subversion_river.size".
+ * It also holds the circuit breaker of the node for the data held by the rivers while crawling,
+ * whose limit is set by the node setting "subversion.breaker.limit".
+ */
+public class SubversionRiverPool extends AbstractLifecycleComponent<SubversionRiverPool> {
+
+    public static final String NAME = "subversion_river";
+
+    private final int size;
+    private final EsThreadPoolExecutor executor;
+    private final MemoryCircuitBreaker breaker;
+
+    @Inject
+    public SubversionRiverPool(Settings settings) {
+        super(settings);
+        this.size = settings.getAsInt("threadpool." + NAME + ".size",
+                Math.max(1, EsExecutors.boundedNumberOfProcessors(settings) / 2));
+        // Unbounded, as every river has at most one cycle waiting
+        this.executor = EsExecutors.newFixed(size, -1, EsExecutors.daemonThreadFactory(settings, NAME));
+        ByteSizeValue limit = settings.getAsMemory("subversion.breaker.limit", "20%");
+        this.breaker = new MemoryCircuitBreaker(limit, 1.0, logger);
+        logger.info("Subversion rivers crawling on [{}] threads, within [{}]", size, limit);
+    }
+
+    /**
+     * @param cycle a cycle of a river, run once every cycle submitted before is started
+     */
+    public void submit(Runnable cycle) {
+        executor.execute(cycle);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the circuit breaker of the node for the data held by the rivers
+     */
+    public MemoryCircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+        executor.shutdownNow();
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+    }
+}
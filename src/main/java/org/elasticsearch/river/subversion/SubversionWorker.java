@@ -0,0 +1,253 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.indices.IndexMissingException;
+import org.elasticsearch.river.RiverName;
+import org.elasticsearch.river.RiverSettings;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Worker of a node, running the tasks leased to the node by the SubversionCoordinator rivers :
+ * it looks for its leases in the _river index, renews them along with the revision reached,
+ * runs every task as a river of its own, and stops the tasks whose lease went to another node,
+ * releasing them for that node to start them.
+ * Its leases are looked for every "subversion.worker.interval" (default 10s).
+ */
+public class SubversionWorker extends AbstractLifecycleComponent<SubversionWorker> {
+
+    private final Client client;
+    private final ThreadPool threadPool;
+    private final ClusterService clusterService;
+    private final SubversionRiverPool pool;
+    private final TimeValue interval;
+
+    // Running tasks, by coordinator and task name
+    private final Map<String, SubversionRiver> running = Maps.newHashMap();
+    private volatile ScheduledFuture<?> polls;
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    @Inject
+    public SubversionWorker(Settings settings,
+                            Client client,
+                            ThreadPool threadPool,
+                            ClusterService clusterService,
+                            SubversionRiverPool pool) {
+        super(settings);
+        this.client = client;
+        this.threadPool = threadPool;
+        this.clusterService = clusterService;
+        this.pool = pool;
+        this.interval = settings.getAsTime("subversion.worker.interval", TimeValue.timeValueSeconds(10));
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+        final Runnable poller = new Runnable() {
+            @Override
+            public void run() {
+                if (!polling.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    poll();
+                } catch (IndexMissingException e) {
+                    // No river yet
+                } catch (Exception e) {
+                    logger.warn("failed to look for the leases of the node", e);
+                } finally {
+                    polling.set(false);
+                }
+            }
+        };
+        // The scheduler thread only hands the polling over, as it waits for the cluster
+        polls = threadPool.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                threadPool.generic().execute(poller);
+            }
+        }, interval);
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+        if (polls != null) {
+            polls.cancel(false);
+        }
+        synchronized (running) {
+            for (SubversionRiver river : running.values()) {
+                river.close();
+            }
+            running.clear();
+        }
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+    }
+
+    /**
+     * Start the tasks newly leased to the node, renew the leases of the running ones,
+     * and stop those leased to another node
+     */
+    void poll() {
+        String localNode = clusterService.localNode().id();
+        client.admin().indices().prepareRefresh("_river").execute().actionGet();
+        SearchResponse response = client.prepareSearch("_river")
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                        FilterBuilders.existsFilter(SubversionCoordinator.LEASE + ".task")))
+                .setVersion(true)
+                .setSize(10000)
+                .execute().actionGet();
+        long now = System.currentTimeMillis();
+        Set<String> leased = Sets.newHashSet();
+        for (SearchHit hit : response.getHits()) {
+            Map<?, ?> lease = (Map<?, ?>) hit.sourceAsMap().get(SubversionCoordinator.LEASE);
+            if (!localNode.equals(XContentMapValues.nodeStringValue(lease.get("node"), null))) {
+                continue;
+            }
+            String task = XContentMapValues.nodeStringValue(lease.get("task"), null);
+            String key = hit.getType() + "/" + task;
+            leased.add(key);
+            SubversionRiver river;
+            synchronized (running) {
+                river = running.get(key);
+                if (river == null) {
+                    if (isHandedOver(lease, now)) {
+                        logger.debug("Task [{}] is not released yet by node [{}]", key, lease.get("previous"));
+                    } else {
+                        river = startTask(task, XContentMapValues.nodeStringValue(lease.get("settings"), "{}"));
+                        running.put(key, river);
+                    }
+                }
+            }
+            renew(hit, river);
+        }
+        synchronized (running) {
+            for (final String key : Sets.newHashSet(running.keySet())) {
+                if (leased.contains(key)) {
+                    continue;
+                }
+                logger.info("Task [{}] is no longer leased to this node, stopping it", key);
+                final SubversionRiver river = running.remove(key);
+                // A graceful close waits for the bulks in flight
+                threadPool.generic().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        river.close();
+                        release(key);
+                    }
+                });
+            }
+        }
+    }
+
+    private SubversionRiver startTask(String task, String taskSettings) {
+        logger.info("Starting task [{}], leased to this node", task);
+        Map<String, Object> settings = XContentHelper.convertToMap(
+                taskSettings.getBytes(Charsets.UTF_8), false).v2();
+        SubversionRiver river = new SubversionRiver(new RiverName("svn", task),
+                new RiverSettings(this.settings, settings), client, threadPool, pool);
+        river.start();
+        return river;
+    }
+
+    /**
+     * @param lease the lease of a task
+     * @param now the current time
+     * @return true if the task was moved from a node which may still be running it
+     */
+    static boolean isHandedOver(Map<?, ?> lease, long now) {
+        return XContentMapValues.nodeStringValue(lease.get("previous"), null) != null
+                && XContentMapValues.nodeLongValue(lease.get("previous_until"), 0L) > now;
+    }
+
+    /**
+     * Let the new node of a task start it, once stopped here
+     * @param key the coordinator and task name
+     */
+    private void release(String key) {
+        String type = key.substring(0, key.indexOf('/'));
+        String id = SubversionCoordinator.LEASE_PREFIX + key.substring(key.indexOf('/') + 1);
+        try {
+            GetResponse response = client.prepareGet("_river", type, id).execute().actionGet();
+            if (!response.isExists()) {
+                return;
+            }
+            Map<?, ?> lease = (Map<?, ?>) response.getSourceAsMap().get(SubversionCoordinator.LEASE);
+            if (!clusterService.localNode().id().equals(
+                    XContentMapValues.nodeStringValue(lease.get("previous"), null))) {
+                return;
+            }
+            Map<String, Object> released = Maps.newHashMap();
+            released.put("previous", null);
+            Map<String, Object> doc = Maps.newHashMap();
+            doc.put(SubversionCoordinator.LEASE, released);
+            client.prepareUpdate("_river", type, id)
+                    .setVersion(response.getVersion())
+                    .setDoc(doc)
+                    .execute().actionGet();
+            logger.info("Task [{}] released", key);
+        } catch (Exception e) {
+            logger.debug("failed to release lease [{}], leaving it to expire", id);
+        }
+    }
+
+    /**
+     * Renew a lease, unless the coordinator changed it meanwhile
+     * @param river the task, null if not started yet
+     */
+    private void renew(SearchHit hit, SubversionRiver river) {
+        Map<String, Object> lease = Maps.newHashMap();
+        lease.put("heartbeat", System.currentTimeMillis());
+        if (river != null) {
+            lease.put("revision", river.getLastIndexedRevision());
+        }
+        Map<String, Object> doc = Maps.newHashMap();
+        doc.put(SubversionCoordinator.LEASE, lease);
+        try {
+            client.prepareUpdate("_river", hit.getType(), hit.getId())
+                    .setVersion(hit.version())
+                    .setDoc(doc)
+                    .execute().actionGet();
+        } catch (Exception e) {
+            logger.debug("failed to renew lease [{}], leaving it to the next poll", hit.getId());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the latest raw content of files,
+ * used as base texts to apply the deltas sent by the server.
+ * The cache is bounded by the total size of the contents.
+ */
+public class BaseTextCache {
+
+    private final long maximumSize;
+    private final LinkedHashMap<String, BaseText> texts =
+            new LinkedHashMap<String, BaseText>(16, 0.75f, true);
+    private long size = 0;
+
+    /**
+     * @param maximumSize maximum total size of the cached contents, in bytes
+     */
+    public BaseTextCache(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @param path the full path of the file
+     * @return the latest known content of the file, or null if not cached
+     */
+    public synchronized BaseText get(String path) {
+        return texts.get(path);
+    }
+
+    /**
+     * Cache the latest content of a file, evicting the least recently used ones if needed.
+     * Contents too big for the cache are not kept.
+     * @param path the full path of the file
+     * @param text the raw content of the file
+     * @param mimeType the svn:mime-type of the file, if any
+     */
+    public synchronized void put(String path, byte[] text, String mimeType) {
+        BaseText previous = texts.remove(path);
+        if (previous != null) {
+            size -= previous.text.length;
+        }
+        if (text.length > maximumSize / 4) {
+            return;
+        }
+        texts.put(path, new BaseText(text, mimeType));
+        size += text.length;
+        Iterator<BaseText> iterator = texts.values().iterator();
+        while (size > maximumSize && iterator.hasNext()) {
+            size -= iterator.next().text.length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Forget a file, or a directory and all the files below it
+     * @param path the full path of the file or directory
+     */
+    public synchronized void remove(String path) {
+        String prefix = path + "/";
+        Iterator<Map.Entry<String, BaseText>> iterator = texts.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, BaseText> entry = iterator.next();
+            if (entry.getKey().equals(path) || entry.getKey().startsWith(prefix)) {
+                size -= entry.getValue().text.length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the total size of the cached contents, in bytes
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * POJO for a cached content
+     */
+    public static class BaseText {
+        final byte[] text;
+        final String mimeType;
+
+        BaseText(byte[] text, String mimeType) {
+            this.text = text;
+            this.mimeType = mimeType;
+        }
+
+        public byte[] getText() {
+            return text;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+    }
+}
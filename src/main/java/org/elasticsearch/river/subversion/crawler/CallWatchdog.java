@@ -0,0 +1,142 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.collect.Sets;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watchdog of the calls to the repositories, shared by all the rivers of the node.
+ * A call still running past its deadline is aborted, by closing its session from
+ * the watchdog thread : the blocked call then fails, and can be retried.
+ * The number of stalled calls is counted, for the hangs to be visible.
+ */
+public class CallWatchdog {
+
+    private static ESLogger logger = Loggers.getLogger(CallWatchdog.class);
+
+    private static final long CHECK_INTERVAL = 1000;
+
+    private static final Set<Watch> watches = Sets.newConcurrentHashSet();
+    private static final AtomicLong stalledCalls = new AtomicLong();
+    private static ScheduledExecutorService scheduler;
+
+    private CallWatchdog() {
+    }
+
+    /**
+     * Start watching a call
+     * @param target what is called, for the logs
+     * @param abort how to abort the call, run from the watchdog thread
+     * @param timeout the maximum duration of the call, in ms, 0 for no limit
+     * @return the watch of the call, to be stopped once the call is over, or null if not watched
+     */
+    public static Watch watch(String target, Runnable abort, long timeout) {
+        if (timeout <= 0) {
+            return null;
+        }
+        Watch watch = new Watch(target, abort, timeout);
+        ensureStarted();
+        watches.add(watch);
+        return watch;
+    }
+
+    /**
+     * Stop watching a call
+     * @param watch the watch of the call, may be null
+     */
+    public static void unwatch(Watch watch) {
+        if (watch != null) {
+            watches.remove(watch);
+        }
+    }
+
+    /**
+     * @return the number of calls aborted since the start of the node
+     */
+    public static long getStalledCalls() {
+        return stalledCalls.get();
+    }
+
+    private static synchronized void ensureStarted() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    EsExecutors.daemonThreadFactory("subversion_river_watchdog"));
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    check(System.nanoTime());
+                }
+            }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Abort the calls past their deadline
+     * @param now the current time, in ns
+     */
+    static void check(long now) {
+        for (Watch watch : watches) {
+            if (!watch.aborted && now - watch.deadline > 0) {
+                watch.aborted = true;
+                stalledCalls.incrementAndGet();
+                logger.warn("Call to [{}] stalled for more than [{}]ms in [{}], aborting it",
+                        watch.target, watch.timeout, watch.thread);
+                try {
+                    watch.abort.run();
+                } catch (Exception e) {
+                    logger.warn("failed to abort call to [{}]", e, watch.target);
+                }
+            }
+        }
+    }
+
+    /**
+     * A call being watched
+     */
+    public static class Watch {
+        private final String target;
+        private final Runnable abort;
+        private final long timeout;
+        private final long deadline;
+        private final String thread;
+        private volatile boolean aborted = false;
+
+        Watch(String target, Runnable abort, long timeout) {
+            this.target = target;
+            this.abort = abort;
+            this.timeout = timeout;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            this.thread = Thread.currentThread().getName();
+        }
+
+        /**
+         * @return true if the call was aborted by the watchdog, so that its failure is worth a retry
+         */
+        public boolean isAborted() {
+            return aborted;
+        }
+    }
+}
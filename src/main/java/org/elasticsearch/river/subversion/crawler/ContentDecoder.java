@@ -0,0 +1,226 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decoding of file contents, with charset detection :
+ * first the charset parameter of the svn:mime-type,
+ * then the Byte Order Mark,
+ * then a check of the first bytes against UTF-8,
+ * and finally the fallback charset of the river, ISO-8859-1 being read as windows-1252
+ * when the C1 control codes show up, as they are rather the quotes and dashes of the latter.
+ * There is no statistical detection of the other charsets (Shift_JIS, GBK, KOI8-R...) :
+ * they have to be declared, or set as fallback.
+ *
+ * Decoders and buffers are kept per thread, to be reused from one file to the other.
+ */
+public class ContentDecoder {
+
+    // Buffers bigger than this are not kept for reuse
+    private static final int POOLED_BUFFER_LIMIT = 1024 * 1024;
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+    private static final byte[] UTF16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    private static final ThreadLocal<Map<Charset, CharsetDecoder>> decoders =
+            new ThreadLocal<Map<Charset, CharsetDecoder>>() {
+                @Override
+                protected Map<Charset, CharsetDecoder> initialValue() {
+                    return Maps.newHashMap();
+                }
+            };
+
+    private static final ThreadLocal<CharBuffer> charBuffers = new ThreadLocal<CharBuffer>();
+
+    private static final ThreadLocal<SniffingOutputStream> byteBuffers = new ThreadLocal<SniffingOutputStream>();
+
+    /**
+     * Get a (reused) buffer for the content of a file
+     * @param sniffing false if the mime type is already known
+     * @return an empty buffer
+     */
+    public static SniffingOutputStream getBuffer(boolean sniffing) {
+        SniffingOutputStream buffer = byteBuffers.get();
+        if (buffer == null || buffer.capacity() > POOLED_BUFFER_LIMIT) {
+            buffer = new SniffingOutputStream(sniffing);
+            byteBuffers.set(buffer);
+        } else {
+            buffer.reset(sniffing);
+        }
+        return buffer;
+    }
+
+    /**
+     * Decode the buffered content of a file
+     * @param buffer the raw content
+     * @param mimeType the svn:mime-type of the file, if any
+     * @param fallback the charset to use when no other one can be found
+     * @return the decoded content
+     */
+    public static String decode(SniffingOutputStream buffer, String mimeType, Charset fallback) {
+        byte[] bytes = buffer.array();
+        int length = buffer.size();
+        int offset = 0;
+
+        Charset charset = getMimeTypeCharset(mimeType);
+        if (charset == null) {
+            if (startsWith(bytes, length, UTF8_BOM)) {
+                charset = Charsets.UTF_8;
+                offset = UTF8_BOM.length;
+            } else if (startsWith(bytes, length, UTF16BE_BOM)) {
+                charset = Charsets.UTF_16BE;
+                offset = UTF16BE_BOM.length;
+            } else if (startsWith(bytes, length, UTF16LE_BOM)) {
+                charset = Charsets.UTF_16LE;
+                offset = UTF16LE_BOM.length;
+            } else if (isUTF8(bytes, Math.min(length, SniffingOutputStream.SNIFF_LENGTH), length)) {
+                charset = Charsets.UTF_8;
+            } else if (Charsets.ISO_8859_1.equals(fallback)
+                    && hasControlCodes(bytes, Math.min(length, SniffingOutputStream.SNIFF_LENGTH))) {
+                charset = WINDOWS_1252;
+            } else {
+                charset = fallback;
+            }
+        }
+
+        CharsetDecoder decoder = decoders.get().get(charset);
+        if (decoder == null) {
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoders.get().put(charset, decoder);
+        }
+        decoder.reset();
+
+        int capacity = (int) ((length - offset) * (double) decoder.maxCharsPerByte()) + 1;
+        CharBuffer chars = charBuffers.get();
+        if (chars == null || chars.capacity() < capacity) {
+            chars = CharBuffer.allocate(capacity);
+            if (capacity <= POOLED_BUFFER_LIMIT) {
+                charBuffers.set(chars);
+            }
+        }
+        chars.clear();
+
+        decoder.decode(ByteBuffer.wrap(bytes, offset, length - offset), chars, true);
+        decoder.flush(chars);
+        return new String(chars.array(), 0, chars.position());
+    }
+
+    /**
+     * @param mimeType svn:mime-type, like "text/plain; charset=ISO-8859-1"
+     * @return the charset declared in the mime type, or null if none (or unsupported)
+     */
+    static Charset getMimeTypeCharset(String mimeType) {
+        if (mimeType == null) {
+            return null;
+        }
+        for (String parameter : mimeType.split(";")) {
+            String[] keyValue = parameter.trim().split("=", 2);
+            if (keyValue.length == 2 && "charset".equals(keyValue[0].trim().toLowerCase(Locale.ROOT))) {
+                String name = keyValue[1].trim().replace("\"", "");
+                try {
+                    if (Charset.isSupported(name)) {
+                        return Charset.forName(name);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // illegal charset name, ignore it
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param bytes the content
+     * @param length the number of bytes to check
+     * @return true if there are C1 control codes (0x80 to 0x9F), unused in ISO-8859-1 texts
+     */
+    static boolean hasControlCodes(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b >= 0x80 && b <= 0x9F) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check that the first bytes of a content are valid UTF-8
+     * @param bytes the content
+     * @param length the number of bytes to check
+     * @param total the size of the content, to tell a truncated sequence from an invalid one
+     * @return true if valid UTF-8 (or plain ASCII)
+     */
+    static boolean isUTF8(byte[] bytes, int length, int total) {
+        int i = 0;
+        while (i < length) {
+            int b = bytes[i] & 0xFF;
+            int following;
+            if (b < 0x80) {
+                following = 0;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                following = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                following = 2;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                following = 3;
+            } else {
+                return false;
+            }
+            for (int j = 1; j <= following; j++) {
+                if (i + j >= length) {
+                    // Sequence cut by the end of the checked prefix,
+                    // or by the end of the content
+                    return length < total;
+                }
+                if ((bytes[i + j] & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += following + 1;
+        }
+        return true;
+    }
+}
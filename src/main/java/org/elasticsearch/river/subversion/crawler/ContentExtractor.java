@@ -0,0 +1,44 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Extracts the text of binary documents (PDF, Office...).
+ * Implementations are declared in the "content_extractors" river setting,
+ * and must provide a public no-argument constructor.
+ */
+public interface ContentExtractor {
+
+    /**
+     * @param mimeType the svn:mime-type of the file, or a guessed one
+     * @param path the file path, to check extensions if needed
+     * @return true if the extractor can handle the file
+     */
+    boolean accepts(String mimeType, String path);
+
+    /**
+     * @param content the raw content of the file
+     * @param mimeType the svn:mime-type of the file, or a guessed one
+     * @param path the file path
+     * @return the extracted text
+     * @throws IOException
+     */
+    String extract(InputStream content, String mimeType, String path) throws IOException;
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.collect.Maps;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.tmatesoft.svn.core.SVNCommitInfo;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNProperty;
+import org.tmatesoft.svn.core.SVNPropertyValue;
+import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaProcessor;
+import org.tmatesoft.svn.core.io.diff.SVNDiffWindow;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Editor receiving the changes of one revision, as an "svn update" from the previous one,
+ * and applying the deltas of modified files to their cached base texts.
+ * Files whose content could not be rebuilt are simply left out of the result,
+ * to be fetched as usual.
+ */
+public class DeltaEditor implements ISVNEditor {
+
+    private static ESLogger logger = Loggers.getLogger(DeltaEditor.class);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final String basePath;
+    private final BaseTextCache cache;
+    private final Parameters parameters;
+    private final SVNDeltaProcessor deltaProcessor = new SVNDeltaProcessor();
+    private final Map<String, String> contents = Maps.newHashMap();
+
+    // State of the file being received
+    private byte[] base;
+    private String mimeType;
+    private SniffingOutputStream content;
+    private String checksum;
+    private long deltaSize;
+
+    /**
+     * @param basePath path of the updated tree, relative to the repository root with a leading "/"
+     * @param cache the cache of base texts, updated along the way
+     * @param parameters the parameters passed to the crawler
+     */
+    public DeltaEditor(String basePath, BaseTextCache cache, Parameters parameters) {
+        this.basePath = "/".equals(basePath) ? "" : basePath.replaceAll("/$", "");
+        this.cache = cache;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return the rebuilt contents, by full path
+     */
+    public Map<String, String> getContents() {
+        return contents;
+    }
+
+    @Override
+    public void targetRevision(long revision) throws SVNException {
+    }
+
+    @Override
+    public void openRoot(long revision) throws SVNException {
+    }
+
+    @Override
+    public void deleteEntry(String path, long revision) throws SVNException {
+        cache.remove(basePath + "/" + path);
+    }
+
+    @Override
+    public void absentDir(String path) throws SVNException {
+    }
+
+    @Override
+    public void absentFile(String path) throws SVNException {
+    }
+
+    @Override
+    public void addDir(String path, String copyFromPath, long copyFromRevision) throws SVNException {
+    }
+
+    @Override
+    public void openDir(String path, long revision) throws SVNException {
+    }
+
+    @Override
+    public void changeDirProperty(String name, SVNPropertyValue value) throws SVNException {
+    }
+
+    @Override
+    public void closeDir() throws SVNException {
+    }
+
+    @Override
+    public void addFile(String path, String copyFromPath, long copyFromRevision) throws SVNException {
+        base = EMPTY;
+        mimeType = null;
+        content = null;
+        checksum = null;
+        deltaSize = 0;
+    }
+
+    @Override
+    public void openFile(String path, long revision) throws SVNException {
+        BaseTextCache.BaseText baseText = cache.get(basePath + "/" + path);
+        base = baseText == null ? null : baseText.getText();
+        // The svn:mime-type is only sent again if it changed
+        mimeType = baseText == null ? null : baseText.getMimeType();
+        content = null;
+        checksum = null;
+        deltaSize = 0;
+    }
+
+    @Override
+    public void changeFileProperty(String path, String propertyName, SVNPropertyValue propertyValue)
+            throws SVNException {
+        if (SVNProperty.MIME_TYPE.equals(propertyName)) {
+            mimeType = SVNPropertyValue.getPropertyAsString(propertyValue);
+        }
+    }
+
+    @Override
+    public void applyTextDelta(String path, String baseChecksum) throws SVNException {
+        if (base == null) {
+            // Should not happen, as uncached files are reported missing
+            logger.debug("No base text for [{}], its content will be fetched", path);
+            return;
+        }
+        String guessedMimeType = SubversionCrawler.guessMimeType(mimeType, path);
+        content = new SniffingOutputStream(guessedMimeType == null);
+        deltaProcessor.applyTextDelta(new ByteArrayInputStream(base), content, true);
+    }
+
+    @Override
+    public OutputStream textDeltaChunk(String path, SVNDiffWindow diffWindow) throws SVNException {
+        if (content == null) {
+            return SVNFileUtil.DUMMY_OUT;
+        }
+        deltaSize += diffWindow.getNewDataLength();
+        return deltaProcessor.textDeltaChunk(diffWindow);
+    }
+
+    @Override
+    public void textDeltaEnd(String path) throws SVNException {
+        if (content != null) {
+            checksum = deltaProcessor.textDeltaEnd();
+        }
+    }
+
+    @Override
+    public void closeFile(String path, String textChecksum) throws SVNException {
+        String fullname = basePath + "/" + path;
+        if (content == null && base != null) {
+            // Only the properties changed, the text is the base one
+            content = new SniffingOutputStream(SubversionCrawler.guessMimeType(mimeType, path) == null);
+            content.write(base, 0, base.length);
+        } else if (content == null
+                || (textChecksum != null && !textChecksum.equals(checksum))) {
+            logger.warn("Could not rebuild content of [{}], it will be fetched", fullname);
+            cache.remove(fullname);
+            return;
+        }
+
+        try {
+            contents.put(fullname,
+                    SubversionCrawler.extractContent(content, mimeType, fullname, content.getWritten(), parameters));
+        } catch (IOException e) {
+            logger.warn("failed to extract content of [{}]", e, fullname);
+        }
+        if (content.isDiscarded()) {
+            cache.remove(fullname);
+        } else {
+            cache.put(fullname, Arrays.copyOf(content.array(), content.size()), mimeType);
+        }
+        logger.debug("Rebuilt content of [{}] : [{}] bytes from [{}] new bytes",
+                fullname, content.getWritten(), deltaSize);
+        content = null;
+        base = null;
+    }
+
+    @Override
+    public SVNCommitInfo closeEdit() throws SVNException {
+        return null;
+    }
+
+    @Override
+    public void abortEdit() throws SVNException {
+        content = null;
+        base = null;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming reader of the dump files of "svnadmin dump" or "svnrdump dump",
+ * returning one revision at a time, with the properties and text of its nodes.
+ * Texts bigger than the given limit are skipped, and only their length is kept.
+ * Texts dumped as deltas ("--deltas") are not applied, and flagged as such.
+ */
+public class DumpReader implements Closeable {
+
+    private final DataInputStream in;
+    private final long maximumTextSize;
+    // Headers read ahead, of the record following the revision returned last
+    private Map<String, String> nextHeaders;
+    private String uuid;
+
+    /**
+     * @param in the dump stream
+     * @param maximumTextSize the size above which texts are skipped, 0 for no limit
+     */
+    public DumpReader(InputStream in, long maximumTextSize) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+        this.maximumTextSize = maximumTextSize;
+    }
+
+    /**
+     * @return the next revision of the dump, or null at its end
+     * @throws IOException if the dump is unreadable or truncated
+     */
+    public Revision next() throws IOException {
+        Map<String, String> headers = nextHeaders != null ? nextHeaders : readHeaders();
+        nextHeaders = null;
+        // Skip the format version and UUID records
+        while (headers != null && !headers.containsKey("Revision-number")) {
+            if (headers.containsKey("Node-path")) {
+                throw new IOException("Node [" + headers.get("Node-path") + "] outside of any revision");
+            }
+            if (headers.containsKey("UUID")) {
+                uuid = headers.get("UUID");
+            }
+            skipContent(headers);
+            headers = readHeaders();
+        }
+        if (headers == null) {
+            return null;
+        }
+        Revision revision = new Revision(Long.parseLong(headers.get("Revision-number")));
+        revision.properties.putAll(readContent(headers, null));
+        while ((headers = readHeaders()) != null) {
+            if (headers.containsKey("Revision-number")) {
+                nextHeaders = headers;
+                break;
+            }
+            if (!headers.containsKey("Node-path")) {
+                skipContent(headers);
+                continue;
+            }
+            Node node = new Node(headers);
+            Map<String, String> properties = readContent(headers, node);
+            if (headers.containsKey("Prop-content-length")) {
+                node.properties = properties;
+            }
+            revision.nodes.add(node);
+        }
+        return revision;
+    }
+
+    /**
+     * @return the UUID of the dumped repository, once the first revision is read, or null if not dumped
+     */
+    public String getUUID() {
+        return uuid;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * @return the headers of the next record, or null at the end of the dump
+     */
+    private Map<String, String> readHeaders() throws IOException {
+        String line;
+        // Records are separated by blank lines
+        do {
+            line = readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.isEmpty());
+        Map<String, String> headers = Maps.newHashMap();
+        while (line != null && !line.isEmpty()) {
+            int colon = line.indexOf(": ");
+            if (colon < 0) {
+                throw new IOException("Malformed header [" + line + "]");
+            }
+            headers.put(line.substring(0, colon), line.substring(colon + 2));
+            line = readLine();
+        }
+        return headers;
+    }
+
+    /**
+     * Read the properties and the text of a record
+     * @param node the node receiving the text, null to skip it
+     * @return the properties
+     */
+    private Map<String, String> readContent(Map<String, String> headers, Node node) throws IOException {
+        long propLength = getLength(headers, "Prop-content-length");
+        long textLength = getLength(headers, "Text-content-length");
+        long contentLength = headers.containsKey("Content-length")
+                ? getLength(headers, "Content-length")
+                : propLength + textLength;
+        Map<String, String> properties = Maps.newHashMap();
+        if (propLength > 0) {
+            byte[] props = new byte[(int) propLength];
+            in.readFully(props);
+            properties = parseProperties(props);
+        }
+        if (node != null && headers.containsKey("Text-content-length")) {
+            node.textLength = textLength;
+            if (maximumTextSize <= 0 || textLength <= maximumTextSize) {
+                node.text = new byte[(int) textLength];
+                in.readFully(node.text);
+            }
+        }
+        skip(contentLength - propLength - (node != null && node.text != null ? node.textLength : 0));
+        return properties;
+    }
+
+    private void skipContent(Map<String, String> headers) throws IOException {
+        long propLength = getLength(headers, "Prop-content-length");
+        long textLength = getLength(headers, "Text-content-length");
+        skip(headers.containsKey("Content-length")
+                ? getLength(headers, "Content-length")
+                : propLength + textLength);
+    }
+
+    private void skip(long length) throws IOException {
+        ByteStreams.skipFully(in, length);
+    }
+
+    private static long getLength(Map<String, String> headers, String name) throws IOException {
+        String value = headers.get(name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed " + name + " [" + value + "]");
+        }
+    }
+
+    /**
+     * Parse a property block : "K len", key, "V len", value... then "PROPS-END",
+     * or "END" as in the files of the repositories.
+     * Deleted properties ("D len", key) of the delta dumps are ignored.
+     */
+    static Map<String, String> parseProperties(byte[] props) throws IOException {
+        Map<String, String> properties = Maps.newLinkedHashMap();
+        int position = 0;
+        String key = null;
+        while (position < props.length) {
+            int end = indexOf(props, (byte) '\n', position);
+            String line = new String(props, position, end - position, Charsets.UTF_8);
+            position = end + 1;
+            if ("PROPS-END".equals(line) || "END".equals(line)) {
+                break;
+            }
+            if (line.length() < 3 || line.charAt(1) != ' ') {
+                throw new IOException("Malformed property line [" + line + "]");
+            }
+            int length = Integer.parseInt(line.substring(2));
+            String value = new String(props, position, length, Charsets.UTF_8);
+            // The value is followed by a newline
+            position += length + 1;
+            switch (line.charAt(0)) {
+                case 'K':
+                    key = value;
+                    break;
+                case 'V':
+                    properties.put(key, value);
+                    break;
+                case 'D':
+                    break;
+                default:
+                    throw new IOException("Malformed property line [" + line + "]");
+            }
+        }
+        return properties;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) throws IOException {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        throw new EOFException("Truncated property block");
+    }
+
+    /**
+     * @return the next line, without its newline, or null at the end of the dump
+     */
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString("UTF-8");
+            }
+            line.write(b);
+        }
+        return line.toString("UTF-8");
+    }
+
+    /**
+     * A revision of the dump, with its revision properties (svn:author, svn:date, svn:log)
+     */
+    public static class Revision {
+        private final long number;
+        private final Map<String, String> properties = Maps.newHashMap();
+        private final List<Node> nodes = Lists.newArrayList();
+
+        Revision(long number) {
+            this.number = number;
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        public Map<String, String> getProperties() {
+            return properties;
+        }
+
+        public List<Node> getNodes() {
+            return nodes;
+        }
+    }
+
+    /**
+     * A changed path of a revision
+     */
+    public static class Node {
+        private final String path;
+        private final String kind;
+        private final String action;
+        private final String copyFromPath;
+        private final long copyFromRevision;
+        private final boolean textDelta;
+        private Map<String, String> properties;
+        private long textLength = -1;
+        private byte[] text;
+
+        Node(Map<String, String> headers) {
+            this.path = headers.get("Node-path");
+            this.kind = headers.get("Node-kind");
+            this.action = headers.get("Node-action");
+            this.copyFromPath = headers.get("Node-copyfrom-path");
+            this.copyFromRevision = headers.containsKey("Node-copyfrom-rev")
+                    ? Long.parseLong(headers.get("Node-copyfrom-rev").trim())
+                    : -1L;
+            this.textDelta = "true".equals(headers.get("Text-delta"));
+        }
+
+        /**
+         * @return the path, relative to the root of the repository, without a leading slash
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return "file", "dir", or null for a deletion
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * @return "add", "change", "delete" or "replace"
+         */
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * @return the type of change, as in the log entries : 'A', 'M', 'D' or 'R'
+         */
+        public char getType() {
+            if ("add".equals(action)) {
+                return 'A';
+            }
+            if ("delete".equals(action)) {
+                return 'D';
+            }
+            if ("replace".equals(action)) {
+                return 'R';
+            }
+            return 'M';
+        }
+
+        public String getCopyFromPath() {
+            return copyFromPath;
+        }
+
+        public long getCopyFromRevision() {
+            return copyFromRevision;
+        }
+
+        /**
+         * @return the properties of the node, or null if they did not change
+         */
+        public Map<String, String> getProperties() {
+            return properties;
+        }
+
+        /**
+         * @return true if the text is a delta against the previous text, rather than a full text
+         */
+        public boolean isTextDelta() {
+            return textDelta;
+        }
+
+        /**
+         * @return the length of the text, or -1 if it did not change
+         */
+        public long getTextLength() {
+            return textLength;
+        }
+
+        /**
+         * @return the text, or null if it did not change or was too big
+         */
+        public byte[] getText() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,625 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of the files of a local FSFS repository, bypassing the repository layer of SVNKit :
+ * the revision files, packed or not, are memory-mapped, and the changed paths,
+ * properties and texts of a revision are read from them directly.
+ * Only the physical addressing (formats 1 to 7, the default before Subversion 1.9)
+ * and the svndiff0/svndiff1 encodings are supported : anything else is reported
+ * as an IOException, for the caller to fall back to SVNKit.
+ */
+public class FsfsReader implements Closeable {
+
+    private static ESLogger logger = Loggers.getLogger(FsfsReader.class);
+
+    private static final int MAXIMUM_FORMAT = 7;
+    // Number of revisions kept mapped
+    private static final int MAPPED_REVISIONS = 64;
+
+    private final File db;
+    private final int format;
+    private final long shardSize;
+
+    private final LinkedHashMap<Long, ByteBuffer> mapped =
+            new LinkedHashMap<Long, ByteBuffer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+                    return size() > MAPPED_REVISIONS;
+                }
+            };
+
+    FsfsReader(File db, int format, long shardSize) {
+        this.db = db;
+        this.format = format;
+        this.shardSize = shardSize;
+    }
+
+    /**
+     * @param root the root directory of the repository
+     * @return a reader of the repository, or null if it is not a FSFS repository this reader supports
+     * @throws IOException
+     */
+    public static FsfsReader open(File root) throws IOException {
+        File db = new File(root, "db");
+        File fsType = new File(db, "fs-type");
+        File formatFile = new File(db, "format");
+        if (!fsType.isFile() || !formatFile.isFile()
+                || !"fsfs".equals(Files.readFirstLine(fsType, Charsets.UTF_8).trim())) {
+            logger.info("[{}] is not the root of a FSFS repository", root);
+            return null;
+        }
+        List<String> lines = Files.readLines(formatFile, Charsets.UTF_8);
+        int format = Integer.parseInt(lines.get(0).trim());
+        long shardSize = 0;
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.startsWith("layout sharded ")) {
+                shardSize = Long.parseLong(line.substring("layout sharded ".length()).trim());
+            } else if (line.startsWith("addressing logical")) {
+                format = Integer.MAX_VALUE;
+            }
+        }
+        if (format > MAXIMUM_FORMAT) {
+            logger.info("FSFS repository [{}] is of an unsupported format or addressing", root);
+            return null;
+        }
+        return new FsfsReader(db, format, shardSize);
+    }
+
+    /**
+     * @return the youngest revision of the repository
+     */
+    public long getYoungestRevision() throws IOException {
+        String current = Files.readFirstLine(new File(db, "current"), Charsets.UTF_8);
+        return Long.parseLong(current.split(" ")[0]);
+    }
+
+    /**
+     * @param revision the revision
+     * @return the revision properties (svn:author, svn:date, svn:log...)
+     */
+    public Map<String, String> getRevisionProperties(long revision) throws IOException {
+        File file = new File(getShardDirectory("revprops", revision), Long.toString(revision));
+        if (file.isFile()) {
+            return DumpReader.parseProperties(Files.toByteArray(file));
+        }
+        if (revision == 0 || shardSize == 0 || format < 6) {
+            throw new IOException("Missing revision properties of [" + revision + "]");
+        }
+        // Packed with the other revision properties of the shard
+        File pack = new File(db, "revprops/" + (revision / shardSize) + ".pack");
+        List<String> manifest = Files.readLines(new File(pack, "manifest"), Charsets.UTF_8);
+        String name = manifest.get((int) (revision % shardSize - (revision < shardSize ? 1 : 0)));
+        ByteBuffer content = ByteBuffer.wrap(Files.toByteArray(new File(pack, name)));
+        byte[] data = decompress(content, content.remaining());
+        int position = 0;
+        int end = indexOf(data, position);
+        long firstRevision = Long.parseLong(new String(data, position, end - position, Charsets.UTF_8));
+        position = end + 1;
+        end = indexOf(data, position);
+        int count = Integer.parseInt(new String(data, position, end - position, Charsets.UTF_8));
+        position = end + 1;
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            end = indexOf(data, position);
+            sizes[i] = Long.parseLong(new String(data, position, end - position, Charsets.UTF_8));
+            position = end + 1;
+        }
+        int index = (int) (revision - firstRevision);
+        if (index < 0 || index >= count) {
+            throw new IOException("Revision [" + revision + "] missing from pack [" + name + "]");
+        }
+        // An empty line ends the header
+        position++;
+        for (int i = 0; i < index; i++) {
+            position += sizes[i];
+        }
+        return DumpReader.parseProperties(Arrays.copyOfRange(data, position, position + (int) sizes[index]));
+    }
+
+    /**
+     * @param revision the revision
+     * @return the paths changed by the revision, in their order
+     */
+    public List<Change> getChanges(long revision) throws IOException {
+        ByteBuffer buffer = getRevision(revision);
+        // The last line of the revision is "<root offset> <changes offset>"
+        int end = buffer.limit() - 1;
+        int trailer = end - 1;
+        while (trailer > 0 && buffer.get(trailer - 1) != '\n') {
+            trailer--;
+        }
+        String[] offsets = readLine(buffer, trailer).split(" ");
+        buffer.position(Integer.parseInt(offsets[1]));
+
+        Map<String, Change> changes = Maps.newLinkedHashMap();
+        while (buffer.position() < trailer) {
+            String line = readLine(buffer, buffer.position());
+            if (line.isEmpty()) {
+                break;
+            }
+            String copyFrom = readLine(buffer, buffer.position());
+            Change change = new Change(revision, line, copyFrom);
+            fold(changes, change);
+        }
+        return Lists.newArrayList(changes.values());
+    }
+
+    /**
+     * A path may be changed several times within a revision : keep the overall change
+     */
+    private static void fold(Map<String, Change> changes, Change change) {
+        Change previous = changes.get(change.path);
+        if (change.type == 0) {
+            // Reset
+            changes.remove(change.path);
+        } else if (previous == null) {
+            changes.put(change.path, change);
+        } else if (previous.type == 'D' && change.type != 'D') {
+            change.type = 'R';
+            changes.put(change.path, change);
+        } else if (previous.type == 'A' && change.type == 'D') {
+            changes.remove(change.path);
+        } else if (previous.type == 'A' || previous.type == 'R') {
+            change.type = previous.type;
+            changes.put(change.path, change);
+        } else {
+            changes.put(change.path, change);
+        }
+    }
+
+    /**
+     * @param change a changed path, not deleted
+     * @return the node properties of the path (svn:mime-type...)
+     */
+    public Map<String, String> getProperties(Change change) throws IOException {
+        String props = getNodeRevision(change).get("props");
+        if (props == null) {
+            return Maps.newHashMap();
+        }
+        return DumpReader.parseProperties(readRepresentation(props));
+    }
+
+    /**
+     * @param change a changed path, not deleted
+     * @return "file" or "dir"
+     */
+    public String getKind(Change change) throws IOException {
+        if (change.kind != null) {
+            return change.kind;
+        }
+        return getNodeRevision(change).get("type");
+    }
+
+    /**
+     * @param change a changed file, not deleted
+     * @return the size of its text
+     */
+    public long getSize(Change change) throws IOException {
+        String text = getNodeRevision(change).get("text");
+        if (text == null) {
+            return 0;
+        }
+        String[] rep = text.split(" ");
+        long expanded = Long.parseLong(rep[3]);
+        // The expanded size of plain texts used to be 0
+        return expanded == 0 ? Long.parseLong(rep[2]) : expanded;
+    }
+
+    /**
+     * @param change a changed file, not deleted
+     * @return its text
+     */
+    public byte[] getText(Change change) throws IOException {
+        String text = getNodeRevision(change).get("text");
+        if (text == null) {
+            return new byte[0];
+        }
+        return readRepresentation(text);
+    }
+
+    @Override
+    public void close() {
+        synchronized (mapped) {
+            mapped.clear();
+        }
+    }
+
+    private Map<String, String> getNodeRevision(Change change) throws IOException {
+        if (change.nodeRevision == null) {
+            ByteBuffer buffer = getRevision(change.nodeRevisionNumber);
+            Map<String, String> headers = Maps.newHashMap();
+            String line = readLine(buffer, (int) change.nodeRevisionOffset);
+            while (!line.isEmpty()) {
+                int colon = line.indexOf(": ");
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon), line.substring(colon + 2));
+                }
+                line = readLine(buffer, buffer.position());
+            }
+            change.nodeRevision = headers;
+        }
+        return change.nodeRevision;
+    }
+
+    /**
+     * Read a representation, and check its MD5 checksum
+     * @param location "revision offset size expanded-size md5..."
+     */
+    private byte[] readRepresentation(String location) throws IOException {
+        String[] rep = location.split(" ");
+        byte[] text = readRepresentation(Long.parseLong(rep[0]), Long.parseLong(rep[1]), Long.parseLong(rep[2]));
+        if (rep.length > 4 && !Hashing.md5().hashBytes(text).toString().equals(rep[4])) {
+            throw new IOException("Checksum mismatch of representation [" + location + "]");
+        }
+        return text;
+    }
+
+    private byte[] readRepresentation(long revision, long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Representation of [" + size + "] bytes too big");
+        }
+        ByteBuffer buffer = getRevision(revision);
+        String header = readLine(buffer, (int) offset);
+        byte[] data = new byte[(int) size];
+        buffer.get(data);
+        if ("PLAIN".equals(header)) {
+            return data;
+        }
+        if (!header.startsWith("DELTA")) {
+            throw new IOException("Unknown representation [" + header + "]");
+        }
+        byte[] base = new byte[0];
+        String[] baseLocation = header.split(" ");
+        if (baseLocation.length == 4) {
+            base = readRepresentation(Long.parseLong(baseLocation[1]),
+                    Long.parseLong(baseLocation[2]),
+                    Long.parseLong(baseLocation[3]));
+        }
+        return applyDelta(base, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Apply a svndiff (version 0 or 1) delta
+     * @param source the text the delta applies to
+     * @param delta the delta
+     * @return the text rebuilt
+     */
+    static byte[] applyDelta(byte[] source, ByteBuffer delta) throws IOException {
+        if (delta.remaining() < 4 || delta.get() != 'S' || delta.get() != 'V' || delta.get() != 'N') {
+            throw new IOException("Not a svndiff delta");
+        }
+        int version = delta.get();
+        if (version != 0 && version != 1) {
+            throw new IOException("Unsupported svndiff version [" + version + "]");
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        while (delta.hasRemaining()) {
+            int sourceOffset = (int) readVarint(delta);
+            int sourceLength = (int) readVarint(delta);
+            int targetLength = (int) readVarint(delta);
+            int instructionsLength = (int) readVarint(delta);
+            int newDataLength = (int) readVarint(delta);
+            byte[] instructions;
+            byte[] newData;
+            if (version == 0) {
+                instructions = new byte[instructionsLength];
+                delta.get(instructions);
+                newData = new byte[newDataLength];
+                delta.get(newData);
+            } else {
+                instructions = decompress(delta, instructionsLength);
+                newData = decompress(delta, newDataLength);
+            }
+            if (sourceOffset + sourceLength > source.length) {
+                throw new IOException("Delta window beyond its source");
+            }
+            byte[] target = new byte[targetLength];
+            int targetPosition = 0;
+            int newDataPosition = 0;
+            ByteBuffer instructionBuffer = ByteBuffer.wrap(instructions);
+            while (instructionBuffer.hasRemaining()) {
+                int instruction = instructionBuffer.get() & 0xff;
+                int length = instruction & 0x3f;
+                if (length == 0) {
+                    length = (int) readVarint(instructionBuffer);
+                }
+                if (targetPosition + length > targetLength) {
+                    throw new IOException("Delta instruction beyond its window");
+                }
+                switch (instruction >> 6) {
+                    case 0:
+                        // Copy from the source view
+                        int offset = (int) readVarint(instructionBuffer);
+                        System.arraycopy(source, sourceOffset + offset, target, targetPosition, length);
+                        break;
+                    case 1:
+                        // Copy from the target, possibly overlapping what is being written
+                        int from = (int) readVarint(instructionBuffer);
+                        for (int i = 0; i < length; i++) {
+                            target[targetPosition + i] = target[from + i];
+                        }
+                        break;
+                    case 2:
+                        System.arraycopy(newData, newDataPosition, target, targetPosition, length);
+                        newDataPosition += length;
+                        break;
+                    default:
+                        throw new IOException("Invalid delta instruction [" + instruction + "]");
+                }
+                targetPosition += length;
+            }
+            result.write(target, 0, targetPosition);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Read a section compressed as by svn__compress : its original length, then zlib data,
+     * or the raw data when compressing did not pay off
+     */
+    static byte[] decompress(ByteBuffer buffer, int length) throws IOException {
+        int start = buffer.position();
+        int originalLength = (int) readVarint(buffer);
+        int remaining = length - (buffer.position() - start);
+        byte[] data = new byte[remaining];
+        buffer.get(data);
+        if (remaining == originalLength) {
+            return data;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[originalLength];
+            int inflated = 0;
+            while (inflated < originalLength && !inflater.finished()) {
+                int count = inflater.inflate(result, inflated, originalLength - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != originalLength) {
+                throw new IOException("Truncated compressed data");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Read a variable length integer, 7 bits per byte, most significant first
+     */
+    static long readVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 10; i++) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Truncated integer");
+            }
+            int b = buffer.get() & 0xff;
+            value = (value << 7) | (b & 0x7f);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Integer too long");
+    }
+
+    /**
+     * @return a read-only view of the revision, whose positions are relative to its start
+     */
+    private ByteBuffer getRevision(long revision) throws IOException {
+        synchronized (mapped) {
+            ByteBuffer buffer = mapped.get(revision);
+            if (buffer == null) {
+                buffer = map(revision);
+                mapped.put(revision, buffer);
+            }
+            return buffer.duplicate();
+        }
+    }
+
+    private ByteBuffer map(long revision) throws IOException {
+        File file = new File(getShardDirectory("revs", revision), Long.toString(revision));
+        long start = 0;
+        long end = -1;
+        if (!file.isFile() && shardSize > 0) {
+            // Packed with the other revisions of the shard
+            File pack = new File(db, "revs/" + (revision / shardSize) + ".pack");
+            List<String> manifest = Files.readLines(new File(pack, "manifest"), Charsets.UTF_8);
+            int index = (int) (revision % shardSize);
+            start = Long.parseLong(manifest.get(index).trim());
+            if (index + 1 < manifest.size()) {
+                end = Long.parseLong(manifest.get(index + 1).trim());
+            }
+            file = new File(pack, "pack");
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (end < 0) {
+                end = channel.size();
+            }
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Revision [" + revision + "] too big to be mapped");
+            }
+            // The mapping outlives the channel
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start).asReadOnlyBuffer();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private File getShardDirectory(String kind, long revision) {
+        if (shardSize == 0) {
+            return new File(db, kind);
+        }
+        return new File(db, kind + "/" + (revision / shardSize));
+    }
+
+    /**
+     * Read a line, leaving the buffer positioned after it
+     */
+    private static String readLine(ByteBuffer buffer, int position) throws IOException {
+        int end = position;
+        while (end < buffer.limit() && buffer.get(end) != '\n') {
+            end++;
+        }
+        if (end >= buffer.limit() && end == position) {
+            throw new IOException("Unexpected end of revision");
+        }
+        byte[] line = new byte[end - position];
+        buffer.position(position);
+        buffer.get(line);
+        buffer.position(Math.min(end + 1, buffer.limit()));
+        return new String(line, Charsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] bytes, int from) throws IOException {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        throw new IOException("Truncated revision properties");
+    }
+
+    /**
+     * A changed path of a revision, as recorded in the revision file
+     */
+    public static class Change {
+        private final String path;
+        private char type;
+        private final String kind;
+        private final boolean textModified;
+        private final boolean propertiesModified;
+        private final String copyFromPath;
+        private final long copyFromRevision;
+        private final long nodeRevisionNumber;
+        private final long nodeRevisionOffset;
+        private Map<String, String> nodeRevision;
+
+        /**
+         * @param line "node-revision-id action[-kind] text-mod prop-mod [mergeinfo-mod] path"
+         * @param copyFrom "revision path", or empty
+         */
+        Change(long revision, String line, String copyFrom) throws IOException {
+            int pathStart = line.indexOf(" /");
+            String[] fields = line.split(" ");
+            if (pathStart < 0 || fields.length < 5) {
+                throw new IOException("Malformed change [" + line + "] in revision [" + revision + "]");
+            }
+            this.path = line.substring(pathStart + 1);
+            String action = fields[1];
+            int dash = action.indexOf('-');
+            this.kind = dash < 0 ? null : action.substring(dash + 1);
+            action = dash < 0 ? action : action.substring(0, dash);
+            if ("add".equals(action)) {
+                this.type = 'A';
+            } else if ("delete".equals(action)) {
+                this.type = 'D';
+            } else if ("replace".equals(action)) {
+                this.type = 'R';
+            } else if ("modify".equals(action)) {
+                this.type = 'M';
+            } else if ("reset".equals(action)) {
+                this.type = 0;
+            } else {
+                throw new IOException("Unknown action [" + action + "] in revision [" + revision + "]");
+            }
+            this.textModified = "true".equals(fields[2]);
+            this.propertiesModified = "true".equals(fields[3]);
+            if (copyFrom.isEmpty()) {
+                this.copyFromPath = null;
+                this.copyFromRevision = -1L;
+            } else {
+                int space = copyFrom.indexOf(' ');
+                this.copyFromRevision = Long.parseLong(copyFrom.substring(0, space));
+                this.copyFromPath = copyFrom.substring(space + 1);
+            }
+            // "node-id.copy-id.r<revision>/<offset>"
+            String id = fields[0];
+            int r = id.lastIndexOf(".r");
+            int slash = id.lastIndexOf('/');
+            if (r < 0 || slash < r) {
+                throw new IOException("Malformed node revision id [" + id + "] in revision [" + revision + "]");
+            }
+            this.nodeRevisionNumber = Long.parseLong(id.substring(r + 2, slash));
+            this.nodeRevisionOffset = Long.parseLong(id.substring(slash + 1));
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the type of change, as in the log entries : 'A', 'M', 'D' or 'R'
+         */
+        public char getType() {
+            return type;
+        }
+
+        /**
+         * @return "file", "dir", or null if not recorded (older formats)
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        public boolean isTextModified() {
+            return textModified;
+        }
+
+        public boolean isPropertiesModified() {
+            return propertiesModified;
+        }
+
+        public String getCopyFromPath() {
+            return copyFromPath;
+        }
+
+        public long getCopyFromRevision() {
+            return copyFromRevision;
+        }
+    }
+}
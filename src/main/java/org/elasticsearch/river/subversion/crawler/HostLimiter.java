@@ -0,0 +1,169 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limiter of the requests sent to a repository host, shared by all the rivers of the node :
+ * a token bucket for the rate of the requests, and a cap on the requests in flight.
+ * Every request to the host waits for both, and the time spent waiting is measured.
+ */
+public class HostLimiter {
+
+    private static ESLogger logger = Loggers.getLogger(HostLimiter.class);
+
+    private static final ConcurrentMap<String, HostLimiter> limiters = Maps.newConcurrentMap();
+
+    // For the hosts without limits
+    private static final HostLimiter UNLIMITED = new HostLimiter("", 0, 0);
+
+    private final String host;
+    private RateLimiter rateLimiter;
+    private int maxRequests;
+    private int inFlight = 0;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+
+    HostLimiter(String host, double requestsPerSecond, int maxRequests) {
+        this.host = host;
+        this.rateLimiter = requestsPerSecond > 0 ? RateLimiter.create(requestsPerSecond) : null;
+        this.maxRequests = maxRequests;
+    }
+
+    /**
+     * Limit the requests to a host. When several rivers limit the same host,
+     * the strictest limits apply.
+     * @param host the repository host
+     * @param requestsPerSecond the maximum rate of the requests, 0 for no limit
+     * @param maxRequests the maximum number of requests in flight, 0 for no limit
+     * @return the limiter of the host
+     */
+    public static HostLimiter configure(String host, double requestsPerSecond, int maxRequests) {
+        HostLimiter limiter = new HostLimiter(host, requestsPerSecond, maxRequests);
+        HostLimiter existing = limiters.putIfAbsent(host, limiter);
+        if (existing == null) {
+            logger.info("Limiting requests to [{}] : [{}] per second, [{}] at a time",
+                    host, requestsPerSecond, maxRequests);
+            return limiter;
+        }
+        existing.tighten(requestsPerSecond, maxRequests);
+        return existing;
+    }
+
+    /**
+     * @param host the repository host
+     * @return the limiter of the host, doing nothing if the host is not limited
+     */
+    public static HostLimiter of(String host) {
+        HostLimiter limiter = host == null ? null : limiters.get(host);
+        return limiter == null ? UNLIMITED : limiter;
+    }
+
+    /**
+     * @param repository a session to the repository
+     * @return the limiter of the host of the repository
+     */
+    public static HostLimiter of(SVNRepository repository) {
+        return of(repository.getLocation().getHost());
+    }
+
+    /**
+     * Wait for the right to send a request, to be released once answered
+     */
+    public void acquire() {
+        if (this == UNLIMITED) {
+            return;
+        }
+        long start = System.nanoTime();
+        RateLimiter currentRateLimiter;
+        synchronized (this) {
+            currentRateLimiter = rateLimiter;
+        }
+        if (currentRateLimiter != null) {
+            currentRateLimiter.acquire();
+        }
+        boolean interrupted = false;
+        synchronized (this) {
+            while (maxRequests > 0 && inFlight >= maxRequests) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // The request is let through, the caller will notice
+                    interrupted = true;
+                    break;
+                }
+            }
+            inFlight++;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        requests.incrementAndGet();
+        waitTime.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Release the right to send a request, once answered
+     */
+    public void release() {
+        if (this == UNLIMITED) {
+            return;
+        }
+        synchronized (this) {
+            inFlight--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of requests sent to the host
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the total time spent waiting for the limiter, in ms
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    private synchronized void tighten(double requestsPerSecond, int maxRequests) {
+        if (requestsPerSecond > 0 && (rateLimiter == null || rateLimiter.getRate() > requestsPerSecond)) {
+            rateLimiter = RateLimiter.create(requestsPerSecond);
+        }
+        if (maxRequests > 0 && (this.maxRequests == 0 || this.maxRequests > maxRequests)) {
+            this.maxRequests = maxRequests;
+        }
+        logger.info("Limiting requests to [{}] : [{}] per second, [{}] at a time",
+                host, rateLimiter == null ? 0 : rateLimiter.getRate(), this.maxRequests);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.river.subversion.type.SubversionDocument;
+import org.elasticsearch.river.subversion.type.SubversionRevision;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory budget of a river for the data it holds while crawling : the contents of the revisions
+ * retrieved, and the bulks pending. The bytes are accounted in a circuit breaker of the river,
+ * and in the circuit breaker of the node, shared by all the rivers.
+ * Exceeding either limit does not fail : the caller is told to stop gathering more data.
+ */
+public class MemoryBudget {
+
+    private static ESLogger logger = Loggers.getLogger(MemoryBudget.class);
+
+    // Estimated cost of the fields of a revision or document, besides its texts
+    static final long OBJECT_OVERHEAD = 256;
+
+    private final MemoryCircuitBreaker nodeBreaker;
+    private final MemoryCircuitBreaker riverBreaker;
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * @param nodeBreaker the breaker of the node
+     * @param riverLimit the limit of the river, in bytes, 0 for the limit of the node only
+     */
+    public MemoryBudget(MemoryCircuitBreaker nodeBreaker, long riverLimit) {
+        this.nodeBreaker = nodeBreaker;
+        this.riverBreaker = new MemoryCircuitBreaker(new ByteSizeValue(riverLimit > 0 ? riverLimit : -1), 1.0, logger);
+    }
+
+    /**
+     * Account bytes, even beyond the limits, as they are already in memory
+     * @param bytes the bytes held
+     * @return false if a limit is reached, so that no more should be gathered
+     */
+    public boolean reserve(long bytes) {
+        reserved.addAndGet(bytes);
+        boolean withinBudget = reserve(riverBreaker, bytes);
+        return reserve(nodeBreaker, bytes) && withinBudget;
+    }
+
+    private static boolean reserve(MemoryCircuitBreaker breaker, long bytes) {
+        try {
+            breaker.addEstimateBytesAndMaybeBreak(bytes);
+            return true;
+        } catch (CircuitBreakingException e) {
+            breaker.addWithoutBreaking(bytes);
+            return false;
+        }
+    }
+
+    /**
+     * Release everything reserved, once the data is indexed
+     */
+    public void releaseAll() {
+        long bytes = reserved.getAndSet(0);
+        riverBreaker.addWithoutBreaking(-bytes);
+        nodeBreaker.addWithoutBreaking(-bytes);
+    }
+
+    /**
+     * @return the bytes reserved by the river
+     */
+    public long getReserved() {
+        return reserved.get();
+    }
+
+    /**
+     * @param revision a revision retrieved
+     * @return the estimated bytes held by the revision and its documents
+     */
+    public static long estimate(SubversionRevision revision) {
+        long bytes = OBJECT_OVERHEAD + 2L * length(revision.getMessage());
+        for (SubversionDocument document : revision.getDocuments()) {
+            bytes += OBJECT_OVERHEAD + 2L * (length(document.getContent()) + length(document.getFullname()));
+        }
+        return bytes;
+    }
+
+    private static long length(String s) {
+        return s == null ? 0 : s.length();
+    }
+}
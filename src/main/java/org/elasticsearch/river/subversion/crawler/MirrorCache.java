@@ -0,0 +1,393 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+/**
+ * Local mirror of what was fetched from the repository :
+ * log entries, by revision, and file contents, by revision and path.
+ *
+ * Everything is appended to a single file, memory-mapped for the reads,
+ * and indexed in memory when opened. A record truncated by a crash is dropped.
+ * Log entries of a path are only served for the revision ranges
+ * that were entirely fetched before.
+ */
+public class MirrorCache implements Closeable {
+
+    private static ESLogger logger = Loggers.getLogger(MirrorCache.class);
+
+    private static final byte LOG_RECORD = 1;
+    private static final byte RANGE_RECORD = 2;
+    private static final byte ENTRY_RECORD = 3;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long length;
+
+    // In memory index of the records
+    private final Map<Long, Long> logEntries = Maps.newHashMap();
+    private final Map<String, TreeMap<Long, Long>> ranges = Maps.newHashMap();
+    private final Map<String, NavigableSet<Long>> revisions = Maps.newHashMap();
+    private final Map<String, Long> entries = Maps.newHashMap();
+
+    /**
+     * Open (or create) a mirror, and index its records
+     * @param file the file of the mirror
+     * @throws IOException
+     */
+    public MirrorCache(File file) throws IOException {
+        this.file = file;
+        if (file.getParentFile() != null && !file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("failed to create directory " + file.getParentFile());
+        }
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+        load();
+        logger.info("Opened mirror [{}] : [{}] log entries, [{}] contents, [{}] bytes",
+                file, logEntries.size(), entries.size(), length);
+    }
+
+    /**
+     * @param path the path of the log
+     * @param start the first revision
+     * @param end the last revision
+     * @return the log entries of the path in the range, or null if the range was not entirely mirrored
+     * @throws IOException
+     */
+    public synchronized List<SVNLogEntry> getLogEntries(String path, long start, long end) throws IOException {
+        TreeMap<Long, Long> pathRanges = ranges.get(path);
+        if (pathRanges == null) {
+            return null;
+        }
+        // Check that the mirrored ranges cover the requested one
+        long cursor = start;
+        while (cursor <= end) {
+            Map.Entry<Long, Long> range = pathRanges.floorEntry(cursor);
+            if (range == null || range.getValue() < cursor) {
+                return null;
+            }
+            cursor = range.getValue() + 1;
+        }
+        List<SVNLogEntry> result = Lists.newArrayList();
+        for (Long revision : revisions.get(path).subSet(start, true, end, true)) {
+            Long offset = logEntries.get(revision);
+            if (offset == null) {
+                return null;
+            }
+            result.add(readLogEntry(read(offset)));
+        }
+        return result;
+    }
+
+    /**
+     * Mirror the log entries of a path over a whole range of revisions
+     * @param path the path of the log
+     * @param start the first revision
+     * @param end the last revision
+     * @param logEntries all the log entries of the path in the range
+     * @throws IOException
+     */
+    public synchronized void putLogEntries(String path, long start, long end, Collection<SVNLogEntry> logEntries)
+            throws IOException {
+        List<Long> rangeRevisions = Lists.newArrayList();
+        for (SVNLogEntry logEntry : logEntries) {
+            rangeRevisions.add(logEntry.getRevision());
+            if (!this.logEntries.containsKey(logEntry.getRevision())) {
+                this.logEntries.put(logEntry.getRevision(), append(LOG_RECORD, writeLogEntry(logEntry)));
+            }
+        }
+        // The range is written last : a range is only known once all its log entries are
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeString(output, path);
+        output.writeLong(start);
+        output.writeLong(end);
+        output.writeInt(rangeRevisions.size());
+        for (Long revision : rangeRevisions) {
+            output.writeLong(revision);
+        }
+        append(RANGE_RECORD, bytes.toByteArray());
+        addRange(path, start, end, rangeRevisions);
+        channel.force(false);
+    }
+
+    /**
+     * @param path the full path of the file
+     * @param revision the revision
+     * @return the mirrored file, or null if not mirrored
+     * @throws IOException
+     */
+    public synchronized Entry getEntry(String path, long revision) throws IOException {
+        Long offset = entries.get(entryKey(path, revision));
+        if (offset == null) {
+            return null;
+        }
+        DataInputStream input = read(offset);
+        readString(input);
+        input.readLong();
+        return new Entry(input.readLong(), readString(input));
+    }
+
+    /**
+     * Mirror a file
+     * @param path the full path of the file
+     * @param revision the revision
+     * @param size the size of the file
+     * @param content the text content of the file, or null if not fetched (filtered...)
+     * @throws IOException
+     */
+    public synchronized void putEntry(String path, long revision, long size, String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeString(output, path);
+        output.writeLong(revision);
+        output.writeLong(size);
+        writeString(output, content);
+        entries.put(entryKey(path, revision), append(ENTRY_RECORD, bytes.toByteArray()));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped = null;
+        channel.force(false);
+        randomAccessFile.close();
+        logger.info("Closed mirror [{}]", file);
+    }
+
+    /**
+     * Index the records of the file, dropping a last truncated one
+     */
+    private void load() throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        if (size > 0 && size <= Integer.MAX_VALUE) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer header = ByteBuffer.allocate(5);
+        while (offset + 5 <= size) {
+            header.clear();
+            channel.read(header, offset);
+            header.flip();
+            int recordLength = header.getInt();
+            byte type = header.get();
+            if (recordLength < 0 || offset + 5 + recordLength > size) {
+                break;
+            }
+            length = offset + 5 + recordLength;
+            if (type == LOG_RECORD) {
+                logEntries.put(read(offset).readLong(), offset);
+            } else if (type == RANGE_RECORD) {
+                DataInputStream input = read(offset);
+                String path = readString(input);
+                long start = input.readLong();
+                long end = input.readLong();
+                int count = input.readInt();
+                List<Long> rangeRevisions = Lists.newArrayListWithCapacity(count);
+                for (int i = 0; i < count; i++) {
+                    rangeRevisions.add(input.readLong());
+                }
+                addRange(path, start, end, rangeRevisions);
+            } else if (type == ENTRY_RECORD) {
+                DataInputStream input = read(offset);
+                String path = readString(input);
+                entries.put(entryKey(path, input.readLong()), offset);
+            }
+            offset = length;
+        }
+        if (length < size) {
+            logger.warn("Truncating mirror [{}] from [{}] to [{}] bytes", file, size, length);
+            mapped = null;
+            channel.truncate(length);
+        }
+    }
+
+    private void addRange(String path, long start, long end, List<Long> rangeRevisions) {
+        TreeMap<Long, Long> pathRanges = ranges.get(path);
+        if (pathRanges == null) {
+            pathRanges = new TreeMap<Long, Long>();
+            ranges.put(path, pathRanges);
+            revisions.put(path, Sets.<Long>newTreeSet());
+        }
+        Long previousEnd = pathRanges.get(start);
+        if (previousEnd == null || previousEnd < end) {
+            pathRanges.put(start, end);
+        }
+        revisions.get(path).addAll(rangeRevisions);
+    }
+
+    /**
+     * Append a record at the end of the file
+     * @return the offset of the record
+     */
+    private long append(byte type, byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(5 + payload.length);
+        buffer.putInt(payload.length);
+        buffer.put(type);
+        buffer.put(payload);
+        buffer.flip();
+        long offset = length;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, length + buffer.position());
+        }
+        length += 5 + payload.length;
+        return offset;
+    }
+
+    /**
+     * Read the payload of a record, from the mapped file when possible
+     */
+    private DataInputStream read(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        channel.read(header, offset);
+        header.flip();
+        byte[] payload = new byte[header.getInt()];
+        long end = offset + 5 + payload.length;
+        if (end <= Integer.MAX_VALUE) {
+            if (mapped == null || mapped.capacity() < end) {
+                // Map the whole file again, now that it grew
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) offset + 5);
+            view.get(payload);
+        } else {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + 5 + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of mirror " + file);
+                }
+            }
+        }
+        return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+
+    private static byte[] writeLogEntry(SVNLogEntry logEntry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeLong(logEntry.getRevision());
+        writeString(output, logEntry.getAuthor());
+        output.writeLong(logEntry.getDate() == null ? -1L : logEntry.getDate().getTime());
+        writeString(output, logEntry.getMessage());
+        Map<String, SVNLogEntryPath> changedPaths = logEntry.getChangedPaths();
+        output.writeInt(changedPaths.size());
+        for (SVNLogEntryPath entryPath : changedPaths.values()) {
+            writeString(output, entryPath.getPath());
+            output.writeChar(entryPath.getType());
+            writeString(output, entryPath.getCopyPath());
+            output.writeLong(entryPath.getCopyRevision());
+            writeString(output, entryPath.getKind() == null ? null : entryPath.getKind().toString());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static SVNLogEntry readLogEntry(DataInputStream input) throws IOException {
+        long revision = input.readLong();
+        String author = readString(input);
+        long time = input.readLong();
+        String message = readString(input);
+        int count = input.readInt();
+        Map<String, SVNLogEntryPath> changedPaths = Maps.newLinkedHashMap();
+        for (int i = 0; i < count; i++) {
+            String path = readString(input);
+            char type = input.readChar();
+            String copyPath = readString(input);
+            long copyRevision = input.readLong();
+            String kind = readString(input);
+            changedPaths.put(path, new SVNLogEntryPath(path, type, copyPath, copyRevision,
+                    kind == null ? SVNNodeKind.UNKNOWN : SVNNodeKind.parseKind(kind)));
+        }
+        return new SVNLogEntry(changedPaths, revision, author, time < 0 ? null : new Date(time), message);
+    }
+
+    // Strings of any length, and null
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        if (size < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[size];
+        input.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static String entryKey(String path, long revision) {
+        return revision + ":" + path;
+    }
+
+    /**
+     * POJO for a mirrored file
+     */
+    public static class Entry {
+        final long size;
+        final String content;
+
+        Entry(long size, String content) {
+            this.size = size;
+            this.content = content;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the text content, or null if it was not fetched
+         */
+        public String getContent() {
+            return content;
+        }
+    }
+}
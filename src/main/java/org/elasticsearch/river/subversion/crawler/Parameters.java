@@ -16,11 +16,15 @@
 
 package org.elasticsearch.river.subversion.crawler;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 
+import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -38,6 +42,19 @@ public class Parameters {
     private final Optional<Long> maximumFileSize;
     private final ImmutableSet<Pattern> patternsToFilter;
     private final Optional<Boolean> storeDiffs;
+    private final Optional<Boolean> lazyContent;
+    private final ImmutableList<ContentExtractor> contentExtractors;
+    private final Optional<Long> extractorSizeBudget;
+    private final Optional<Charset> fallbackCharset;
+    private final Optional<Boolean> deltaContent;
+    private final Optional<Long> deltaCacheSize;
+    private final Optional<Integer> retries;
+    private final Optional<Long> retryDelay;
+    private final Optional<Boolean> fsfsReader;
+    private final Optional<Integer> connectTimeout;
+    private final Optional<Integer> readTimeout;
+    private final Optional<Long> callTimeout;
+    private final Optional<Boolean> skipPropertyChanges;
 
     public Parameters(final Optional<String> login,
                       final Optional<String> password,
@@ -46,7 +63,20 @@ public class Parameters {
                       final Optional<Long> endRevision,
                       final Optional<Long> maximumFileSize,
                       final ImmutableSet<Pattern> patternsToFilter,
-                      final Optional<Boolean> storeDiffs) {
+                      final Optional<Boolean> storeDiffs,
+                      final Optional<Boolean> lazyContent,
+                      final ImmutableList<ContentExtractor> contentExtractors,
+                      final Optional<Long> extractorSizeBudget,
+                      final Optional<Charset> fallbackCharset,
+                      final Optional<Boolean> deltaContent,
+                      final Optional<Long> deltaCacheSize,
+                      final Optional<Integer> retries,
+                      final Optional<Long> retryDelay,
+                      final Optional<Boolean> fsfsReader,
+                      final Optional<Integer> connectTimeout,
+                      final Optional<Integer> readTimeout,
+                      final Optional<Long> callTimeout,
+                      final Optional<Boolean> skipPropertyChanges) {
         this.login = login;
         this.password = password;
         this.path = path;
@@ -55,6 +85,19 @@ public class Parameters {
         this.maximumFileSize = maximumFileSize;
         this.patternsToFilter = patternsToFilter;
         this.storeDiffs = storeDiffs;
+        this.lazyContent = lazyContent;
+        this.contentExtractors = contentExtractors;
+        this.extractorSizeBudget = extractorSizeBudget;
+        this.fallbackCharset = fallbackCharset;
+        this.deltaContent = deltaContent;
+        this.deltaCacheSize = deltaCacheSize;
+        this.retries = retries;
+        this.retryDelay = retryDelay;
+        this.fsfsReader = fsfsReader;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.callTimeout = callTimeout;
+        this.skipPropertyChanges = skipPropertyChanges;
     }
 
     @Override
@@ -67,6 +110,19 @@ public class Parameters {
             .add("maximumFileSize", maximumFileSize)
             .add("patternsToFilter", Iterables.toString(patternsToFilter))
             .add("storeDiffs", storeDiffs)
+            .add("lazyContent", lazyContent)
+            .add("contentExtractors", Iterables.toString(contentExtractors))
+            .add("extractorSizeBudget", extractorSizeBudget)
+            .add("fallbackCharset", fallbackCharset)
+            .add("deltaContent", deltaContent)
+            .add("deltaCacheSize", deltaCacheSize)
+            .add("retries", retries)
+            .add("retryDelay", retryDelay)
+            .add("fsfsReader", fsfsReader)
+            .add("connectTimeout", connectTimeout)
+            .add("readTimeout", readTimeout)
+            .add("callTimeout", callTimeout)
+            .add("skipPropertyChanges", skipPropertyChanges)
             .toString();
     }
 
@@ -102,6 +158,58 @@ public class Parameters {
         return storeDiffs;
     }
 
+    public Optional<Boolean> getLazyContent() {
+        return lazyContent;
+    }
+
+    public ImmutableList<ContentExtractor> getContentExtractors() {
+        return contentExtractors;
+    }
+
+    public Optional<Long> getExtractorSizeBudget() {
+        return extractorSizeBudget;
+    }
+
+    public Optional<Charset> getFallbackCharset() {
+        return fallbackCharset;
+    }
+
+    public Optional<Boolean> getDeltaContent() {
+        return deltaContent;
+    }
+
+    public Optional<Long> getDeltaCacheSize() {
+        return deltaCacheSize;
+    }
+
+    public Optional<Integer> getRetries() {
+        return retries;
+    }
+
+    public Optional<Long> getRetryDelay() {
+        return retryDelay;
+    }
+
+    public Optional<Boolean> getFsfsReader() {
+        return fsfsReader;
+    }
+
+    public Optional<Integer> getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public Optional<Integer> getReadTimeout() {
+        return readTimeout;
+    }
+
+    public Optional<Long> getCallTimeout() {
+        return callTimeout;
+    }
+
+    public Optional<Boolean> getSkipPropertyChanges() {
+        return skipPropertyChanges;
+    }
+
     public void setStartRevision(Optional<Long> startRevision) {
         this.startRevision = startRevision;
     }
@@ -123,6 +231,19 @@ public class Parameters {
         private Optional<Long> nestedMaximumFileSize = Optional.absent();
         private ImmutableSet<Pattern> nestedPatternsToFilter = ImmutableSet.of();
         private Optional<Boolean> nestedStoreDiffs = Optional.of(false);
+        private Optional<Boolean> nestedLazyContent = Optional.of(false);
+        private ImmutableList<ContentExtractor> nestedContentExtractors = ImmutableList.of();
+        private Optional<Long> nestedExtractorSizeBudget = Optional.of(10L * 1024L * 1024L);
+        private Optional<Charset> nestedFallbackCharset = Optional.of(Charsets.ISO_8859_1);
+        private Optional<Boolean> nestedDeltaContent = Optional.of(false);
+        private Optional<Long> nestedDeltaCacheSize = Optional.of(64L * 1024L * 1024L);
+        private Optional<Integer> nestedRetries = Optional.of(3);
+        private Optional<Long> nestedRetryDelay = Optional.of(1000L);
+        private Optional<Boolean> nestedFsfsReader = Optional.of(false);
+        private Optional<Integer> nestedConnectTimeout = Optional.of(30000);
+        private Optional<Integer> nestedReadTimeout = Optional.of(300000);
+        private Optional<Long> nestedCallTimeout = Optional.of(600000L);
+        private Optional<Boolean> nestedSkipPropertyChanges = Optional.of(false);
 
         public ParametersBuilder setLogin(final String newLogin) {
             this.nestedLogin = Optional.fromNullable(newLogin).or(nestedLogin);
@@ -170,6 +291,88 @@ public class Parameters {
             return this;
         }
 
+        public ParametersBuilder setLazyContent(final Boolean newLazyContent) {
+            this.nestedLazyContent = Optional.fromNullable(newLazyContent).or(nestedLazyContent);
+            return this;
+        }
+
+        public ParametersBuilder setContentExtractors(final List<ContentExtractor> newContentExtractors) {
+            this.nestedContentExtractors = ImmutableList.copyOf(newContentExtractors);
+            return this;
+        }
+
+        public ParametersBuilder setExtractorSizeBudget(final Long newExtractorSizeBudget) {
+            if(0L != newExtractorSizeBudget) {
+                this.nestedExtractorSizeBudget = Optional.fromNullable(newExtractorSizeBudget)
+                        .or(nestedExtractorSizeBudget);
+            }
+            return this;
+        }
+
+        public ParametersBuilder setFallbackCharset(final String newFallbackCharset) {
+            if (newFallbackCharset != null && Charset.isSupported(newFallbackCharset)) {
+                this.nestedFallbackCharset = Optional.of(Charset.forName(newFallbackCharset));
+            }
+            return this;
+        }
+
+        public ParametersBuilder setDeltaContent(final Boolean newDeltaContent) {
+            this.nestedDeltaContent = Optional.fromNullable(newDeltaContent).or(nestedDeltaContent);
+            return this;
+        }
+
+        public ParametersBuilder setDeltaCacheSize(final Long newDeltaCacheSize) {
+            if(0L != newDeltaCacheSize) {
+                this.nestedDeltaCacheSize = Optional.fromNullable(newDeltaCacheSize).or(nestedDeltaCacheSize);
+            }
+            return this;
+        }
+
+        public ParametersBuilder setRetries(final Integer newRetries) {
+            if (newRetries != null && newRetries >= 0) {
+                this.nestedRetries = Optional.of(newRetries);
+            }
+            return this;
+        }
+
+        public ParametersBuilder setRetryDelay(final Long newRetryDelay) {
+            if(0L != newRetryDelay) {
+                this.nestedRetryDelay = Optional.fromNullable(newRetryDelay).or(nestedRetryDelay);
+            }
+            return this;
+        }
+
+        public ParametersBuilder setFsfsReader(final Boolean newFsfsReader) {
+            this.nestedFsfsReader = Optional.fromNullable(newFsfsReader).or(nestedFsfsReader);
+            return this;
+        }
+
+        public ParametersBuilder setConnectTimeout(final Integer newConnectTimeout) {
+            if (newConnectTimeout != null && newConnectTimeout >= 0) {
+                this.nestedConnectTimeout = Optional.of(newConnectTimeout);
+            }
+            return this;
+        }
+
+        public ParametersBuilder setReadTimeout(final Integer newReadTimeout) {
+            if (newReadTimeout != null && newReadTimeout >= 0) {
+                this.nestedReadTimeout = Optional.of(newReadTimeout);
+            }
+            return this;
+        }
+
+        public ParametersBuilder setCallTimeout(final Long newCallTimeout) {
+            if (newCallTimeout != null && newCallTimeout >= 0) {
+                this.nestedCallTimeout = Optional.of(newCallTimeout);
+            }
+            return this;
+        }
+
+        public ParametersBuilder setSkipPropertyChanges(final Boolean newSkipPropertyChanges) {
+            this.nestedSkipPropertyChanges = Optional.fromNullable(newSkipPropertyChanges).or(nestedSkipPropertyChanges);
+            return this;
+        }
+
         public Parameters create() {
             return new Parameters(nestedLogin,
                 nestedPassword,
@@ -178,7 +381,20 @@ public class Parameters {
                 nestedEndRevision,
                 nestedMaximumFileSize,
                 nestedPatternsToFilter,
-                nestedStoreDiffs);
+                nestedStoreDiffs,
+                nestedLazyContent,
+                nestedContentExtractors,
+                nestedExtractorSizeBudget,
+                nestedFallbackCharset,
+                nestedDeltaContent,
+                nestedDeltaCacheSize,
+                nestedRetries,
+                nestedRetryDelay,
+                nestedFsfsReader,
+                nestedConnectTimeout,
+                nestedReadTimeout,
+                nestedCallTimeout,
+                nestedSkipPropertyChanges);
         }
     }
 }
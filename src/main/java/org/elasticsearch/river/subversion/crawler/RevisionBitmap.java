@@ -0,0 +1,75 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.elasticsearch.river.subversion.crawler;
+
+import java.util.BitSet;
+
+/**
+ * Set of the revisions of a river known to be indexed, one bit per revision,
+ * persisted along with the last indexed revision.
+ * A crawl going over them again, after the loss of the checkpoint or a reset
+ * of the start revision, only needs their metadata, not their contents.
+ */
+public class RevisionBitmap {
+
+    private final BitSet revisions;
+
+    public RevisionBitmap() {
+        this(new BitSet());
+    }
+
+    private RevisionBitmap(BitSet revisions) {
+        this.revisions = revisions;
+    }
+
+    /**
+     * @param bytes the bitmap, as given by {@link #toBytes()}, or null
+     * @return the bitmap, empty if there are no bytes
+     */
+    public static RevisionBitmap fromBytes(byte[] bytes) {
+        return bytes == null ? new RevisionBitmap() : new RevisionBitmap(BitSet.valueOf(bytes));
+    }
+
+    /**
+     * @param revision a revision whose documents are all indexed
+     */
+    public synchronized void add(long revision) {
+        // Beyond that, the revisions are simply never known
+        if (revision >= 0 && revision < Integer.MAX_VALUE) {
+            revisions.set((int) revision);
+        }
+    }
+
+    public synchronized boolean contains(long revision) {
+        return revision >= 0 && revision < Integer.MAX_VALUE && revisions.get((int) revision);
+    }
+
+    /**
+     * @return the number of revisions known to be indexed
+     */
+    public synchronized int size() {
+        return revisions.cardinality();
+    }
+
+    /**
+     * @return the bitmap, to be persisted
+     */
+    public synchronized byte[] toBytes() {
+        return revisions.toByteArray();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.river.subversion.type.SubversionDocument;
+import org.elasticsearch.river.subversion.type.SubversionRevision;
+import org.tmatesoft.svn.core.*;
+import org.tmatesoft.svn.core.internal.util.SVNDate;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaProcessor;
+import org.tmatesoft.svn.core.io.diff.SVNDiffWindow;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+/**
+ * Editor receiving a whole tree, like an "svn export",
+ * and turning every file into a SubversionDocument.
+ */
+public class SnapshotEditor implements ISVNEditor {
+
+    private static ESLogger logger = Loggers.getLogger(SnapshotEditor.class);
+
+    private final String basePath;
+    private final String repository;
+    private final Parameters parameters;
+    private final DocumentHandler handler;
+    private final SVNDeltaProcessor deltaProcessor = new SVNDeltaProcessor();
+
+    private long targetRevision;
+    private long count = 0;
+
+    // State of the file being received
+    private SniffingOutputStream content;
+    private String mimeType;
+    private long committedRevision;
+    private Date committedDate;
+    private String lastAuthor;
+
+    /**
+     * @param basePath path of the exported tree, relative to the repository root
+     * @param repository the repository path, as in SubversionRevision
+     * @param parameters the parameters passed to the crawler
+     * @param handler the handler for the documents
+     */
+    public SnapshotEditor(String basePath,
+                          String repository,
+                          Parameters parameters,
+                          DocumentHandler handler) {
+        this.basePath = "/".equals(basePath) ? "" : basePath.replaceAll("/$", "");
+        this.repository = repository;
+        this.parameters = parameters;
+        this.handler = handler;
+    }
+
+    /**
+     * @return the number of documents handled
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void targetRevision(long revision) throws SVNException {
+        this.targetRevision = revision;
+    }
+
+    @Override
+    public void openRoot(long revision) throws SVNException {
+    }
+
+    @Override
+    public void deleteEntry(String path, long revision) throws SVNException {
+    }
+
+    @Override
+    public void absentDir(String path) throws SVNException {
+    }
+
+    @Override
+    public void absentFile(String path) throws SVNException {
+    }
+
+    @Override
+    public void addDir(String path, String copyFromPath, long copyFromRevision) throws SVNException {
+    }
+
+    @Override
+    public void openDir(String path, long revision) throws SVNException {
+    }
+
+    @Override
+    public void changeDirProperty(String name, SVNPropertyValue value) throws SVNException {
+    }
+
+    @Override
+    public void closeDir() throws SVNException {
+    }
+
+    @Override
+    public void addFile(String path, String copyFromPath, long copyFromRevision) throws SVNException {
+        // The river is closing : give the export up
+        if (Thread.currentThread().isInterrupted()) {
+            throw new SVNCancelException();
+        }
+        content = null;
+        mimeType = null;
+        committedRevision = targetRevision;
+        committedDate = null;
+        lastAuthor = null;
+    }
+
+    @Override
+    public void openFile(String path, long revision) throws SVNException {
+        addFile(path, null, -1L);
+    }
+
+    @Override
+    public void changeFileProperty(String path, String propertyName, SVNPropertyValue propertyValue)
+            throws SVNException {
+        String value = SVNPropertyValue.getPropertyAsString(propertyValue);
+        if (value == null) {
+            return;
+        }
+        if (SVNProperty.MIME_TYPE.equals(propertyName)) {
+            mimeType = value;
+        } else if (SVNProperty.COMMITTED_REVISION.equals(propertyName)) {
+            committedRevision = Long.parseLong(value);
+        } else if (SVNProperty.COMMITTED_DATE.equals(propertyName)) {
+            committedDate = SVNDate.parseDate(value);
+        } else if (SVNProperty.LAST_AUTHOR.equals(propertyName)) {
+            lastAuthor = value;
+        }
+    }
+
+    @Override
+    public void applyTextDelta(String path, String baseChecksum) throws SVNException {
+        // Properties usually come first : no need to buffer binaries
+        // that no content extractor will handle.
+        String guessedMimeType = SubversionCrawler.guessMimeType(mimeType, path);
+        content = new SniffingOutputStream(guessedMimeType == null);
+        if (parameters.getMaximumFileSize().isPresent()) {
+            content.setLimit(parameters.getMaximumFileSize().get());
+        }
+        if (guessedMimeType != null
+                && !SVNProperty.isTextMimeType(guessedMimeType)
+                && !SubversionCrawler.hasContentExtractor(guessedMimeType, path, parameters)) {
+            content.discard();
+        }
+        deltaProcessor.applyTextDelta(new ByteArrayInputStream(new byte[0]), content, false);
+    }
+
+    @Override
+    public OutputStream textDeltaChunk(String path, SVNDiffWindow diffWindow) throws SVNException {
+        return deltaProcessor.textDeltaChunk(diffWindow);
+    }
+
+    @Override
+    public void textDeltaEnd(String path) throws SVNException {
+        deltaProcessor.textDeltaEnd();
+    }
+
+    @Override
+    public void closeFile(String path, String textChecksum) throws SVNException {
+        String fullname = basePath + "/" + path;
+        for (Pattern pattern : parameters.getPatternsToFilter()) {
+            if (pattern.matcher(fullname).matches()) {
+                logger.warn("Entry [{}] filtered out : [matches [{}]]", fullname, pattern);
+                return;
+            }
+        }
+
+        if (content == null) {
+            // No text sent, the file is empty
+            content = new SniffingOutputStream(false);
+        }
+        String text;
+        long size = content.getWritten();
+        if (parameters.getMaximumFileSize().isPresent()
+                && size > parameters.getMaximumFileSize().get()) {
+            text = "size too big [" + size + "]";
+        } else if (content.isDiscarded() && !content.isBinary()) {
+            text = SubversionCrawler.NOT_TEXT_TYPE;
+        } else {
+            try {
+                text = SubversionCrawler.extractContent(content, mimeType, fullname, size, parameters);
+            } catch (IOException e) {
+                logger.warn("failed to extract content of [{}]", e, fullname);
+                text = null;
+            }
+        }
+
+        SubversionRevision revision = new SubversionRevision(
+                new SVNLogEntry(null, committedRevision, lastAuthor, committedDate, null),
+                repository);
+        handler.handle(new SubversionDocument(fullname, 'A', size, text, revision));
+        count++;
+        content = null;
+    }
+
+    @Override
+    public SVNCommitInfo closeEdit() throws SVNException {
+        logger.info("Exported [{}] documents of {} at revision [{}]", count, basePath, targetRevision);
+        return null;
+    }
+
+    @Override
+    public void abortEdit() throws SVNException {
+        content = null;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+
+/**
+ * Buffer for file contents, sniffing the first bytes
+ * to tell binaries from text when no svn:mime-type is set.
+ * Once a binary is detected, the rest of the content is discarded,
+ * or its transfer is aborted.
+ */
+public class SniffingOutputStream extends ByteArrayOutputStream {
+
+    // Same heuristic as git : a NUL byte in the first 8000 bytes means binary
+    public static final int SNIFF_LENGTH = 8000;
+
+    private boolean sniffing;
+    private boolean sniffed = false;
+    private boolean binary = false;
+    private boolean discarding = false;
+    private boolean abortOnBinary = false;
+    private long written = 0;
+    private long limit = Long.MAX_VALUE;
+
+    /**
+     * @param sniffing false if the mime type is already known
+     */
+    public SniffingOutputStream(boolean sniffing) {
+        this.sniffing = sniffing;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        written++;
+        checkAborted();
+        if (binary || discarding || overLimit()) {
+            return;
+        }
+        super.write(b);
+        if (sniffing && !sniffed && count >= SNIFF_LENGTH) {
+            sniff();
+            checkAborted();
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        written += len;
+        checkAborted();
+        if (binary || discarding || overLimit()) {
+            return;
+        }
+        super.write(b, off, len);
+        if (sniffing && !sniffed && count >= SNIFF_LENGTH) {
+            sniff();
+            checkAborted();
+        }
+    }
+
+    /**
+     * Stop the transfer as soon as a binary is detected, the rest of it being useless :
+     * the writes then throw a BinaryContentException
+     */
+    public synchronized void abortOnBinary() {
+        this.abortOnBinary = true;
+    }
+
+    /**
+     * @return true if the transfer was stopped for being binary
+     */
+    public synchronized boolean isAborted() {
+        return abortOnBinary && binary;
+    }
+
+    /**
+     * @return true if a binary content has been detected
+     */
+    public synchronized boolean isBinary() {
+        if (sniffing && !sniffed) {
+            sniff();
+        }
+        return binary;
+    }
+
+    /**
+     * Empty the buffer, to reuse it for another file
+     * @param sniffing false if the mime type is already known
+     */
+    public synchronized void reset(boolean sniffing) {
+        reset();
+        this.sniffing = sniffing;
+        this.sniffed = false;
+        this.binary = false;
+        this.discarding = false;
+        this.abortOnBinary = false;
+        this.written = 0;
+        this.limit = Long.MAX_VALUE;
+    }
+
+    /**
+     * Empty the buffer, to receive the same content again, like after a failed download
+     */
+    public synchronized void restart() {
+        reset();
+        this.sniffed = false;
+        this.binary = false;
+        this.discarding = false;
+        this.written = 0;
+    }
+
+    /**
+     * Stop buffering the content, only count its size
+     */
+    public synchronized void discard() {
+        discarding = true;
+        reset();
+    }
+
+    /**
+     * Stop buffering the content past a given size
+     * @param limit maximum size of the content
+     */
+    public synchronized void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return true if the content was discarded, for being binary, too big...
+     */
+    public synchronized boolean isDiscarded() {
+        return binary || discarding || written > limit;
+    }
+
+    /**
+     * @return the size of the content written so far, discarded or not
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return the size of the underlying array
+     */
+    public synchronized int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * @return the underlying array, valid up to size()
+     */
+    public synchronized byte[] array() {
+        return buf;
+    }
+
+    /**
+     * @return the buffered content, without copy
+     */
+    public synchronized InputStream toInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    private boolean overLimit() {
+        if (written > limit) {
+            reset();
+            return true;
+        }
+        return false;
+    }
+
+    private void checkAborted() {
+        if (abortOnBinary && binary) {
+            throw new BinaryContentException();
+        }
+    }
+
+    private void sniff() {
+        int length = Math.min(count, SNIFF_LENGTH);
+        for (int i = 0; i < length; i++) {
+            if (buf[i] == 0) {
+                binary = true;
+                // No need to keep it
+                reset();
+                break;
+            }
+        }
+        sniffed = true;
+    }
+
+    /**
+     * Thrown to the sender of a content detected as binary, to stop its transfer
+     */
+    public static class BinaryContentException extends RuntimeException {
+        public BinaryContentException() {
+            super("binary content");
+        }
+    }
+}
@@ -16,10 +16,13 @@
 
 package org.elasticsearch.river.subversion.crawler;
 
-import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.river.subversion.type.SubversionDeadLetter;
 import org.elasticsearch.river.subversion.type.SubversionDocument;
 import org.elasticsearch.river.subversion.type.SubversionRevision;
 import org.tmatesoft.svn.core.*;
@@ -27,21 +30,29 @@ import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
 import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
 import org.tmatesoft.svn.core.internal.io.svn.SVNRepositoryFactoryImpl;
+import org.tmatesoft.svn.core.internal.util.SVNDate;
+import org.tmatesoft.svn.core.io.ISVNReporter;
+import org.tmatesoft.svn.core.io.ISVNReporterBaton;
 import org.tmatesoft.svn.core.io.ISVNSession;
 import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
-import org.tmatesoft.svn.core.wc.SVNWCUtil;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.UnsupportedEncodingException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Container for SVN repository browsing
@@ -50,6 +61,65 @@ public class SubversionCrawler {
 
     private static ESLogger logger = Loggers.getLogger(SubversionCrawler.class);
 
+    public static final String NOT_TEXT_TYPE = "Not text type";
+
+    // Extensions of binary files, not worth downloading without a content extractor
+    private static final String OCTET_STREAM = "application/octet-stream";
+    private static final ImmutableMap<String, String> BINARY_TYPES = ImmutableMap.<String, String>builder()
+            .put("jar", "application/java-archive")
+            .put("war", "application/java-archive")
+            .put("ear", "application/java-archive")
+            .put("zip", "application/zip")
+            .put("gz", "application/gzip")
+            .put("tgz", "application/gzip")
+            .put("bz2", "application/x-bzip2")
+            .put("xz", "application/x-xz")
+            .put("7z", "application/x-7z-compressed")
+            .put("rar", "application/x-rar-compressed")
+            .put("class", "application/java-vm")
+            .put("exe", OCTET_STREAM)
+            .put("dll", OCTET_STREAM)
+            .put("so", OCTET_STREAM)
+            .put("dylib", OCTET_STREAM)
+            .put("lib", OCTET_STREAM)
+            .put("obj", OCTET_STREAM)
+            .put("bin", OCTET_STREAM)
+            .put("iso", "application/x-iso9660-image")
+            .put("png", "image/png")
+            .put("jpg", "image/jpeg")
+            .put("jpeg", "image/jpeg")
+            .put("gif", "image/gif")
+            .put("bmp", "image/bmp")
+            .put("ico", "image/x-icon")
+            .put("tif", "image/tiff")
+            .put("tiff", "image/tiff")
+            .put("psd", "image/vnd.adobe.photoshop")
+            .put("mp3", "audio/mpeg")
+            .put("mp4", "video/mp4")
+            .put("avi", "video/x-msvideo")
+            .put("mov", "video/quicktime")
+            .put("wav", "audio/x-wav")
+            .put("ogg", "audio/ogg")
+            .put("flv", "video/x-flv")
+            .put("pdf", "application/pdf")
+            .put("doc", "application/msword")
+            .put("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document")
+            .put("xls", "application/vnd.ms-excel")
+            .put("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
+            .put("ppt", "application/vnd.ms-powerpoint")
+            .put("pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation")
+            .put("odt", "application/vnd.oasis.opendocument.text")
+            .put("ods", "application/vnd.oasis.opendocument.spreadsheet")
+            .put("odp", "application/vnd.oasis.opendocument.presentation")
+            .build();
+
+    // Path of each location of the rivers, relative to its repository root
+    private static final ConcurrentMap<String, String> subtreeLocations = Maps.newConcurrentMap();
+
+    private static final LogEntryFilter QUARANTINED = new LogEntryFilter(true, true, "quarantined");
+    // Number of changed paths failing in a row above which the whole range fails
+    private static final int MAX_FAILURES_IN_A_ROW = 3;
+
     // Setup factories to use every protocol :
     // svn://, svn+xxx://	SVNRepositoryFactoryImpl (org.tmatesoft.svn.core.internal.io.svn)
     // http://, https://	DAVRepositoryFactory (org.tmatesoft.svn.core.internal.io.dav)
@@ -68,13 +138,217 @@ public class SubversionCrawler {
      * @return latest revision
      * @throws SVNException
      */
-    public static long getLatestRevision(URL reposAsURL, Parameters parameters)
+    public static long getLatestRevision(URL reposAsURL, final Parameters parameters)
+            throws SVNException, URISyntaxException {
+        final SVNRepository repository = getRepository(reposAsURL, parameters);
+        try {
+            return call(repository, parameters, new SVNCall<Long>() {
+                @Override
+                public Long call() throws SVNException {
+                    logger.debug("Repository Root: {}", repository.getRepositoryRoot(true));
+                    logger.debug("Repository UUID: {}", repository.getRepositoryUUID(true));
+                    logger.debug("Repository HEAD Revision: {}", repository.getLatestRevision());
+
+                    // call getDir() at HEAD revision,
+                    // no commit messages or entries necessary
+                    return repository.getDir(parameters.getPath().get(), -1, false, null).getRevision();
+                }
+            });
+        } finally {
+            repository.closeSession();
+        }
+    }
+
+    /**
+     * @param reposAsURL URL to the repository
+     * @param parameters (login, password)
+     * @return the UUID of the repository
+     * @throws SVNException
+     */
+    public static String getRepositoryUUID(URL reposAsURL, final Parameters parameters)
+            throws SVNException, URISyntaxException {
+        final SVNRepository repository = getRepository(reposAsURL, parameters);
+        try {
+            return call(repository, parameters, new SVNCall<String>() {
+                @Override
+                public String call() throws SVNException {
+                    return repository.getRepositoryUUID(true);
+                }
+            });
+        } finally {
+            repository.closeSession();
+        }
+    }
+
+    /**
+     * @param reposAsURL URL to the repository
+     * @param parameters (login, password)
+     * @return the HEAD revision of the whole repository, whatever the path
+     * @throws SVNException
+     */
+    public static long getHeadRevision(URL reposAsURL, final Parameters parameters)
+            throws SVNException, URISyntaxException {
+        final SVNRepository repository = getRepository(reposAsURL, parameters);
+        try {
+            return call(repository, parameters, new SVNCall<Long>() {
+                @Override
+                public Long call() throws SVNException {
+                    return repository.getLatestRevision();
+                }
+            });
+        } finally {
+            repository.closeSession();
+        }
+    }
+
+    /**
+     * A request to the repository, which can be sent again
+     */
+    interface SVNCall<T> {
+        T call() throws SVNException;
+    }
+
+    /**
+     * Send a request to the repository, within the limits of its host.
+     * On a transient error, like a dropped connection, the session is closed,
+     * to be opened again by the next request, and the request is sent again
+     * after a jittered exponential backoff.
+     * A request stalled past the call timeout is aborted by the watchdog, and retried the same way.
+     *
+     * @param repository the repository
+     * @param parameters the parameters passed to the crawler (retries)
+     * @param call the request
+     * @return the answer of the request
+     * @throws SVNException the error of the last attempt
+     */
+    static <T> T call(final SVNRepository repository, Parameters parameters, SVNCall<T> call)
+            throws SVNException {
+        HostLimiter limiter = HostLimiter.of(repository);
+        int attempt = 0;
+        while (true) {
+            long delay;
+            limiter.acquire();
+            CallWatchdog.Watch watch = CallWatchdog.watch(repository.getLocation().toString(), new Runnable() {
+                @Override
+                public void run() {
+                    repository.closeSession();
+                }
+            }, parameters.getCallTimeout().get());
+            try {
+                return call.call();
+            } catch (SVNException e) {
+                boolean stalled = watch != null && watch.isAborted();
+                if (attempt >= parameters.getRetries().get() || !(stalled || isTransient(e))) {
+                    throw e;
+                }
+                attempt++;
+                delay = getBackoff(parameters.getRetryDelay().get(), attempt);
+                logger.warn("Transient error on [{}], retrying in [{}]ms ({}/{}) : {}",
+                        repository.getLocation(), delay, attempt, parameters.getRetries().get(), e.getMessage());
+                repository.closeSession();
+            } finally {
+                CallWatchdog.unwatch(watch);
+                limiter.release();
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SVNCancelException();
+            }
+        }
+    }
+
+    /**
+     * @param e an error of the repository
+     * @return true if the error is likely to go away by itself, like a network one
+     */
+    static boolean isTransient(SVNException e) {
+        if (e.getCause() instanceof IOException) {
+            return true;
+        }
+        SVNErrorCode code = e.getErrorMessage() == null ? null : e.getErrorMessage().getErrorCode();
+        return code != null
+                && (code == SVNErrorCode.IO_ERROR
+                || code == SVNErrorCode.RA_SVN_IO_ERROR
+                || code == SVNErrorCode.RA_SVN_CONNECTION_CLOSED
+                || code == SVNErrorCode.RA_SVN_MALFORMED_DATA
+                || code == SVNErrorCode.RA_DAV_REQUEST_FAILED
+                || code == SVNErrorCode.RA_DAV_MALFORMED_DATA);
+    }
+
+    /**
+     * @param retryDelay the delay before the first retry, in ms
+     * @param attempt the number of the retry, from 1
+     * @return the delay before the retry, doubling at every attempt, give or take 50%
+     */
+    static long getBackoff(long retryDelay, int attempt) {
+        long delay = retryDelay << Math.min(attempt - 1, 16);
+        return (long) (delay * (0.5 + Math.random()));
+    }
+
+    /**
+     * Get the info of a path, within the limits of the repository host
+     *
+     * @param repository the repository
+     * @param path the path
+     * @param revision the revision
+     * @param parameters the parameters passed to the crawler (retries)
+     * @return the entry of the path, or null if it does not exist
+     * @throws SVNException
+     */
+    public static SVNDirEntry info(final SVNRepository repository,
+                                   final String path,
+                                   final long revision,
+                                   Parameters parameters)
+            throws SVNException {
+        return call(repository, parameters, new SVNCall<SVNDirEntry>() {
+            @Override
+            public SVNDirEntry call() throws SVNException {
+                return repository.info(path, revision);
+            }
+        });
+    }
+
+    /**
+     * Get the kind of a path, within the limits of the repository host
+     *
+     * @param repository the repository
+     * @param path the path
+     * @param revision the revision
+     * @param parameters the parameters passed to the crawler (retries)
+     * @return the kind of the path
+     * @throws SVNException
+     */
+    static SVNNodeKind checkPath(final SVNRepository repository,
+                                 final String path,
+                                 final long revision,
+                                 Parameters parameters)
+            throws SVNException {
+        return call(repository, parameters, new SVNCall<SVNNodeKind>() {
+            @Override
+            public SVNNodeKind call() throws SVNException {
+                return repository.checkPath(path, revision);
+            }
+        });
+    }
+
+    /**
+     * Open a session to the repository, authenticated if needed
+     *
+     * @param reposAsURL URL to the repository
+     * @param parameters (login, password)
+     * @return an initialized repository, to be closed by the caller
+     * @throws SVNException
+     * @throws URISyntaxException
+     */
+    public static SVNRepository getRepository(URL reposAsURL, Parameters parameters)
             throws SVNException, URISyntaxException {
         SVNURL svnUrl;
         SVNRepository repository;
         if(reposAsURL.getProtocol().equalsIgnoreCase("file")) {
             svnUrl = SVNURL.fromFile(new File(reposAsURL.toURI()));
-            repository = SVNRepositoryFactory.create(svnUrl);
+            repository = SVNRepositoryFactory.create(svnUrl, ISVNSession.KEEP_ALIVE);
         } else {
             svnUrl = SVNURL.create(
                     reposAsURL.getProtocol(),
@@ -85,113 +359,1011 @@ public class SubversionCrawler {
                     false
             );
             repository = SVNRepositoryFactory.create(svnUrl);
-            ISVNAuthenticationManager authManager =
-                    SVNWCUtil.createDefaultAuthenticationManager(
-                            parameters.getLogin().get(),
-                            parameters.getPassword().get());
+            ISVNAuthenticationManager authManager = new TimeoutAuthenticationManager(
+                    parameters.getLogin().get(),
+                    parameters.getPassword().get(),
+                    parameters.getConnectTimeout().get(),
+                    parameters.getReadTimeout().get());
             repository.setAuthenticationManager( authManager );
         }
+        return repository;
+    }
 
-        logger.debug("Repository Root: {}", repository.getRepositoryRoot(true));
-        logger.debug("Repository UUID: {}", repository.getRepositoryUUID(true));
-        logger.debug("Repository HEAD Revision: {}", repository.getLatestRevision());
+    public static List<SubversionRevision> getRevisions(URL reposAsURL,
+                                                        Parameters parameters)
+            throws SVNException, URISyntaxException {
+        return getRevisions(reposAsURL, parameters, null, null);
+    }
+
+    /**
+     * Get the revisions in the range of the parameters, with their documents
+     *
+     * @param reposAsURL URL to the repository
+     * @param parameters the parameters passed to the crawler
+     * @param baseTextCache if not null, the contents of modified files are rebuilt
+     *                      from the deltas sent by the server, applied to these cached texts
+     * @param mirror if not null, the local mirror serving what was already fetched,
+     *               and keeping what is fetched now
+     * @return the revisions, only the first ones if the thread was interrupted meanwhile,
+     *         in which case it is left interrupted
+     * @throws SVNException
+     * @throws URISyntaxException
+     */
+    public static List<SubversionRevision> getRevisions(URL reposAsURL,
+                                                        Parameters parameters,
+                                                        BaseTextCache baseTextCache,
+                                                        MirrorCache mirror)
+            throws SVNException, URISyntaxException {
+        return getRevisions(reposAsURL, parameters, baseTextCache, mirror, null);
+    }
 
-        // call getDir() at HEAD revision,
-        // no commit messages or entries necessary
-        return repository.getDir(parameters.getPath().get(), -1, false, null).getRevision();
+    /**
+     * Get the revisions in the range of the parameters, with their documents,
+     * within a memory budget
+     *
+     * @param budget if not null, the memory budget of the revisions retrieved : once it is reached,
+     *               the retrieval stops, and the end revision of the parameters is set
+     *               to the last revision retrieved
+     * @see #getRevisions(URL, Parameters, BaseTextCache, MirrorCache)
+     */
+    public static List<SubversionRevision> getRevisions(URL reposAsURL,
+                                                        Parameters parameters,
+                                                        BaseTextCache baseTextCache,
+                                                        MirrorCache mirror,
+                                                        MemoryBudget budget)
+            throws SVNException, URISyntaxException {
+        return getRevisions(reposAsURL, parameters, baseTextCache, mirror, budget, null);
     }
 
+    /**
+     * Get the revisions in the range of the parameters, with their documents,
+     * except for the revisions already indexed
+     *
+     * @param indexedRevisions if not null, the revisions already indexed : they are only retrieved
+     *                         with their metadata, marked as indexed, and without documents
+     * @see #getRevisions(URL, Parameters, BaseTextCache, MirrorCache, MemoryBudget)
+     */
     public static List<SubversionRevision> getRevisions(URL reposAsURL,
-                                                        Parameters parameters)
+                                                        Parameters parameters,
+                                                        BaseTextCache baseTextCache,
+                                                        MirrorCache mirror,
+                                                        MemoryBudget budget,
+                                                        RevisionBitmap indexedRevisions)
+            throws SVNException, URISyntaxException {
+        SVNRepository repository = getRepository(reposAsURL, parameters);
+        try {
+            // A local repository can be read from its files, rather than through SVNKit
+            if (parameters.getFsfsReader().get() && "file".equals(reposAsURL.getProtocol())) {
+                List<SubversionRevision> result = retrieveLocalRevisions(reposAsURL,
+                        parameters,
+                        repository.getLocation().getPath(),
+                        budget,
+                        indexedRevisions);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return retrieveRevisions(reposAsURL, parameters, baseTextCache, mirror, budget, indexedRevisions,
+                    repository);
+        } finally {
+            repository.closeSession();
+        }
+    }
+
+    private static List<SubversionRevision> retrieveRevisions(URL reposAsURL,
+                                                              Parameters parameters,
+                                                              BaseTextCache baseTextCache,
+                                                              MirrorCache mirror,
+                                                              MemoryBudget budget,
+                                                              RevisionBitmap indexedRevisions,
+                                                              SVNRepository repository)
             throws SVNException, URISyntaxException {
         List<SubversionRevision> result = Lists.newArrayList();
         // Init the first revision to get
         Long start = parameters.getStartRevision().get();
         String path = parameters.getPath().get();
-        String login = parameters.getLogin().get();
-        String password = parameters.getPassword().get();
-        // Init the last revision to get
-        // (but first, init the repos)
-        SVNURL svnUrl;
-        SVNRepository repository;
-        if(reposAsURL.getProtocol().equalsIgnoreCase("file")) {
-            svnUrl = SVNURL.fromFile(new File(reposAsURL.toURI()));
-            repository = SVNRepositoryFactory.create(svnUrl, ISVNSession.KEEP_ALIVE);
-        } else {
-            svnUrl = SVNURL.create(
-                    reposAsURL.getProtocol(),
-                    "",
-                    reposAsURL.getHost(),
-                    reposAsURL.getPort(),
-                    reposAsURL.getPath(),
-                    false
-            );
-            repository = SVNRepositoryFactory.create(svnUrl);
-            ISVNAuthenticationManager authManager = SVNWCUtil
-                    .createDefaultAuthenticationManager(login, password);
-            repository.setAuthenticationManager( authManager );
+
+        // A range already mirrored does not need the server at all
+        Collection<?> logEntries = null;
+        Long end = parameters.getEndRevision().orNull();
+        if (mirror != null && end != null) {
+            logEntries = getMirroredLogEntries(mirror, path, start, end);
         }
 
-        // Attempt to deal with the non-exitence of the path at the specified revision
-        Long end = sanitizeEndRevision(repository, path, parameters);
-        if (end < 0) {
-            // The path likely didn't exist at any revision in the range
-            logger.warn("Path [{}] likely didn't exist between revision [{}] to [{}]",
-                    path, parameters.getStartRevision().get(), parameters.getEndRevision().get());
-            return result;
+        if (logEntries == null) {
+            // Attempt to deal with the non-exitence of the path at the specified revision
+            end = sanitizeEndRevision(repository, path, parameters);
+            if (end < 0) {
+                // The path likely didn't exist at any revision in the range
+                logger.warn("Path [{}] likely didn't exist between revision [{}] to [{}]",
+                        path, parameters.getStartRevision().get(), parameters.getEndRevision().get());
+                return result;
+            }
+            logger.info("Retrieving revisions of {}{} from [{}] to [{}]",
+                    reposAsURL, path, start, end);
+
+            final String[] targetPaths = new String[1];
+            targetPaths[0] = path;
+
+            // Do a "svn log" for revisions in the range
+            final SVNRepository logRepository = repository;
+            final long logStart = start;
+            final long logEnd = end;
+            logEntries = call(repository, parameters, new SVNCall<Collection<?>>() {
+                @Override
+                public Collection<?> call() throws SVNException {
+                    return logRepository.log(
+                            targetPaths,
+                            null,
+                            logStart,
+                            logEnd,
+                            true,
+                            true
+                    );
+                }
+            });
+            if (mirror != null) {
+                mirrorLogEntries(mirror, path, start, end, logEntries);
+            }
+        } else {
+            logger.info("Retrieving revisions of {}{} from [{}] to [{}] from mirror",
+                    reposAsURL, path, start, end);
+        }
+        String subtreePath = getSubtreePath(repository, path, parameters);
+        // The deltas are applied over a second session, located at the path
+        SVNRepository deltaRepository = null;
+        if (baseTextCache != null && !parameters.getLazyContent().get()) {
+            deltaRepository = getRepository(reposAsURL, parameters);
+            deltaRepository.setLocation(deltaRepository.getLocation().appendPath(path, false), false);
         }
-        logger.info("Retrieving revisions of {}{} from [{}] to [{}]",
-                reposAsURL, path, start, end);
-
-        String[] targetPaths = new String[1];
-        targetPaths[0] = path;
-
-        // Do a "svn log" for revisions in the range
-        Collection logEntries =
-                repository.log(
-                        targetPaths,
-                        null,
-                        start,
-                        end,
-                        true,
-                        true
-                );
-        for (Object logEntryObject : logEntries) {
-            SVNLogEntry logEntry = (SVNLogEntry) logEntryObject;
-            // Map the obtained logEntry to the jsonable/indexable class
-            SubversionRevision subversionRevision =
-                    new SubversionRevision(logEntry, repository.getLocation().getPath());
-
-            Map<String, SVNLogEntryPath> changedPaths = logEntry.getChangedPaths();
-
-            for (Map.Entry<String, SVNLogEntryPath> entry : changedPaths.entrySet()) {
-                // For each changed path, get the corresponding SVNDocument
-                SVNLogEntryPath svnLogEntryPath = entry.getValue();
-                logger.debug("Extracting entry [{}]", entry.getKey());
-                // Check if it's not to be filtered
-                LogEntryFilter toFilter = checkLogEntryPath(parameters,
-                        repository, logEntry.getRevision(), svnLogEntryPath);
-
-                // Add the doc, unless instructed not to.
-                if( !toFilter.crawlingToBePrevented() ) {
-                    subversionRevision.addDocument(
-                            new SubversionDocument(
+        int failuresInARow = 0;
+        try {
+            for (Object logEntryObject : logEntries) {
+                // The river is closing : the revisions retrieved so far are complete
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new SVNCancelException();
+                }
+                SVNLogEntry logEntry = (SVNLogEntry) logEntryObject;
+                // Map the obtained logEntry to the jsonable/indexable class
+                SubversionRevision subversionRevision =
+                        new SubversionRevision(logEntry, repository.getLocation().getPath());
+
+                // Nothing outside of the subtree is worth a request to the server
+                Map<String, SVNLogEntryPath> changedPaths = getChangedPaths(logEntry, subtreePath);
+                if (changedPaths.size() < logEntry.getChangedPaths().size()) {
+                    logger.debug("Revision [{}] : [{}] changed paths out of [{}] within {}",
+                            logEntry.getRevision(), changedPaths.size(), logEntry.getChangedPaths().size(), path);
+                }
+
+                // Replayed after a reset of the checkpoint : nothing to fetch again
+                if (indexedRevisions != null && indexedRevisions.contains(logEntry.getRevision())) {
+                    if (deltaRepository != null) {
+                        // The base texts of this revision are not fetched : forget the old ones
+                        for (SVNLogEntryPath entryPath : changedPaths.values()) {
+                            baseTextCache.remove(entryPath.getPath());
+                        }
+                    }
+                    subversionRevision.setIndexed();
+                    result.add(subversionRevision);
+                    continue;
+                }
+
+                // Look for the files already mirrored
+                Map<String, MirrorCache.Entry> mirrored = Maps.newHashMap();
+                boolean allMirrored = true;
+                for (Map.Entry<String, SVNLogEntryPath> entry : changedPaths.entrySet()) {
+                    char type = entry.getValue().getType();
+                    if (mirror != null && (type == 'A' || type == 'M')) {
+                        MirrorCache.Entry mirroredEntry = getMirroredEntry(mirror,
+                                entry.getValue().getPath(), logEntry.getRevision());
+                        if (mirroredEntry != null) {
+                            mirrored.put(entry.getKey(), mirroredEntry);
+                        } else {
+                            allMirrored = false;
+                        }
+                    } else if (type == 'A' || type == 'M') {
+                        allMirrored = false;
+                    }
+                }
+
+                // Check first the changed paths which are not to be filtered
+                Map<String, LogEntryFilter> filters = Maps.newLinkedHashMap();
+                for (Map.Entry<String, SVNLogEntryPath> entry : changedPaths.entrySet()) {
+                    MirrorCache.Entry mirroredEntry = mirrored.get(entry.getKey());
+                    try {
+                        filters.put(entry.getKey(), checkLogEntryPath(parameters,
+                                repository, logEntry.getRevision(), entry.getValue(),
+                                mirroredEntry == null ? null : mirroredEntry.getSize()));
+                        failuresInARow = 0;
+                    } catch (SVNCancelException e) {
+                        throw e;
+                    } catch (SVNException e) {
+                        // Many failures in a row are rather those of the repository itself
+                        if (++failuresInARow > MAX_FAILURES_IN_A_ROW) {
+                            throw e;
+                        }
+                        quarantine(subversionRevision, entry.getValue(), e);
+                        filters.put(entry.getKey(), QUARANTINED);
+                    }
+                }
+                // Only a revision setting the properties of a directory, like the root of a merge,
+                // is worth the checksums of its modified files
+                boolean skipPropertyChanges = parameters.getSkipPropertyChanges().get()
+                        && hasDirectoryModification(logEntry.getChangedPaths().values());
+                Map<String, String> contents = Collections.emptyMap();
+                if (deltaRepository != null && !allMirrored) {
+                    contents = getDeltaContents(deltaRepository, subtreePath, logEntry, filters, baseTextCache,
+                            parameters);
+                } else if (deltaRepository != null) {
+                    // The base texts of this revision are not fetched : forget the old ones
+                    for (SVNLogEntryPath entryPath : changedPaths.values()) {
+                        baseTextCache.remove(entryPath.getPath());
+                    }
+                }
+
+                for (Map.Entry<String, SVNLogEntryPath> entry : changedPaths.entrySet()) {
+                    // For each changed path, get the corresponding SVNDocument
+                    SVNLogEntryPath svnLogEntryPath = entry.getValue();
+                    logger.debug("Extracting entry [{}]", entry.getKey());
+                    LogEntryFilter toFilter = filters.get(entry.getKey());
+
+                    // Add the doc, unless instructed not to.
+                    if (toFilter == QUARANTINED) {
+                        continue;
+                    }
+                    if( !toFilter.crawlingToBePrevented() ) {
+                        MirrorCache.Entry mirroredEntry = mirrored.get(entry.getKey());
+                        if (mirroredEntry != null
+                                && (mirroredEntry.getContent() != null || toFilter.contentToBeFiltered())) {
+                            subversionRevision.addDocument(
+                                    new SubversionDocument(
+                                            svnLogEntryPath,
+                                            subversionRevision,
+                                            mirroredEntry.getSize(),
+                                            toFilter.contentToBeFiltered()
+                                                    ? toFilter.getReason().get()
+                                                    : mirroredEntry.getContent()
+                                    )
+                            );
+                            continue;
+                        }
+                        SubversionDocument document;
+                        try {
+                            // A merge touching the svn:mergeinfo of many files does not change their text
+                            if (skipPropertyChanges && !toFilter.contentToBeFiltered()
+                                    && !contents.containsKey(svnLogEntryPath.getPath())
+                                    && isPropertyChange(repository, svnLogEntryPath, logEntry.getRevision(), parameters)) {
+                                SVNDirEntry dirEntry = info(repository, svnLogEntryPath.getPath(),
+                                        logEntry.getRevision(), parameters);
+                                document = new SubversionDocument(svnLogEntryPath, subversionRevision,
+                                        dirEntry == null ? 0L : dirEntry.getSize(), null);
+                                document.setTextUnchanged();
+                                subversionRevision.addDocument(document);
+                                failuresInARow = 0;
+                                continue;
+                            }
+                            document = new SubversionDocument(
                                     svnLogEntryPath,
                                     repository,
                                     logEntry.getRevision(),
                                     subversionRevision,
-                                    toFilter
-                            )
-                    );
+                                    toFilter,
+                                    parameters,
+                                    Optional.fromNullable(contents.get(svnLogEntryPath.getPath()))
+                            );
+                            failuresInARow = 0;
+                        } catch (SVNCancelException e) {
+                            throw e;
+                        } catch (SVNException e) {
+                            if (++failuresInARow > MAX_FAILURES_IN_A_ROW) {
+                                throw e;
+                            }
+                            quarantine(subversionRevision, svnLogEntryPath, e);
+                            continue;
+                        }
+                        subversionRevision.addDocument(document);
+                        if (mirror != null && !document.isPending()
+                                && (svnLogEntryPath.getType() == 'A' || svnLogEntryPath.getType() == 'M')) {
+                            mirrorEntry(mirror, document, toFilter.contentToBeFiltered());
+                        }
+                    }
                 }
+                result.add(subversionRevision);
+                if (!withinBudget(budget, subversionRevision, parameters)) {
+                    break;
+                }
+            }
+        } catch (SVNCancelException e) {
+            Thread.currentThread().interrupt();
+            logger.info("Retrieval of revisions of {}{} interrupted after [{}] revisions",
+                    reposAsURL, path, result.size());
+            return result;
+        } finally {
+            if (deltaRepository != null) {
+                deltaRepository.closeSession();
             }
-            result.add(subversionRevision);
         }
         logger.info("Retrieved revisions of {}{} from [{}] to [{}] : [{}] revisions",
                 reposAsURL, path, start, end, result.size());
         return result;
     }
 
+    /**
+     * Get the revisions in the range of the parameters, reading the files of a local FSFS repository
+     *
+     * @param reposAsURL URL to the repository, its root
+     * @param parameters the parameters passed to the crawler
+     * @param repository the path of the repository, as in the documents crawled from it
+     * @return the revisions, or null if the files cannot be read, for SVNKit to take over
+     * @throws URISyntaxException
+     */
+    private static List<SubversionRevision> retrieveLocalRevisions(URL reposAsURL,
+                                                                   Parameters parameters,
+                                                                   String repository,
+                                                                   MemoryBudget budget,
+                                                                   RevisionBitmap indexedRevisions)
+            throws URISyntaxException {
+        List<SubversionRevision> result = Lists.newArrayList();
+        String path = parameters.getPath().get();
+        FsfsReader reader = null;
+        try {
+            reader = FsfsReader.open(new File(reposAsURL.toURI()));
+            if (reader == null) {
+                return null;
+            }
+            // The files are those of the repository root
+            String subtreePath = getSubtreePath("/", path);
+            long start = parameters.getStartRevision().get();
+            long end = Math.min(parameters.getEndRevision().or(Long.MAX_VALUE), reader.getYoungestRevision());
+            logger.info("Reading revisions of {}{} from [{}] to [{}] from the repository files",
+                    reposAsURL, path, start, end);
+            for (long revision = start; revision <= end; revision++) {
+                // The river is closing : the revisions retrieved so far are complete
+                if (Thread.currentThread().isInterrupted()) {
+                    logger.info("Retrieval of revisions of {}{} interrupted after [{}] revisions",
+                            reposAsURL, path, result.size());
+                    return result;
+                }
+                boolean indexed = indexedRevisions != null && indexedRevisions.contains(revision);
+                SubversionRevision subversionRevision = getLocalRevision(reader, revision, repository, subtreePath,
+                        parameters, indexed);
+                if (subversionRevision != null) {
+                    result.add(subversionRevision);
+                    if (!withinBudget(budget, subversionRevision, parameters)) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("failed to read the files of {}, falling back to SVNKit", e, reposAsURL);
+            return null;
+        } catch (SVNException e) {
+            logger.warn("failed to read the files of {}, falling back to SVNKit", e, reposAsURL);
+            return null;
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+        logger.info("Retrieved revisions of {}{} from [{}] to [{}] : [{}] revisions",
+                reposAsURL, path, parameters.getStartRevision().get(), parameters.getEndRevision().orNull(),
+                result.size());
+        return result;
+    }
+
+    /**
+     * @param path the path crawled, relative to the repository root
+     * @param indexed true if the revision is already indexed, to be read without its documents
+     * @return the revision, or null if it did not change anything within the path
+     */
+    private static SubversionRevision getLocalRevision(FsfsReader reader,
+                                                       long revision,
+                                                       String repository,
+                                                       String path,
+                                                       Parameters parameters,
+                                                       boolean indexed)
+            throws IOException, SVNException {
+        Map<String, SVNLogEntryPath> changedPaths = Maps.newLinkedHashMap();
+        Map<String, FsfsReader.Change> changes = Maps.newHashMap();
+        for (FsfsReader.Change change : reader.getChanges(revision)) {
+            SVNNodeKind kind = SVNNodeKind.UNKNOWN;
+            if (change.getType() != 'D') {
+                String nodeKind = reader.getKind(change);
+                kind = "file".equals(nodeKind) ? SVNNodeKind.FILE
+                        : "dir".equals(nodeKind) ? SVNNodeKind.DIR
+                        : SVNNodeKind.UNKNOWN;
+            }
+            changedPaths.put(change.getPath(), new SVNLogEntryPath(change.getPath(),
+                    change.getType(),
+                    change.getCopyFromPath(),
+                    change.getCopyFromRevision(),
+                    kind));
+            changes.put(change.getPath(), change);
+        }
+        Map<String, String> properties = reader.getRevisionProperties(revision);
+        String date = properties.get(SVNRevisionProperty.DATE);
+        SVNLogEntry logEntry = new SVNLogEntry(changedPaths,
+                revision,
+                properties.get(SVNRevisionProperty.AUTHOR),
+                date == null ? null : SVNDate.parseDate(date),
+                properties.get(SVNRevisionProperty.LOG));
+        // As with the log of the path, only the revisions changing the subtree
+        Map<String, SVNLogEntryPath> subtreePaths = getChangedPaths(logEntry, path);
+        if (subtreePaths.isEmpty()) {
+            return null;
+        }
+        SubversionRevision subversionRevision = new SubversionRevision(logEntry, repository);
+        if (indexed) {
+            subversionRevision.setIndexed();
+            return subversionRevision;
+        }
+        for (SVNLogEntryPath entryPath : subtreePaths.values()) {
+            FsfsReader.Change change = changes.get(entryPath.getPath());
+            boolean isFile = entryPath.getKind() == SVNNodeKind.FILE
+                    && (entryPath.getType() == 'A' || entryPath.getType() == 'M');
+            long size = isFile ? reader.getSize(change) : 0L;
+            LogEntryFilter toFilter = checkLogEntryPath(parameters, null, revision, entryPath, size);
+            if (toFilter.crawlingToBePrevented()) {
+                continue;
+            }
+            String content = null;
+            boolean textUnchanged = parameters.getSkipPropertyChanges().get() && isFile
+                    && entryPath.getType() == 'M' && !change.isTextModified();
+            if (toFilter.contentToBeFiltered()) {
+                content = toFilter.getReason().get();
+            } else if (textUnchanged) {
+                SubversionDocument document = new SubversionDocument(entryPath, subversionRevision, size, null);
+                document.setTextUnchanged();
+                subversionRevision.addDocument(document);
+                continue;
+            } else if (isFile) {
+                String mimeType = reader.getProperties(change).get(SVNProperty.MIME_TYPE);
+                String guessedMimeType = guessMimeType(mimeType, entryPath.getPath());
+                // Binaries without extractor are not worth rebuilding
+                if (guessedMimeType != null && !SVNProperty.isTextMimeType(guessedMimeType)
+                        && !hasContentExtractor(guessedMimeType, entryPath.getPath(), parameters)) {
+                    content = NOT_TEXT_TYPE;
+                } else {
+                    content = extractContent(reader.getText(change), mimeType, entryPath.getPath(), parameters);
+                }
+            }
+            subversionRevision.addDocument(new SubversionDocument(entryPath, subversionRevision, size, content));
+        }
+        return subversionRevision;
+    }
+
+    /**
+     * A directory is only modified by a change of its properties, like the svn:mergeinfo
+     * set on the root of a merge : the files modified along may have no change of their text.
+     * Paths of an unknown kind may be directories.
+     *
+     * @param changedPaths the changed paths of a revision, in the whole repository
+     * @return true if a directory, or a path of unknown kind, is modified
+     */
+    static boolean hasDirectoryModification(Collection<SVNLogEntryPath> changedPaths) {
+        for (SVNLogEntryPath entryPath : changedPaths) {
+            if (entryPath.getType() == 'M' && entryPath.getKind() != SVNNodeKind.FILE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the modification of a file only changed its properties, like the svn:mergeinfo
+     * set by a merge : its text then has the same checksum as in the previous revision.
+     * It costs the properties of both revisions, instead of the download of the file.
+     *
+     * @param repository the repository
+     * @param entryPath the changed path
+     * @param revision the revision of the change
+     * @param parameters the parameters passed to the crawler
+     * @return true if the text of the file is unchanged, false if it changed, or cannot be told
+     */
+    static boolean isPropertyChange(SVNRepository repository,
+                                    SVNLogEntryPath entryPath,
+                                    long revision,
+                                    Parameters parameters) {
+        // Copied along with a parent, the previous version is elsewhere
+        if (entryPath.getType() != 'M' || entryPath.getKind() == SVNNodeKind.DIR
+                || entryPath.getCopyPath() != null || revision <= 1) {
+            return false;
+        }
+        try {
+            SVNProperties properties = new SVNProperties();
+            getFile(repository, entryPath.getPath(), revision, properties, null, parameters);
+            String checksum = properties.getStringValue(SVNProperty.CHECKSUM);
+            if (checksum == null) {
+                return false;
+            }
+            SVNProperties previousProperties = new SVNProperties();
+            getFile(repository, entryPath.getPath(), revision - 1, previousProperties, null, parameters);
+            return checksum.equals(previousProperties.getStringValue(SVNProperty.CHECKSUM));
+        } catch (SVNCancelException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (SVNException e) {
+            logger.debug("Could not compare [{}@{}] with its previous version : {}",
+                    entryPath.getPath(), revision, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Account a revision retrieved in the memory budget
+     * @return false if the budget is reached, in which case the end revision of the parameters
+     * is set to the revision, for the window to stop there
+     */
+    private static boolean withinBudget(MemoryBudget budget, SubversionRevision revision, Parameters parameters) {
+        if (budget == null || budget.reserve(MemoryBudget.estimate(revision))) {
+            return true;
+        }
+        logger.warn("Memory budget reached with [{}] bytes, the window stops at revision [{}]",
+                budget.getReserved(), revision.getRevision());
+        parameters.setEndRevision(Optional.of(revision.getRevision()));
+        return false;
+    }
+
+    /**
+     * The log of a path reports every path changed by its revisions, even outside of the path :
+     * keep only those within its subtree.
+     *
+     * @param logEntry the revision
+     * @param path the path, relative to the repository root
+     * @return the changed paths of the subtree, in their order
+     */
+    static Map<String, SVNLogEntryPath> getChangedPaths(SVNLogEntry logEntry, String path) {
+        Map<String, SVNLogEntryPath> result = Maps.newLinkedHashMap();
+        for (Map.Entry<String, SVNLogEntryPath> entry : logEntry.getChangedPaths().entrySet()) {
+            if (isWithinSubtree(entry.getValue().getPath(), entry.getValue().getType(), path)) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The changed paths of the log are relative to the repository root, with a leading "/",
+     * whereas the configured path is relative to the location of the river, unless absolute.
+     *
+     * @param repository a session located at the repository of the river
+     * @param path the path crawled, as configured
+     * @param parameters the parameters passed to the crawler
+     * @return the path crawled, relative to the repository root, with a leading "/"
+     * @throws SVNException
+     */
+    public static String getSubtreePath(final SVNRepository repository, String path, Parameters parameters)
+            throws SVNException {
+        if (path.startsWith("/")) {
+            return getSubtreePath("/", path);
+        }
+        String locationPath = subtreeLocations.get(repository.getLocation().toString());
+        if (locationPath == null) {
+            locationPath = call(repository, parameters, new SVNCall<String>() {
+                @Override
+                public String call() throws SVNException {
+                    return repository.getRepositoryPath("");
+                }
+            });
+            subtreeLocations.put(repository.getLocation().toString(), locationPath);
+        }
+        return getSubtreePath(locationPath, path);
+    }
+
+    /**
+     * @param reposAsURL URL to the repository of the river
+     * @param parameters the parameters passed to the crawler (path...)
+     * @return the path crawled, relative to the repository root, with a leading "/"
+     * @throws SVNException
+     * @throws URISyntaxException
+     */
+    public static String getSubtreePath(URL reposAsURL, Parameters parameters)
+            throws SVNException, URISyntaxException {
+        SVNRepository repository = getRepository(reposAsURL, parameters);
+        try {
+            return getSubtreePath(repository, parameters.getPath().get(), parameters);
+        } finally {
+            repository.closeSession();
+        }
+    }
+
+    /**
+     * @param locationPath the path of the location, relative to the repository root
+     * @param path the path crawled, relative to the location, or to the root if absolute
+     * @return the path crawled, relative to the repository root, with a leading "/"
+     */
+    static String getSubtreePath(String locationPath, String path) {
+        String subtreePath = path.startsWith("/") ? path : locationPath.replaceAll("/+$", "") + "/" + path;
+        subtreePath = subtreePath.replaceAll("/+$", "");
+        return subtreePath.startsWith("/") ? subtreePath : "/" + subtreePath;
+    }
+
+    /**
+     * @param changedPath a changed path of a revision
+     * @param type its type of change
+     * @param path the path crawled
+     * @return true if the path, or a path below it, was changed,
+     * or if a parent of the path was added, deleted or replaced, which changes the whole subtree
+     */
+    static boolean isWithinSubtree(String changedPath, char type, String path) {
+        String basePath = path.replaceAll("/$", "");
+        if (basePath.isEmpty() || changedPath.equals(basePath) || changedPath.startsWith(basePath + "/")) {
+            return true;
+        }
+        return type != 'M' && basePath.startsWith(changedPath.replaceAll("/$", "") + "/");
+    }
+
+    /**
+     * Leave out a changed path which keeps failing, recording it as a dead letter,
+     * rather than failing the whole range of revisions
+     */
+    private static void quarantine(SubversionRevision revision, SVNLogEntryPath entryPath, SVNException e) {
+        logger.error("Entry [{}@{}] quarantined : {}", entryPath.getPath(), revision.getRevision(), e.getMessage());
+        revision.addDeadLetter(new SubversionDeadLetter(revision.getRepository(), revision.getRevision(),
+                entryPath.getPath(), entryPath.getType(), e.getMessage()));
+    }
+
+    private static List<SVNLogEntry> getMirroredLogEntries(MirrorCache mirror, String path, long start, long end) {
+        try {
+            return mirror.getLogEntries(path, start, end);
+        } catch (IOException e) {
+            logger.warn("failed to read log entries of [{}] from mirror", e, path);
+            return null;
+        }
+    }
+
+    private static void mirrorLogEntries(MirrorCache mirror, String path, long start, long end,
+                                         Collection<?> logEntries) {
+        List<SVNLogEntry> entries = Lists.newArrayList();
+        for (Object logEntry : logEntries) {
+            entries.add((SVNLogEntry) logEntry);
+        }
+        try {
+            mirror.putLogEntries(path, start, end, entries);
+        } catch (IOException e) {
+            logger.warn("failed to mirror log entries of [{}]", e, path);
+        }
+    }
+
+    private static MirrorCache.Entry getMirroredEntry(MirrorCache mirror, String path, long revision) {
+        try {
+            return mirror.getEntry(path, revision);
+        } catch (IOException e) {
+            logger.warn("failed to read [{}@{}] from mirror", e, path, revision);
+            return null;
+        }
+    }
+
+    private static void mirrorEntry(MirrorCache mirror, SubversionDocument document, boolean contentFiltered) {
+        try {
+            // A filtered content is not kept, as the filters may change
+            mirror.putEntry(document.getFullname(), document.getRevision(), document.getSize(),
+                    contentFiltered ? null : document.getContent());
+        } catch (IOException e) {
+            logger.warn("failed to mirror [{}@{}]", e, document.getFullname(), document.getRevision());
+        }
+    }
+
+    /**
+     * Rebuild the contents of the files changed in a revision,
+     * with an update from the previous revision : the server only sends
+     * the deltas of the modified files, which are applied to their cached base texts.
+     * Modified files missing from the cache are reported as such, and sent in full,
+     * while filtered files and copied directories are reported as up to date, and not sent at all.
+     *
+     * @param repository a session located at the path
+     * @param path the path, relative to the repository root with a leading "/", as the changed paths
+     * @param logEntry the revision
+     * @param filters how each changed path is to be filtered
+     * @param baseTextCache the cache of base texts, updated along the way
+     * @param parameters the parameters passed to the crawler
+     * @return the rebuilt contents, by full path, possibly not all of them
+     */
+    private static Map<String, String> getDeltaContents(SVNRepository repository,
+                                                        String path,
+                                                        SVNLogEntry logEntry,
+                                                        Map<String, LogEntryFilter> filters,
+                                                        BaseTextCache baseTextCache,
+                                                        Parameters parameters) {
+        long revision = logEntry.getRevision();
+        String basePath = "/".equals(path) ? "" : path.replaceAll("/$", "");
+        SortedMap<String, Boolean> reports = Maps.newTreeMap();
+        try {
+            // Nothing to update from, if the path did not exist before this revision
+            if (revision <= 1 || checkPath(repository, "", revision - 1, parameters) != SVNNodeKind.DIR) {
+                return Collections.emptyMap();
+            }
+            for (Map.Entry<String, SVNLogEntryPath> entry : logEntry.getChangedPaths().entrySet()) {
+                SVNLogEntryPath entryPath = entry.getValue();
+                if (!entryPath.getPath().startsWith(basePath + "/")) {
+                    continue;
+                }
+                if (entryPath.getType() == 'D') {
+                    baseTextCache.remove(entryPath.getPath());
+                    continue;
+                }
+                String relativePath = entryPath.getPath().substring(basePath.length() + 1);
+                SVNNodeKind kind = entryPath.getKind();
+                if (kind != SVNNodeKind.FILE && kind != SVNNodeKind.DIR) {
+                    kind = checkPath(repository, relativePath, revision, parameters);
+                }
+                LogEntryFilter filter = filters.get(entry.getKey());
+                if (filter.crawlingToBePrevented() || filter.contentToBeFiltered()
+                        || (kind == SVNNodeKind.DIR && entryPath.getType() != 'M')) {
+                    // Already up to date : nothing to send, and nothing to cache
+                    reports.put(relativePath, true);
+                    baseTextCache.remove(entryPath.getPath());
+                } else if (kind == SVNNodeKind.FILE && entryPath.getType() == 'M'
+                        && baseTextCache.get(entryPath.getPath()) == null) {
+                    // Missing : send it in full
+                    reports.put(relativePath, false);
+                }
+            }
+
+            DeltaEditor editor = new DeltaEditor(path, baseTextCache, parameters);
+            update(repository, revision, reports, editor);
+            logger.debug("Rebuilt [{}] contents of revision [{}], [{}] bytes cached",
+                    editor.getContents().size(), revision, baseTextCache.size());
+            return editor.getContents();
+        } catch (SVNException e) {
+            // The contents will be fetched as usual, the next update with a new session
+            logger.warn("failed to apply the deltas of revision [{}]", e, revision);
+            repository.closeSession();
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Update from the previous revision
+     *
+     * @param repository a session located at the path
+     * @param revision the revision to update to
+     * @param reports the paths reported as up to date (true), or missing (false)
+     * @param editor the editor receiving the changes
+     * @throws SVNException
+     */
+    private static void update(SVNRepository repository,
+                               final long revision,
+                               final SortedMap<String, Boolean> reports,
+                               DeltaEditor editor) throws SVNException {
+        HostLimiter limiter = HostLimiter.of(repository);
+        limiter.acquire();
+        try {
+            repository.update(revision, null, SVNDepth.INFINITY, false, new ISVNReporterBaton() {
+                @Override
+                public void report(ISVNReporter reporter) throws SVNException {
+                    reporter.setPath("", null, revision - 1, SVNDepth.INFINITY, false);
+                    for (Map.Entry<String, Boolean> report : reports.entrySet()) {
+                        if (report.getValue()) {
+                            reporter.setPath(report.getKey(), null, revision, SVNDepth.INFINITY, false);
+                        } else {
+                            reporter.deletePath(report.getKey());
+                        }
+                    }
+                    reporter.finishReport();
+                }
+            }, editor);
+        } finally {
+            limiter.release();
+        }
+    }
+
+    /**
+     * Export the whole tree of the path at a given revision,
+     * in a single pass over one connection, rather than replaying its history.
+     * Every file is handed to the handler as soon as it is received.
+     *
+     * @param reposAsURL URL to the repository
+     * @param parameters the parameters passed to the crawler (path...)
+     * @param revision the revision to export
+     * @param handler the handler for the documents
+     * @return the number of exported documents, or -1 if the path is not a directory
+     * @throws SVNException
+     * @throws URISyntaxException
+     */
+    public static long getSnapshot(URL reposAsURL,
+                                   Parameters parameters,
+                                   final long revision,
+                                   DocumentHandler handler)
+            throws SVNException, URISyntaxException {
+        String path = parameters.getPath().get();
+        SVNRepository repository = getRepository(reposAsURL, parameters);
+        try {
+            if (checkPath(repository, path, revision, parameters) != SVNNodeKind.DIR) {
+                logger.warn("Path [{}] is not a directory at revision [{}], no snapshot possible",
+                        path, revision);
+                return -1L;
+            }
+            SnapshotEditor editor = new SnapshotEditor(path,
+                    repository.getLocation().getPath(),
+                    parameters,
+                    handler);
+            // The update is relative to the location of the repository
+            repository.setLocation(repository.getLocation().appendPath(path, false), false);
+            logger.info("Exporting snapshot of {}{} at revision [{}]", reposAsURL, path, revision);
+            HostLimiter limiter = HostLimiter.of(repository);
+            limiter.acquire();
+            try {
+                repository.update(revision, null, SVNDepth.INFINITY, false, new ISVNReporterBaton() {
+                    @Override
+                    public void report(ISVNReporter reporter) throws SVNException {
+                        // We have nothing yet, send us everything
+                        reporter.setPath("", null, revision, SVNDepth.INFINITY, true);
+                        reporter.finishReport();
+                    }
+                }, editor);
+            } finally {
+                limiter.release();
+            }
+            return editor.getCount();
+        } finally {
+            repository.closeSession();
+        }
+    }
+
+    /**
+     * Read the revisions of a dump file, as written by "svnadmin dump" or "svnrdump dump",
+     * and hand them over one at a time, without any request to the repository.
+     * The texts dumped as deltas ("--deltas") are not applied, their documents get no content.
+     * @param dumpFile the dump file, gzipped if its name ends with ".gz"
+     * @param repository the path of the repository, as in the documents crawled from it
+     * @param parameters the parameters passed to the crawler (path, filters, size...)
+     * @param handler the handler for the revisions
+     * @return the last revision read, or -1 if the dump has no revision
+     * @throws IOException if the dump is unreadable
+     */
+    public static long getDumpRevisions(File dumpFile,
+                                        String repository,
+                                        Parameters parameters,
+                                        RevisionHandler handler)
+            throws IOException {
+        // Without a session, the repository is taken as the repository root
+        return getDumpRevisions(dumpFile, repository, getSubtreePath("/", parameters.getPath().get()),
+                parameters, handler);
+    }
+
+    /**
+     * @param subtreePath the path crawled, relative to the repository root, as the paths of the dump
+     * @see #getDumpRevisions(File, String, Parameters, RevisionHandler)
+     */
+    public static long getDumpRevisions(File dumpFile,
+                                        String repository,
+                                        String subtreePath,
+                                        Parameters parameters,
+                                        RevisionHandler handler)
+            throws IOException {
+        return getDumpRevisions(dumpFile, repository, subtreePath, null, Long.MAX_VALUE, parameters, handler);
+    }
+
+    /**
+     * @param repositoryUUID the UUID of the repository, which the dump must have if it has one, null not to check it
+     * @param headRevision the HEAD revision of the repository, the revisions of the dump past it are left out
+     * @return the last revision read, or -1 if the dump has no revision or is from another repository
+     * @see #getDumpRevisions(File, String, Parameters, RevisionHandler)
+     */
+    public static long getDumpRevisions(File dumpFile,
+                                        String repository,
+                                        String subtreePath,
+                                        String repositoryUUID,
+                                        long headRevision,
+                                        Parameters parameters,
+                                        RevisionHandler handler)
+            throws IOException {
+        String path = subtreePath;
+        long lastRevision = -1L;
+        InputStream in = new FileInputStream(dumpFile);
+        if (dumpFile.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 65536);
+        }
+        DumpReader reader = new DumpReader(in, parameters.getMaximumFileSize().or(0L));
+        try {
+            logger.info("Reading revisions of {} from dump [{}]", path, dumpFile);
+            DumpReader.Revision dumpRevision;
+            while ((dumpRevision = reader.next()) != null) {
+                // The river is closing : the revisions handled so far are complete
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                // The UUID record comes before the first revision
+                if (repositoryUUID != null && reader.getUUID() != null && !repositoryUUID.equals(reader.getUUID())) {
+                    logger.warn("Dump [{}] is of repository [{}], not [{}]", dumpFile, reader.getUUID(), repositoryUUID);
+                    return -1L;
+                }
+                if (dumpRevision.getNumber() > headRevision) {
+                    logger.warn("Dump [{}] goes past revision [{}] of the repository, left out from [{}]",
+                            dumpFile, headRevision, dumpRevision.getNumber());
+                    break;
+                }
+                if (dumpRevision.getNumber() > 0) {
+                    handler.handle(getDumpRevision(dumpRevision, repository, path, parameters));
+                }
+                lastRevision = dumpRevision.getNumber();
+            }
+        } finally {
+            reader.close();
+        }
+        return lastRevision;
+    }
+
+    static SubversionRevision getDumpRevision(DumpReader.Revision dumpRevision,
+                                              String repository,
+                                              String path,
+                                              Parameters parameters) {
+        Map<String, String> properties = dumpRevision.getProperties();
+        String date = properties.get(SVNRevisionProperty.DATE);
+        Map<String, SVNLogEntryPath> changedPaths = Maps.newLinkedHashMap();
+        Map<String, DumpReader.Node> nodes = Maps.newHashMap();
+        for (DumpReader.Node node : dumpRevision.getNodes()) {
+            String nodePath = "/" + node.getPath();
+            if (!isWithinSubtree(nodePath, node.getType(), path)) {
+                continue;
+            }
+            SVNNodeKind kind = "file".equals(node.getKind()) ? SVNNodeKind.FILE
+                    : "dir".equals(node.getKind()) ? SVNNodeKind.DIR
+                    : SVNNodeKind.UNKNOWN;
+            // A replaced path appears as a deletion followed by an addition
+            SVNLogEntryPath previous = changedPaths.get(nodePath);
+            char type = previous != null && previous.getType() == 'D' ? 'R' : node.getType();
+            changedPaths.put(nodePath, new SVNLogEntryPath(nodePath, type,
+                    node.getCopyFromPath() == null ? null : "/" + node.getCopyFromPath(),
+                    node.getCopyFromRevision(), kind));
+            nodes.put(nodePath, node);
+        }
+        SVNLogEntry logEntry = new SVNLogEntry(changedPaths,
+                dumpRevision.getNumber(),
+                properties.get(SVNRevisionProperty.AUTHOR),
+                date == null ? null : SVNDate.parseDate(date),
+                properties.get(SVNRevisionProperty.LOG));
+        SubversionRevision subversionRevision = new SubversionRevision(logEntry, repository);
+
+        nextPath:
+        for (SVNLogEntryPath entryPath : changedPaths.values()) {
+            for (Pattern pattern : parameters.getPatternsToFilter()) {
+                if (pattern.matcher(entryPath.getPath()).matches()) {
+                    logger.warn("Entry [{}] filtered out : [matches [{}]]", entryPath.getPath(), pattern);
+                    continue nextPath;
+                }
+            }
+            DumpReader.Node node = nodes.get(entryPath.getPath());
+            long size = Math.max(0L, node.getTextLength());
+            subversionRevision.addDocument(new SubversionDocument(entryPath,
+                    subversionRevision,
+                    size,
+                    getDumpContent(node, entryPath.getPath(), parameters)));
+        }
+        return subversionRevision;
+    }
+
+    /**
+     * @return the text content of a file of a dump, or null if its text is not part of the dump
+     */
+    private static String getDumpContent(DumpReader.Node node, String path, Parameters parameters) {
+        if (node.getTextLength() < 0 || node.isTextDelta()) {
+            return null;
+        }
+        if (node.getText() == null) {
+            return "size too big [" + node.getTextLength() + "]";
+        }
+        String mimeType = node.getProperties() == null ? null : node.getProperties().get(SVNProperty.MIME_TYPE);
+        return extractContent(node.getText(), mimeType, path, parameters);
+    }
+
+    /**
+     * Turn the raw content of a file read locally into text
+     *
+     * @return the text content, "Not text type" for binaries, or null if the extraction failed
+     */
+    private static String extractContent(byte[] text, String svnMimeType, String path, Parameters parameters) {
+        SniffingOutputStream outputStream = ContentDecoder.getBuffer(svnMimeType == null);
+        try {
+            outputStream.write(text, 0, text.length);
+            return extractContent(outputStream, svnMimeType, path, text.length, parameters);
+        } catch (IOException e) {
+            logger.warn("failed to extract content of [{}]", e, path);
+            return null;
+        }
+    }
+
     /**
      * Attempt to get a sensible end revision, ie. the youngest revision in the range
      * where the path exists
@@ -201,20 +1373,28 @@ public class SubversionCrawler {
      * @return a sensible end revision, or an invalid (<0) one if none found
      * @throws SVNException
      */
-    private static Long sanitizeEndRevision(SVNRepository repository,
+    private static Long sanitizeEndRevision(final SVNRepository repository,
                                             String path,
                                             Parameters parameters)
             throws SVNException {
-        Long result = parameters.getEndRevision().isPresent() ?
-                parameters.getEndRevision().get() // end crawl at end revision...
-                : repository.getLatestRevision();
+        Long result;
+        if (parameters.getEndRevision().isPresent()) {
+            result = parameters.getEndRevision().get(); // end crawl at end revision...
+        } else {
+            result = call(repository, parameters, new SVNCall<Long>() {
+                @Override
+                public Long call() throws SVNException {
+                    return repository.getLatestRevision();
+                }
+            });
+        }
         // If path is the repository root, exit immediately, no need to test further
         if ("/".equalsIgnoreCase(path)) {
             return result;
         }
         // Ensure that the path exists at this end revision,
         // reducing the range to index if necessary.
-        SVNDirEntry entry = repository.info(path, result);
+        SVNDirEntry entry = info(repository, path, result, parameters);
         // If entry is not null, it's okay, we have confirmation that
         // the path exists at the specified revision, let's roll
         if (entry != null) {
@@ -228,7 +1408,8 @@ public class SubversionCrawler {
             return getLastValidRevision(repository,
                     path,
                     parameters.getStartRevision().get(),
-                    result);
+                    result,
+                    parameters);
         }
     }
 
@@ -240,13 +1421,15 @@ public class SubversionCrawler {
      * @param path the path to look for
      * @param startRevision  the oldest revision
      * @param endRevision  the youngest revision
+     * @param parameters the parameters passed to the crawler (retries)
      * @return a revision where the path exists, or an invalid one (<0) if none found
      * @throws SVNException
      */
     private static Long getLastValidRevision(SVNRepository repository,
                                              String path,
                                              Long startRevision,
-                                             Long endRevision)
+                                             Long endRevision,
+                                             Parameters parameters)
             throws SVNException {
         Long result = -1L;
         Long revision = endRevision;
@@ -257,7 +1440,7 @@ public class SubversionCrawler {
         }
         // Iterate backward through the revisions to find one when the path existed
         while (revision >= startRevision) {
-            SVNDirEntry entry = repository.info(path, revision);
+            SVNDirEntry entry = info(repository, path, revision, parameters);
             if (entry != null) {
                 result = revision;
                 break;
@@ -273,13 +1456,15 @@ public class SubversionCrawler {
      * @param repository the repository initialized before
      * @param revision the revision to consider
      * @param svnLogEntryPath the entry to test
+     * @param knownSize the size of the entry, if already known, else it is asked for
      * @return LogEntryFilter whether or not, and how, the entry is to be filtered out
      * @throws SVNException
      */
     private static LogEntryFilter checkLogEntryPath(Parameters parameters,
                                              SVNRepository repository,
                                              Long revision,
-                                             SVNLogEntryPath svnLogEntryPath)
+                                             SVNLogEntryPath svnLogEntryPath,
+                                             Long knownSize)
             throws SVNException {
         LogEntryFilter result;
         // Check the patterns
@@ -297,12 +1482,14 @@ public class SubversionCrawler {
         if(parameters.getMaximumFileSize().isPresent()) {
             if (svnLogEntryPath.getType() == 'A'
                     || svnLogEntryPath.getType() == 'M') {
-                SVNDirEntry dirEntry = repository.info(
+                long size = knownSize != null ? knownSize : info(
+                        repository,
                         svnLogEntryPath.getPath(),
-                        revision
-                );
-                if( dirEntry.getSize() > parameters.getMaximumFileSize().get() ) {
-                    result = new LogEntryFilter(true,false,"size too big ["+dirEntry.getSize()+"]");
+                        revision,
+                        parameters
+                ).getSize();
+                if( size > parameters.getMaximumFileSize().get() ) {
+                    result = new LogEntryFilter(true,false,"size too big ["+size+"]");
                     logger.warn("Entry [{}] filtered out : [{}] ",
                             svnLogEntryPath.getPath(),
                             result.getReason().get());
@@ -313,16 +1500,29 @@ public class SubversionCrawler {
         return new LogEntryFilter(false, false, null);
     }
 
+    /**
+     * Get the SVNEntry file content, with the default parameters
+     *
+     * @param entry      the SVNEntry
+     * @param repository the repository containing the entry
+     * @return the text content of the file, or null if not a file
+     * @throws SVNException if the file could not be retrieved
+     */
+    public static String getContent(SVNDirEntry entry, SVNRepository repository) throws SVNException {
+        return getContent(entry, repository, new Parameters.ParametersBuilder().create());
+    }
+
     /**
      * Get the SVNEntry file content
      *
      * @param entry      the SVNEntry
      * @param repository the repository containing the entry
-     * @return the text content of the file, or null if exception or not a file
+     * @param parameters the parameters passed to the crawler (content extractors)
+     * @return the text content of the file, or null if not a file
+     * @throws SVNException if the file could not be retrieved
      */
-    // TODO: Sanitize this method, properly escape the content, check on encoding, visibility...
-    public static String getContent(SVNDirEntry entry, SVNRepository repository) {
-        String content;
+    public static String getContent(SVNDirEntry entry, SVNRepository repository, Parameters parameters)
+            throws SVNException {
         // Only applies to files
         if (entry.getKind() != SVNNodeKind.FILE) {
             return null;
@@ -333,33 +1533,193 @@ public class SubversionCrawler {
                 entry.getRepositoryRoot().toString(),
                 "");
 
+        return getContent(path, entry.getRevision(), entry.getSize(), repository, parameters);
+    }
+
+    /**
+     * Get the content of a file at a given revision
+     *
+     * @param path       the file path, relative to the repository root
+     * @param revision   the revision of the file
+     * @param repository the repository containing the file
+     * @param parameters the parameters passed to the crawler (content extractors)
+     * @return the text content of the file, or null if not a file
+     * @throws SVNException if the file could not be retrieved
+     */
+    public static String getContent(String path, long revision, SVNRepository repository, Parameters parameters)
+            throws SVNException {
+        SVNDirEntry entry = info(repository, path, revision, parameters);
+        // if there is no entry, file simply does not exist
+        if (entry == null || entry.getKind() != SVNNodeKind.FILE) {
+            return null;
+        }
+        return getContent(path, revision, entry.getSize(), repository, parameters);
+    }
+
+    // TODO: Sanitize this method, properly escape the content, visibility...
+    private static String getContent(String path,
+                                     long revision,
+                                     long size,
+                                     SVNRepository repository,
+                                     Parameters parameters) throws SVNException {
+        String content;
         SVNProperties fileProperties = new SVNProperties();
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
         try {
-            SVNNodeKind kind = repository.checkPath(path, entry.getRevision());
-            // if the kind is "none", file simply does not exist
-            if (!kind.equals(SVNNodeKind.FILE)) {
-                return null;
+            // For big files, only get the properties first,
+            // to avoid downloading binaries for nothing.
+            // For small ones, the extra request would cost more than the download.
+            String mimeType = null;
+            if (size > SniffingOutputStream.SNIFF_LENGTH) {
+                getFile(repository, path, revision, fileProperties, null, parameters);
+                mimeType = guessMimeType(fileProperties.getStringValue(SVNProperty.MIME_TYPE), path);
+                if (!SVNProperty.isTextMimeType(mimeType)
+                        && getContentExtractor(mimeType, path, size, parameters) == null) {
+                    logger.debug("Entry [{}@{}] skipped, binary of type [{}]", path, revision, mimeType);
+                    return NOT_TEXT_TYPE;
+                }
+                fileProperties = new SVNProperties();
             }
-            repository.getFile(path, entry.getRevision(), fileProperties, outputStream);
-            String mimeType = fileProperties.getStringValue(SVNProperty.MIME_TYPE);
-            boolean isTextType = SVNProperty.isTextMimeType(mimeType);
-            if (isTextType) {
-                content = outputStream.toString(Charsets.UTF_8.name());
-            } else {
-                content = "Not text type";
+
+            // Sniff the content only if there is no hint on its type
+            SniffingOutputStream outputStream = ContentDecoder.getBuffer(mimeType == null);
+            if (size > SniffingOutputStream.SNIFF_LENGTH && mimeType == null) {
+                // Known to have no svn:mime-type : a sniffed binary will not be extracted
+                outputStream.abortOnBinary();
             }
+            getFile(repository, path, revision, fileProperties, outputStream, parameters);
+            content = extractContent(outputStream,
+                    fileProperties.getStringValue(SVNProperty.MIME_TYPE),
+                    path,
+                    size,
+                    parameters);
 
-        } catch (SVNException e) {
-            e.printStackTrace();
-            return null;
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            logger.warn("Entry [{}@{}] content could not be extracted", e, path, revision);
             return null;
         }
 
         return content;
     }
 
+    private static void getFile(final SVNRepository repository,
+                                final String path,
+                                final long revision,
+                                final SVNProperties fileProperties,
+                                final SniffingOutputStream outputStream,
+                                Parameters parameters) throws SVNException {
+        call(repository, parameters, new SVNCall<Long>() {
+            @Override
+            public Long call() throws SVNException {
+                // What was received before a failure is received again
+                if (outputStream != null) {
+                    outputStream.restart();
+                }
+                try {
+                    return repository.getFile(path, revision, fileProperties, outputStream);
+                } catch (SniffingOutputStream.BinaryContentException e) {
+                    return abortFile(repository, path, revision);
+                } catch (SVNException e) {
+                    // Possibly wrapped by the transfer
+                    if (outputStream != null && outputStream.isAborted()) {
+                        return abortFile(repository, path, revision);
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private static long abortFile(SVNRepository repository, String path, long revision) {
+        logger.debug("Entry [{}@{}] transfer aborted, sniffed as binary", path, revision);
+        // The rest of the file may still be on its way
+        repository.closeSession();
+        return -1L;
+    }
+
+    /**
+     * Turn the raw content of a file into text
+     *
+     * @param outputStream the raw content
+     * @param svnMimeType the svn:mime-type of the file, if any
+     * @param path the path of the file
+     * @param size the size of the file
+     * @param parameters the parameters passed to the crawler (content extractors)
+     * @return the text content, or "Not text type" for binaries
+     * @throws IOException
+     */
+    static String extractContent(SniffingOutputStream outputStream,
+                                 String svnMimeType,
+                                 String path,
+                                 long size,
+                                 Parameters parameters) throws IOException {
+        String mimeType = guessMimeType(svnMimeType, path);
+        boolean isTextType = (mimeType == null) ?
+                !outputStream.isBinary()
+                : SVNProperty.isTextMimeType(mimeType);
+        if (isTextType) {
+            return ContentDecoder.decode(outputStream, svnMimeType, parameters.getFallbackCharset().get());
+        }
+        // Sniffed binaries are discarded, so only known types can be extracted
+        ContentExtractor extractor = (mimeType == null) ?
+                null
+                : getContentExtractor(mimeType, path, size, parameters);
+        if (extractor != null) {
+            return extractor.extract(outputStream.toInputStream(), mimeType, path);
+        }
+        return NOT_TEXT_TYPE;
+    }
+
+    /**
+     * Guess the mime type of a file lacking the svn:mime-type property,
+     * from the extension of well known binary formats, for the content extractors to recognize them.
+     *
+     * @param mimeType the svn:mime-type property, if any
+     * @param path the path of the file
+     * @return the mime type, or null if unknown
+     */
+    static String guessMimeType(String mimeType, String path) {
+        if (mimeType != null) {
+            return mimeType;
+        }
+        int dot = path.lastIndexOf('.');
+        if (dot > path.lastIndexOf('/')) {
+            return BINARY_TYPES.get(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+        }
+        return null;
+    }
+
+    /**
+     * @return true if a content extractor accepts the file, whatever its size
+     */
+    static boolean hasContentExtractor(String mimeType, String path, Parameters parameters) {
+        for (ContentExtractor extractor : parameters.getContentExtractors()) {
+            if (extractor.accepts(mimeType, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find a content extractor for a binary file, within the size budget
+     *
+     * @return the first accepting extractor, or null if none
+     */
+    private static ContentExtractor getContentExtractor(String mimeType,
+                                                        String path,
+                                                        long size,
+                                                        Parameters parameters) {
+        if (parameters.getExtractorSizeBudget().isPresent()
+                && size > parameters.getExtractorSizeBudget().get()) {
+            return null;
+        }
+        for (ContentExtractor extractor : parameters.getContentExtractors()) {
+            if (extractor.accepts(mimeType, path)) {
+                return extractor;
+            }
+        }
+        return null;
+    }
+
 }
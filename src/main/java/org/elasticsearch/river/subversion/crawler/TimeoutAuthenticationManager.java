@@ -0,0 +1,54 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.tmatesoft.svn.core.internal.wc.DefaultSVNAuthenticationManager;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.wc.SVNWCUtil;
+
+/**
+ * Authentication manager with connect and read timeouts of our own,
+ * instead of those of the Subversion configuration, if any.
+ * A timeout of 0 keeps the one of the configuration.
+ */
+public class TimeoutAuthenticationManager extends DefaultSVNAuthenticationManager {
+
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    /**
+     * @param login the login
+     * @param password the password
+     * @param connectTimeout the timeout to open a connection, in ms
+     * @param readTimeout the timeout of every read on a connection, in ms
+     */
+    public TimeoutAuthenticationManager(String login, String password, int connectTimeout, int readTimeout) {
+        super(SVNWCUtil.getDefaultConfigurationDirectory(), true, login, password);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public int getConnectTimeout(SVNRepository repository) {
+        return connectTimeout > 0 ? connectTimeout : super.getConnectTimeout(repository);
+    }
+
+    @Override
+    public int getReadTimeout(SVNRepository repository) {
+        return readTimeout > 0 ? readTimeout : super.getReadTimeout(repository);
+    }
+}
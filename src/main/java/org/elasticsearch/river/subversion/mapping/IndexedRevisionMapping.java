@@ -49,4 +49,22 @@ public class IndexedRevisionMapping {
 
         return instance;
     }
+
+    /**
+     * @return the mapping of the revisions already indexed, kept apart from the checkpoint
+     * @throws IOException
+     */
+    public static XContentBuilder getIndexedInstance() throws IOException {
+        return jsonBuilder().startObject().startObject("indexed_revisions")
+                    .startObject("properties")
+                        .startObject("repos")
+                            .field("type", "string")
+                            .field("index", "not_analyzed")
+                        .endObject()
+                        .startObject("indexed")
+                            .field("type", "binary")
+                        .endObject()
+                    .endObject()
+            .endObject().endObject();
+    }
 }
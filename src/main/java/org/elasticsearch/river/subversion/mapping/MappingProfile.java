@@ -0,0 +1,174 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.mapping;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * POJO for the options of the mappings of a river :
+ * which fields get an untouched copy, the _all field,
+ * and what is kept in the _source of the documents.
+ */
+public class MappingProfile {
+
+    public static final String FULL = "full";
+    public static final String COMPACT = "compact";
+
+    // How the documents are tied to their revision
+    public static final String FLAT = "flat";
+    public static final String CHILD = "child";
+    public static final String NESTED = "nested";
+
+    /**
+     * Fields which can have an untouched (not analyzed) copy
+     */
+    public static final Set<String> UNTOUCHABLE_FIELDS =
+            ImmutableSet.of("path", "name", "fullname", "origin", "author");
+
+    private Set<String> untouchedFields;
+    private boolean allField;
+    private boolean sourceContent;
+    private boolean compressSource;
+    private boolean documentMessage;
+    private String documentModel = FLAT;
+
+    private MappingProfile(Set<String> untouchedFields,
+                           boolean allField,
+                           boolean sourceContent,
+                           boolean compressSource,
+                           boolean documentMessage) {
+        this.untouchedFields = untouchedFields;
+        this.allField = allField;
+        this.sourceContent = sourceContent;
+        this.compressSource = compressSource;
+        this.documentMessage = documentMessage;
+    }
+
+    /**
+     * @return the historical mappings : every untouched copy, _all, and everything in _source
+     */
+    public static MappingProfile full() {
+        return new MappingProfile(UNTOUCHABLE_FIELDS, true, true, false, true);
+    }
+
+    /**
+     * @return the lean mappings : untouched full names and authors only, no _all,
+     * no content in a compressed _source, and the commit message only on revisions
+     */
+    public static MappingProfile compact() {
+        return new MappingProfile(ImmutableSet.of("fullname", "author"), false, false, true, false);
+    }
+
+    /**
+     * @param name "full" or "compact"
+     * @return the profile of that name, or null if unknown
+     */
+    public static MappingProfile forName(String name) {
+        if (FULL.equals(name)) {
+            return full();
+        }
+        if (COMPACT.equals(name)) {
+            return compact();
+        }
+        return null;
+    }
+
+    /**
+     * @param documentModel the document model from the settings
+     * @return true if the model is known
+     */
+    public static boolean isValidDocumentModel(String documentModel) {
+        return FLAT.equals(documentModel) || CHILD.equals(documentModel) || NESTED.equals(documentModel);
+    }
+
+    public Set<String> getUntouchedFields() {
+        return untouchedFields;
+    }
+
+    public MappingProfile setUntouchedFields(Set<String> untouchedFields) {
+        this.untouchedFields = ImmutableSet.copyOf(untouchedFields);
+        return this;
+    }
+
+    public boolean isUntouched(String field) {
+        return untouchedFields.contains(field);
+    }
+
+    public boolean isAllField() {
+        return allField;
+    }
+
+    public MappingProfile setAllField(boolean allField) {
+        this.allField = allField;
+        return this;
+    }
+
+    public boolean isSourceContent() {
+        return sourceContent;
+    }
+
+    public MappingProfile setSourceContent(boolean sourceContent) {
+        this.sourceContent = sourceContent;
+        return this;
+    }
+
+    public boolean isCompressSource() {
+        return compressSource;
+    }
+
+    public MappingProfile setCompressSource(boolean compressSource) {
+        this.compressSource = compressSource;
+        return this;
+    }
+
+    public boolean isDocumentMessage() {
+        return documentMessage;
+    }
+
+    public MappingProfile setDocumentMessage(boolean documentMessage) {
+        this.documentMessage = documentMessage;
+        return this;
+    }
+
+    public String getDocumentModel() {
+        return documentModel;
+    }
+
+    /**
+     * @param documentModel "flat" for standalone documents, "child" for children of their revision,
+     *                      or "nested" for nested objects of their revision
+     */
+    public MappingProfile setDocumentModel(String documentModel) {
+        this.documentModel = documentModel;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("untouchedFields", untouchedFields)
+                .add("allField", allField)
+                .add("sourceContent", sourceContent)
+                .add("compressSource", compressSource)
+                .add("documentMessage", documentMessage)
+                .add("documentModel", documentModel)
+                .toString();
+    }
+}
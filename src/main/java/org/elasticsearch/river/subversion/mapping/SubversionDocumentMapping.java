@@ -18,6 +18,7 @@ package org.elasticsearch.river.subversion.mapping;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.river.subversion.type.SubversionDocument;
+import org.elasticsearch.river.subversion.type.SubversionRevision;
 
 import java.io.IOException;
 
@@ -33,112 +34,126 @@ public class SubversionDocumentMapping {
 
     public static XContentBuilder getInstance() throws IOException {
         if( instance == null) {
-            instance = jsonBuilder().startObject()
-                        .startObject(SubversionDocument.TYPE_NAME)
-                            .startObject("properties")
-                                .startObject("path")
-                                    .field("type", "multi_field")
-                                    .startObject("fields")
-                                        .startObject("path")
-                                            .field("type", "string")
-                                            .field("index", "analyzed")
-                                        .endObject()
-                                        .startObject("untouched")
-                                            .field("type", "string")
-                                            .field("index", "not_analyzed")
-                                        .endObject()
-                                    .endObject()
-                                .endObject()
-                                .startObject("name")
-                                    .field("type", "multi_field")
-                                    .startObject("fields")
-                                        .startObject("name")
-                                            .field("type", "string")
-                                            .field("index", "analyzed")
-                                        .endObject()
-                                        .startObject("untouched")
-                                            .field("type", "string")
-                                            .field("index", "not_analyzed")
-                                        .endObject()
-                                    .endObject()
-                                .endObject()
-                                .startObject("fullname")
-                                    .field("type", "multi_field")
-                                    .startObject("fields")
-                                        .startObject("fullname")
-                                            .field("type", "string")
-                                            .field("index", "analyzed")
-                                        .endObject()
-                                        .startObject("untouched")
-                                            .field("type", "string")
-                                            .field("index", "not_analyzed")
-                                        .endObject()
-                                    .endObject()
-                                .endObject()
-                                .startObject("size")
-                                    .field("type", "integer")
-                                    .field("index", "not_analyzed")
-                                .endObject()
-                                .startObject("change")
-                                    .field("type", "string")
-                                    .field("index", "not_analyzed")
-                                .endObject()
-                                .startObject("content")
-                                    .field("type", "string")
-                                    .field("index", "analyzed")
-                                .endObject()
-                                .startObject("from")
-                                    .field("type", "long")
-                                    .field("index", "not_analyzed")
-                                .endObject()
-                                .startObject("origin")
-                                    .field("type", "multi_field")
-                                    .startObject("fields")
-                                        .startObject("origin")
-                                            .field("type", "string")
-                                            .field("index", "analyzed")
-                                        .endObject()
-                                        .startObject("untouched")
-                                            .field("type", "string")
-                                            .field("index", "not_analyzed")
-                                        .endObject()
-                                    .endObject()
-                                .endObject()
-                                .startObject("author")
-                                    .field("type", "multi_field")
-                                    .startObject("fields")
-                                        .startObject("author")
-                                            .field("type", "string")
-                                            .field("index", "analyzed")
-                                        .endObject()
-                                        .startObject("untouched")
-                                            .field("type", "string")
-                                            .field("index", "not_analyzed")
-                                        .endObject()
-                                    .endObject()
-                                .endObject()
-                                .startObject("repository")
-                                    .field("type", "string")
-                                    .field("index", "not_analyzed")
-                                .endObject()
-                                .startObject("revision")
-                                    .field("type", "long")
-                                    .field("index", "not_analyzed")
-                                .endObject()
-                                .startObject("date")
-                                    .field("type", "date")
-                                    .field("format", "date_time")
-                                    .field("index", "analyzed")
-                                .endObject()
-                                .startObject("message")
-                                    .field("type", "string")
-                                    .field("index", "analyzed")
-                                .endObject()
-                            .endObject()
-                        .endObject()
-            .endObject();
+            instance = getInstance(MappingProfile.full());
         }
 
         return instance;
     }
+
+    /**
+     * @param profile the options of the mapping
+     * @return a new mapping following the profile
+     * @throws IOException
+     */
+    public static XContentBuilder getInstance(MappingProfile profile) throws IOException {
+        XContentBuilder mapping = jsonBuilder().startObject()
+                    .startObject(SubversionDocument.TYPE_NAME);
+        if (!profile.isAllField()) {
+            mapping.startObject("_all")
+                        .field("enabled", false)
+                    .endObject();
+        }
+        if (!profile.isSourceContent() || profile.isCompressSource()) {
+            mapping.startObject("_source");
+            if (!profile.isSourceContent()) {
+                mapping.array("excludes", "content");
+            }
+            if (profile.isCompressSource()) {
+                mapping.field("compress", true);
+            }
+            mapping.endObject();
+        }
+        boolean child = MappingProfile.CHILD.equals(profile.getDocumentModel());
+        if (child) {
+            mapping.startObject("_parent")
+                        .field("type", SubversionRevision.TYPE_NAME)
+                    .endObject();
+        }
+        mapping.startObject("properties");
+        // Children get the fields of the revision from their parent
+        documentProperties(mapping, profile, !child);
+        return mapping.endObject()
+                .endObject()
+            .endObject();
+    }
+
+    /**
+     * Add the properties of a document
+     * @param mapping the mapping, within its "properties" object
+     * @param profile the options of the mapping
+     * @param withRevisionFields false to leave out the fields of the revision
+     * @throws IOException
+     */
+    static void documentProperties(XContentBuilder mapping, MappingProfile profile, boolean withRevisionFields)
+            throws IOException {
+        stringField(mapping, "path", profile.isUntouched("path"));
+        stringField(mapping, "name", profile.isUntouched("name"));
+        stringField(mapping, "fullname", profile.isUntouched("fullname"));
+        mapping.startObject("size")
+                    .field("type", "integer")
+                    .field("index", "not_analyzed")
+                .endObject()
+                .startObject("change")
+                    .field("type", "string")
+                    .field("index", "not_analyzed")
+                .endObject()
+                .startObject("content")
+                    .field("type", "string")
+                    .field("index", "analyzed")
+                .endObject()
+                .startObject("from")
+                    .field("type", "long")
+                    .field("index", "not_analyzed")
+                .endObject();
+        stringField(mapping, "origin", profile.isUntouched("origin"));
+        mapping.startObject("repository")
+                    .field("type", "string")
+                    .field("index", "not_analyzed")
+                .endObject()
+                .startObject("revision")
+                    .field("type", "long")
+                    .field("index", "not_analyzed")
+                .endObject();
+        if (withRevisionFields) {
+            stringField(mapping, "author", profile.isUntouched("author"));
+            mapping.startObject("date")
+                        .field("type", "date")
+                        .field("format", "date_time")
+                        .field("index", "analyzed")
+                    .endObject();
+        }
+        if (withRevisionFields && profile.isDocumentMessage()) {
+            mapping.startObject("message")
+                        .field("type", "string")
+                        .field("index", "analyzed")
+                    .endObject();
+        }
+        mapping.startObject("pending")
+                    .field("type", "boolean")
+                .endObject();
+    }
+
+    /**
+     * Add an analyzed string field, with an untouched copy if asked for
+     */
+    static void stringField(XContentBuilder mapping, String name, boolean untouched) throws IOException {
+        mapping.startObject(name);
+        if (untouched) {
+            mapping.field("type", "multi_field")
+                    .startObject("fields")
+                        .startObject(name)
+                            .field("type", "string")
+                            .field("index", "analyzed")
+                        .endObject()
+                        .startObject("untouched")
+                            .field("type", "string")
+                            .field("index", "not_analyzed")
+                        .endObject()
+                    .endObject();
+        } else {
+            mapping.field("type", "string")
+                    .field("index", "analyzed");
+        }
+        mapping.endObject();
+    }
 }
@@ -33,42 +33,64 @@ public class SubversionRevisionMapping {
 
     public static XContentBuilder getInstance() throws IOException {
         if( instance == null) {
-            instance = jsonBuilder().startObject().startObject(SubversionRevision.TYPE_NAME)
-                    .startObject("properties")
-                        .startObject("author")
-                            .field("type", "multi_field")
-                            .startObject("fields")
-                                .startObject("author")
-                                    .field("type", "string")
-                                    .field("index", "analyzed")
-                                .endObject()
-                                .startObject("untouched")
-                                    .field("type", "string")
-                                    .field("index", "not_analyzed")
-                                .endObject()
-                            .endObject()
-                        .endObject()
-                        .startObject("repository")
-                            .field("type", "string")
-                            .field("index", "not_analyzed")
-                        .endObject()
-                        .startObject("revision")
-                            .field("type", "long")
-                            .field("index", "not_analyzed")
-                        .endObject()
-                        .startObject("date")
-                            .field("type", "date")
-                            .field("format", "date_time")
-                            .field("index", "analyzed")
-                        .endObject()
-                        .startObject("message")
-                            .field("type", "string")
-                            .field("index", "analyzed")
-                        .endObject()
-                    .endObject()
-            .endObject().endObject();
+            instance = getInstance(MappingProfile.full());
         }
 
         return instance;
     }
+
+    /**
+     * @param profile the options of the mapping
+     * @return a new mapping following the profile
+     * @throws IOException
+     */
+    public static XContentBuilder getInstance(MappingProfile profile) throws IOException {
+        XContentBuilder mapping = jsonBuilder().startObject().startObject(SubversionRevision.TYPE_NAME);
+        if (!profile.isAllField()) {
+            mapping.startObject("_all")
+                        .field("enabled", false)
+                    .endObject();
+        }
+        boolean nested = MappingProfile.NESTED.equals(profile.getDocumentModel());
+        if ((nested && !profile.isSourceContent()) || profile.isCompressSource()) {
+            mapping.startObject("_source");
+            if (nested && !profile.isSourceContent()) {
+                mapping.array("excludes", "documents.content");
+            }
+            if (profile.isCompressSource()) {
+                mapping.field("compress", true);
+            }
+            mapping.endObject();
+        }
+        mapping.startObject("properties");
+        SubversionDocumentMapping.stringField(mapping, "author", profile.isUntouched("author"));
+        mapping.startObject("repository")
+                    .field("type", "string")
+                    .field("index", "not_analyzed")
+                .endObject()
+                .startObject("revision")
+                    .field("type", "long")
+                    .field("index", "not_analyzed")
+                .endObject()
+                .startObject("date")
+                    .field("type", "date")
+                    .field("format", "date_time")
+                    .field("index", "analyzed")
+                .endObject()
+                .startObject("message")
+                    .field("type", "string")
+                    .field("index", "analyzed")
+                .endObject();
+        if (nested) {
+            // The documents get the fields of the revision from it
+            mapping.startObject("documents")
+                        .field("type", "nested")
+                        .startObject("properties");
+            SubversionDocumentMapping.documentProperties(mapping, profile, false);
+            mapping.endObject()
+                    .endObject();
+        }
+        return mapping.endObject()
+            .endObject().endObject();
+    }
 }
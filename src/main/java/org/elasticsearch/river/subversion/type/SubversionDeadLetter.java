@@ -0,0 +1,88 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.type;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.Expose;
+
+import java.util.Date;
+
+/**
+ * JavaBean for a changed path which could not be crawled, even after retries,
+ * and was left out of its revision, to be looked at later.
+ */
+@SuppressWarnings("unused")
+public class SubversionDeadLetter {
+
+    @Expose final String repository; // Repository of the path
+    @Expose final long revision;     // Revision of the change
+    @Expose final String path;       // Full name of the path
+    @Expose final char change;       // Type of change
+    @Expose final String error;      // Last error
+    @Expose final Date date;         // Date of the failure
+
+    public static final String TYPE_NAME = "svndeadletter";
+
+    private static transient final HashFunction hf = Hashing.md5();
+
+    public SubversionDeadLetter(String repository, long revision, String path, char change, String error) {
+        this.repository = repository;
+        this.revision = revision;
+        this.path = path;
+        this.change = change;
+        this.error = error;
+        this.date = new Date();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public String json() {
+        Gson gson = new GsonBuilder()
+                .excludeFieldsWithoutExposeAnnotation()
+                .setDateFormat(SubversionRevision.DATE_TIME_ISO8601_FORMAT)
+                .create();
+        return gson.toJson(this);
+    }
+
+    @Override
+    public String toString() {
+        return json();
+    }
+
+    /**
+     * Repository@revision plus the path identify a dead letter,
+     * so that a path failing again is only recorded once
+     * @return  a loosely constructed hashcode converted to String
+     */
+    public String id() {
+        return hf.newHasher()
+                .putUnencodedChars(repository)
+                .putLong(revision)
+                .putUnencodedChars(path)
+                .hash()
+                .toString();
+    }
+}
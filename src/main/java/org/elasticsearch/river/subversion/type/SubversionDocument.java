@@ -16,17 +16,26 @@
 
 package org.elasticsearch.river.subversion.type;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import org.elasticsearch.river.subversion.crawler.LogEntryFilter;
+import org.elasticsearch.river.subversion.crawler.Parameters;
 import org.elasticsearch.river.subversion.crawler.SubversionCrawler;
 import org.tmatesoft.svn.core.SVNDirEntry;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.io.SVNRepository;
 
 import java.util.Date;
+import java.util.Set;
 
 /**
  * JavaBean for handling JSON generation from SVNEntries
@@ -49,14 +58,40 @@ public class SubversionDocument {
     @Expose final long revision;     // revision number
     @Expose final Date date;         // Commit date
     @Expose final String message;    // Commit message
+    @Expose final Boolean pending;   // Content still to be loaded
+    boolean textUnchanged = false;   // Only the properties changed, the content was not fetched
 
     public static final String TYPE_NAME = "svndocument";
 
+    /**
+     * Fields copied from the revision, which can be left out
+     * when the document is indexed along with its revision
+     */
+    public static final Set<String> REVISION_FIELDS = ImmutableSet.of("author", "date", "message");
+
+    private static transient final HashFunction hf = Hashing.md5();
+
+    public SubversionDocument(SVNLogEntryPath entryPath,
+                              SVNRepository repository,
+                              long revisionNumber,
+                              SubversionRevision revision,
+                              LogEntryFilter toFilter,
+                              Parameters parameters)
+            throws SVNException {
+        this(entryPath, repository, revisionNumber, revision, toFilter, parameters, Optional.<String>absent());
+    }
+
+    /**
+     * @param prefetchedContent the content of the entry, if already known
+     *                          (rebuilt from a delta...), else it is fetched
+     */
     public SubversionDocument(SVNLogEntryPath entryPath,
                               SVNRepository repository,
                               long revisionNumber,
                               SubversionRevision revision,
-                              LogEntryFilter toFilter)
+                              LogEntryFilter toFilter,
+                              Parameters parameters,
+                              Optional<String> prefetchedContent)
             throws SVNException {
         this.path = entryPath.getPath().substring(0, entryPath.getPath().lastIndexOf("/"));
         this.fullname = entryPath.getPath();
@@ -73,17 +108,39 @@ public class SubversionDocument {
         // we'll be able to extract.
         // If the path was added or modified,
         // we'll get a DirEntry
-        if (change == 'A'
+        if ((change == 'A' || change == 'M')
+                && parameters.getLazyContent().get()
+                && !toFilter.contentToBeFiltered()
+                && entryPath.getKind() != null
+                && entryPath.getKind() != SVNNodeKind.UNKNOWN) {
+            // The kind is in the log : the server is only asked for the file later on,
+            // by the loader of its content, which sets its size along.
+            this.content = null;
+            this.pending = entryPath.getKind() == SVNNodeKind.FILE ? true : null;
+            this.name = entryPath.getPath().substring(entryPath.getPath().lastIndexOf("/") + 1);
+            this.size = 0;
+        } else if (change == 'A'
                 || change == 'M') {
-            SVNDirEntry dirEntry = repository.info(
+            SVNDirEntry dirEntry = SubversionCrawler.info(
+                    repository,
                     entryPath.getPath(),
-                    revisionNumber
+                    revisionNumber,
+                    parameters
             );
             // ...and init a SubversionDocument to add to the revision
             if (toFilter.contentToBeFiltered()) {
                 this.content = toFilter.getReason().get();
+                this.pending = null;
+            } else if (parameters.getLazyContent().get()) {
+                // The content of a file will be loaded later on, in the background
+                this.content = null;
+                this.pending = dirEntry.getKind() == SVNNodeKind.FILE ? true : null;
+            } else if (prefetchedContent.isPresent()) {
+                this.content = prefetchedContent.get();
+                this.pending = null;
             } else {
-                this.content = SubversionCrawler.getContent(dirEntry, repository);
+                this.content = SubversionCrawler.getContent(dirEntry, repository, parameters);
+                this.pending = null;
             }
             this.name = dirEntry.getName();
             this.size = dirEntry.getSize();
@@ -92,21 +149,187 @@ public class SubversionDocument {
             // So we can't getDir() on it,
             // and the content, size, etc are irrelevant.
             this.content = null;
+            this.pending = null;
             this.name = entryPath.getPath().substring(entryPath.getPath().lastIndexOf("/"));
             this.size = 0;
         }
     }
 
+    /**
+     * Document of an added or modified entry, whose size and content are already known,
+     * like when read from the local mirror.
+     * @param entryPath the changed path
+     * @param revision the revision of the change
+     * @param size the size of the file
+     * @param content the text content of the file
+     */
+    public SubversionDocument(SVNLogEntryPath entryPath,
+                              SubversionRevision revision,
+                              long size,
+                              String content) {
+        this.path = entryPath.getPath().substring(0, entryPath.getPath().lastIndexOf("/"));
+        this.name = entryPath.getPath().substring(entryPath.getPath().lastIndexOf("/") + 1);
+        this.fullname = entryPath.getPath();
+        this.change = entryPath.getType();
+        this.origin = entryPath.getCopyPath();
+        this.from = entryPath.getCopyRevision();
+        this.size = size;
+        this.content = content;
+        this.pending = null;
+        this.author = revision.author;
+        this.repository = revision.repository;
+        this.revision = revision.revision;
+        this.date = revision.date;
+        this.message = revision.message;
+    }
+
+    /**
+     * Document built from an already fetched content,
+     * like when exporting a whole tree.
+     * @param fullname the full path of the file
+     * @param change the type of change
+     * @param size the size of the file
+     * @param content the text content of the file
+     * @param revision the revision of the last change of the file
+     */
+    public SubversionDocument(String fullname,
+                              char change,
+                              long size,
+                              String content,
+                              SubversionRevision revision) {
+        this.path = fullname.substring(0, fullname.lastIndexOf("/"));
+        this.name = fullname.substring(fullname.lastIndexOf("/") + 1);
+        this.fullname = fullname;
+        this.change = change;
+        this.size = size;
+        this.content = content;
+        this.pending = null;
+        this.origin = null;
+        this.from = -1L;
+        this.author = revision.author;
+        this.repository = revision.repository;
+        this.revision = revision.revision;
+        this.date = revision.date;
+        this.message = revision.message;
+    }
+
+    public String getFullname() {
+        return fullname;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public char getChange() {
+        return change;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * @return true if the content of the document remains to be loaded
+     */
+    public boolean isPending() {
+        return pending != null && pending;
+    }
+
+    /**
+     * Mark a modification as changing the properties only : the content is left out,
+     * to be kept from the previous version when the document is updated in place
+     */
+    public void setTextUnchanged() {
+        this.textUnchanged = true;
+    }
+
+    public boolean isTextUnchanged() {
+        return textUnchanged;
+    }
+
     public String json() {
-        Gson gson = new GsonBuilder()
+        return json(true);
+    }
+
+    /**
+     * @param withMessage false to leave out the commit message, already indexed with the revision
+     * @return the JSON of the document
+     */
+    public String json(boolean withMessage) {
+        return json(withMessage ? ImmutableSet.<String>of() : ImmutableSet.of("message"));
+    }
+
+    /**
+     * @param excludedFields the fields to leave out, like the ones of the revision
+     * @return the JSON of the document
+     */
+    public String json(Set<String> excludedFields) {
+        return gson(excludedFields).toJson(this);
+    }
+
+    static Gson gson(final Set<String> excludedFields) {
+        GsonBuilder builder = new GsonBuilder()
                 .excludeFieldsWithoutExposeAnnotation()
-                .setDateFormat(SubversionRevision.DATE_TIME_ISO8601_FORMAT)
-                .create();
-        return gson.toJson(this);
+                .setDateFormat(SubversionRevision.DATE_TIME_ISO8601_FORMAT);
+        if (!excludedFields.isEmpty()) {
+            builder.addSerializationExclusionStrategy(new ExclusionStrategy() {
+                @Override
+                public boolean shouldSkipField(FieldAttributes f) {
+                    return f.getDeclaringClass() == SubversionDocument.class
+                            && excludedFields.contains(f.getName());
+                }
+
+                @Override
+                public boolean shouldSkipClass(Class<?> clazz) {
+                    return false;
+                }
+            });
+        }
+        return builder.create();
     }
 
     @Override
     public String toString() {
         return this.json();
     }
+
+    /**
+     * Repository@revision plus the full name should be sufficient
+     * to uniquely identify a document
+     * @return  a loosely constructed hashcode converted to String
+     */
+    public String id() {
+        return hf.newHasher()
+                .putUnencodedChars(repository)
+                .putLong(revision)
+                .putUnencodedChars(fullname)
+                .hash()
+                .toString();
+    }
+
+    /**
+     * Repository plus the full name identify a path whatever the revision,
+     * for the current_tree mode, where only the latest version of each path is kept
+     * @return  a loosely constructed hashcode converted to String
+     */
+    public String pathId() {
+        return hf.newHasher()
+                .putUnencodedChars(repository)
+                .putUnencodedChars(fullname)
+                .hash()
+                .toString();
+    }
 }
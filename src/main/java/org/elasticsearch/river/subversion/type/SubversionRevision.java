@@ -21,11 +21,14 @@ import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.google.gson.annotations.Expose;
 import org.tmatesoft.svn.core.SVNLogEntry;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Java class for handling of revisions,
@@ -36,6 +39,8 @@ public class SubversionRevision {
 
 
     List<SubversionDocument> documents;
+    List<SubversionDeadLetter> deadLetters;
+    boolean indexed = false;          // Already indexed, only its metadata was retrieved
     @Expose final String author;
     @Expose final String repository;
     @Expose final long revision;
@@ -55,6 +60,7 @@ public class SubversionRevision {
         this.date = logEntry.getDate();
         this.message = logEntry.getMessage();
         this.documents = Lists.newArrayList();
+        this.deadLetters = Lists.newArrayList();
     }
 
     public void addDocument(SubversionDocument doc) {
@@ -65,6 +71,45 @@ public class SubversionRevision {
         return documents;
     }
 
+    public void addDeadLetter(SubversionDeadLetter deadLetter) {
+        deadLetters.add(deadLetter);
+    }
+
+    /**
+     * @return the changed paths which could not be crawled
+     */
+    public List<SubversionDeadLetter> getDeadLetters() {
+        return deadLetters;
+    }
+
+    /**
+     * Mark the revision as already indexed : its documents were not retrieved,
+     * and there is nothing to index again
+     */
+    public void setIndexed() {
+        this.indexed = true;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
     public String json() {
         Gson gson = new GsonBuilder()
                 .excludeFieldsWithoutExposeAnnotation()
@@ -73,6 +118,27 @@ public class SubversionRevision {
         return gson.toJson(this);
     }
 
+    /**
+     * JSON of the revision along with its documents, as nested objects
+     * @param excludedDocumentFields the fields of the documents to leave out,
+     *                               like the ones already set on the revision
+     * @return the JSON of the revision
+     */
+    public String json(Set<String> excludedDocumentFields) {
+        Gson gson = new GsonBuilder()
+                .excludeFieldsWithoutExposeAnnotation()
+                .setDateFormat(DATE_TIME_ISO8601_FORMAT)
+                .create();
+        JsonObject revisionJson = gson.toJsonTree(this).getAsJsonObject();
+        Gson documentGson = SubversionDocument.gson(excludedDocumentFields);
+        JsonArray documentsJson = new JsonArray();
+        for (SubversionDocument document : documents) {
+            documentsJson.add(documentGson.toJsonTree(document));
+        }
+        revisionJson.add("documents", documentsJson);
+        return gson.toJson(revisionJson);
+    }
+
     @Override
     public String toString() {
         return json();
@@ -0,0 +1,69 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BulkThrottleTest {
+
+    @Test
+    public void testAdditiveIncrease() throws Exception {
+        BulkThrottle throttle = new BulkThrottle(null, 320, 4, 0, 0);
+        Assert.assertEquals(320, throttle.getBulkActions());
+        Assert.assertEquals(1, throttle.getConcurrentBulks());
+
+        // The size is at its maximum, so the concurrency grows
+        Assert.assertTrue(throttle.adapt(320, 0, 0));
+        Assert.assertTrue(throttle.adapt(320, 0, 0));
+        Assert.assertEquals(3, throttle.getConcurrentBulks());
+        for (int i = 0; i < 10; i++) {
+            throttle.adapt(320, 0, 0);
+        }
+        Assert.assertEquals(4, throttle.getConcurrentBulks());
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() throws Exception {
+        BulkThrottle throttle = new BulkThrottle(null, 320, 4, 0, 0);
+        throttle.adapt(320, 0, 0);
+        throttle.adapt(320, 0, 0);
+
+        // A rejection halves both
+        Assert.assertTrue(throttle.adapt(320, 10, 0));
+        Assert.assertEquals(160, throttle.getBulkActions());
+        Assert.assertEquals(1, throttle.getConcurrentBulks());
+
+        // Too many failures as well
+        Assert.assertTrue(throttle.adapt(160, 0, 20));
+        Assert.assertEquals(80, throttle.getBulkActions());
+
+        // And then the size grows back by steps
+        throttle.adapt(80, 0, 0);
+        Assert.assertEquals(90, throttle.getBulkActions());
+    }
+
+    @Test
+    public void testGiveUp() throws Exception {
+        BulkThrottle throttle = new BulkThrottle(null, 320, 4, 0, 0);
+        for (int i = 0; i < BulkThrottle.MAX_REJECTIONS; i++) {
+            Assert.assertTrue(throttle.adapt(10, 10, 0));
+        }
+        Assert.assertEquals(10, throttle.getBulkActions());
+        Assert.assertFalse(throttle.adapt(10, 10, 0));
+    }
+}
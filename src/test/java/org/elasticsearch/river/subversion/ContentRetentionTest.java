@@ -0,0 +1,90 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.collect.ImmutableMap;
+import org.elasticsearch.index.query.BoolFilterBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHitField;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+public class ContentRetentionTest {
+
+    private static ContentRetention getRetention(String subtreePath, long revisions, int days) {
+        ContentRetention retention = new ContentRetention(null, "svn", revisions, days, true, 1000L, 100);
+        retention.setSubtreePath(subtreePath);
+        return retention;
+    }
+
+    private static SearchHit getHit(String fullname, long revision) {
+        Map<String, SearchHitField> fields = ImmutableMap.<String, SearchHitField>of(
+                "fullname", new InternalSearchHitField("fullname", Arrays.<Object>asList(fullname)),
+                "revision", new InternalSearchHitField("revision", Arrays.<Object>asList(revision)));
+        return new InternalSearchHit(0, fullname + "@" + revision, null, fields);
+    }
+
+    @Test
+    public void testNoLimit() {
+        Assert.assertNull(getRetention("/", 0L, 0).getExpiredFilter(100L));
+    }
+
+    @Test
+    public void testRevisionLimit() {
+        ContentRetention retention = getRetention("/trunk", 10L, 0);
+        // Not enough revisions yet
+        Assert.assertNull(retention.getExpiredFilter(-1L));
+        Assert.assertNull(retention.getExpiredFilter(10L));
+        BoolFilterBuilder filter = retention.getExpiredFilter(100L);
+        Assert.assertNotNull(filter);
+        String json = filter.toString();
+        Assert.assertTrue(json, json.contains("90"));
+        Assert.assertTrue(json, json.contains("/trunk/"));
+    }
+
+    @Test
+    public void testUnknownSubtree() {
+        // Nothing is stripped before the path is resolved against the repository root
+        Assert.assertNull(new ContentRetention(null, "svn", 10L, 0, true, 1000L, 100).getExpiredFilter(100L));
+    }
+
+    @Test
+    public void testDayLimit() {
+        BoolFilterBuilder filter = getRetention("/", 0L, 30).getExpiredFilter(-1L);
+        Assert.assertNotNull(filter);
+        String json = filter.toString();
+        Assert.assertTrue(json, json.contains("now-30d"));
+        Assert.assertFalse(json, json.contains("fullname.untouched"));
+    }
+
+    @Test
+    public void testHead() {
+        Map<String, Long> heads = ImmutableMap.of("/trunk/a.txt", 12L);
+        Assert.assertTrue(ContentRetention.isHead(getHit("/trunk/a.txt", 12L), heads));
+        Assert.assertFalse(ContentRetention.isHead(getHit("/trunk/a.txt", 3L), heads));
+        // Unknown paths keep their content
+        Assert.assertTrue(ContentRetention.isHead(getHit("/trunk/b.txt", 3L),
+                Collections.<String, Long>emptyMap()));
+    }
+}
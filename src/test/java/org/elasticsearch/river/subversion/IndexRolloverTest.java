@@ -0,0 +1,73 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.collect.Sets;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class IndexRolloverTest {
+
+    private IndexRollover getRollover(String policy) {
+        return new IndexRollover(null, "svn", policy, 1000L, true,
+                Collections.<String, XContentBuilder>emptyMap());
+    }
+
+    @Test
+    public void testBucketKeys() throws Exception {
+        Date date = new Date(1388534400000L); // 2014-01-01T00:00:00Z
+        Assert.assertEquals(getRollover(IndexRollover.REVISIONS).getBucketKey(999L, date), "r0000000000");
+        Assert.assertEquals(getRollover(IndexRollover.REVISIONS).getBucketKey(1000L, date), "r0000001000");
+        Assert.assertEquals(getRollover(IndexRollover.MONTH).getBucketKey(1L, date), "2014.01");
+        Assert.assertEquals(getRollover(IndexRollover.YEAR).getBucketKey(1L, date), "2014");
+    }
+
+    @Test
+    public void testValidPolicies() throws Exception {
+        Assert.assertTrue(IndexRollover.isValidPolicy("revisions"));
+        Assert.assertTrue(IndexRollover.isValidPolicy("month"));
+        Assert.assertTrue(IndexRollover.isValidPolicy("year"));
+        Assert.assertFalse(IndexRollover.isValidPolicy("week"));
+    }
+
+    @Test
+    public void testSealedBucketNotWritten() throws Exception {
+        TreeSet<String> buckets = Sets.newTreeSet(Arrays.asList("svn-2014.01", "svn-2014.02", "svn-2014.03"));
+        Set<String> sealed = Sets.newHashSet("svn-2014.01", "svn-2014.02");
+        Assert.assertEquals("svn-2014.03", IndexRollover.getWritableBucket("svn-2014.01", buckets, sealed));
+        Assert.assertEquals("svn-2014.03", IndexRollover.getWritableBucket("svn-2014.03", buckets, sealed));
+        Assert.assertEquals("svn-2014.04", IndexRollover.getWritableBucket("svn-2014.04", buckets, sealed));
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        IndexRollover rollover = getRollover(IndexRollover.MONTH);
+        Assert.assertTrue(rollover.isBucket("svn-2014.01"));
+        Assert.assertTrue(rollover.isBucket("svn-2014"));
+        Assert.assertTrue(rollover.isBucket("svn-r0000001000"));
+        // The index of a river created without rollover
+        Assert.assertFalse(rollover.isBucket(Reindexer.newIndexName("svn")));
+        Assert.assertFalse(rollover.isBucket("svn2-2014.01"));
+    }
+}
@@ -0,0 +1,75 @@
+package org.elasticsearch.river.subversion;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.river.subversion.mapping.MappingProfile;
+import org.elasticsearch.river.subversion.mapping.SubversionDocumentMapping;
+import org.elasticsearch.river.subversion.type.SubversionDocument;
+import org.elasticsearch.test.ElasticsearchIntegrationTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+
+@ClusterScope(scope=Scope.SUITE, numNodes=1)
+public class ReindexerTest extends ElasticsearchIntegrationTest {
+
+    private static final String CONTENT = "reindexed content";
+
+    @Test
+    public void testReindexFull() throws Exception {
+        createRiverIndex("svnfull", MappingProfile.full());
+
+        String target = new Reindexer(client(), "svnfull", 10, 1).reindex(getMappings(MappingProfile.full()));
+
+        Assert.assertNotNull("The index must be reindexed", target);
+        Assert.assertEquals("The alias must point to the new index", target,
+                client().admin().cluster().prepareState().execute().actionGet()
+                        .getState().metaData().concreteIndices(new String[]{"svnfull"})[0]);
+        GetResponse document = client().prepareGet("svnfull", SubversionDocument.TYPE_NAME, "1")
+                .execute().actionGet();
+        Assert.assertEquals("The content must survive the reindexing", CONTENT, document.getSource().get("content"));
+    }
+
+    @Test
+    public void testReindexCompact() throws Exception {
+        createRiverIndex("svncompact", MappingProfile.compact());
+
+        String target = new Reindexer(client(), "svncompact", 10, 1).reindex(getMappings(MappingProfile.full()));
+
+        Assert.assertNull("An index without the content in its _source must not be reindexed", target);
+        Assert.assertEquals("The alias must still point to the old index", "svncompact-1",
+                client().admin().cluster().prepareState().execute().actionGet()
+                        .getState().metaData().concreteIndices(new String[]{"svncompact"})[0]);
+        Assert.assertEquals("The content must still be searchable", 1L,
+                client().prepareSearch("svncompact")
+                        .setQuery(QueryBuilders.matchQuery("content", CONTENT))
+                        .execute().actionGet().getHits().getTotalHits());
+    }
+
+    private void createRiverIndex(String alias, MappingProfile profile) throws IOException {
+        client().admin().indices().prepareCreate(alias + "-1")
+                .addMapping(SubversionDocument.TYPE_NAME, SubversionDocumentMapping.getInstance(profile))
+                .execute().actionGet();
+        client().admin().indices().prepareAliases().addAlias(alias + "-1", alias).execute().actionGet();
+        ensureGreen(alias + "-1");
+        client().prepareIndex(alias, SubversionDocument.TYPE_NAME, "1")
+                .setSource(jsonBuilder().startObject()
+                        .field("path", "/trunk/file.txt")
+                        .field("content", CONTENT)
+                        .endObject())
+                .execute().actionGet();
+        refresh();
+    }
+
+    private Map<String, XContentBuilder> getMappings(MappingProfile profile) throws IOException {
+        return Collections.singletonMap(SubversionDocument.TYPE_NAME, SubversionDocumentMapping.getInstance(profile));
+    }
+}
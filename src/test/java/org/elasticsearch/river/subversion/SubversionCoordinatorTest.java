@@ -0,0 +1,100 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class SubversionCoordinatorTest {
+
+    private static final List<String> TASKS = ImmutableList.of("t0", "t1", "t2", "t3", "t4");
+
+    private static Map<String, Integer> load(Map<String, String> assignments) {
+        Map<String, Integer> load = Maps.newHashMap();
+        for (String node : assignments.values()) {
+            load.put(node, load.containsKey(node) ? load.get(node) + 1 : 1);
+        }
+        return load;
+    }
+
+    @Test
+    public void testFirstLeases() throws Exception {
+        Map<String, String> assignments = SubversionCoordinator.balance(TASKS,
+                ImmutableMap.<String, String>of(), ImmutableList.of("n1", "n2"));
+        Assert.assertEquals(TASKS.size(), assignments.size());
+        Map<String, Integer> load = load(assignments);
+        Assert.assertTrue(Math.abs(load.get("n1") - load.get("n2")) <= 1);
+    }
+
+    @Test
+    public void testNodeLeft() throws Exception {
+        Map<String, String> owners = ImmutableMap.of("t0", "n1", "t1", "n2", "t2", "n1", "t3", "n2", "t4", "n3");
+        Map<String, String> assignments = SubversionCoordinator.balance(TASKS, owners, ImmutableList.of("n1", "n2"));
+        // The tasks of the live nodes stay where they are
+        Assert.assertEquals("n1", assignments.get("t0"));
+        Assert.assertEquals("n2", assignments.get("t1"));
+        Assert.assertEquals("n1", assignments.get("t2"));
+        Assert.assertEquals("n2", assignments.get("t3"));
+        Assert.assertTrue(ImmutableList.of("n1", "n2").contains(assignments.get("t4")));
+    }
+
+    @Test
+    public void testNodeJoined() throws Exception {
+        Map<String, String> owners = ImmutableMap.of("t0", "n1", "t1", "n1", "t2", "n1", "t3", "n2", "t4", "n2");
+        Map<String, String> assignments = SubversionCoordinator.balance(TASKS, owners,
+                ImmutableList.of("n1", "n2", "n3"));
+        Map<String, Integer> load = load(assignments);
+        Assert.assertEquals(Integer.valueOf(1), load.get("n3"));
+        // Only one task moved
+        int moved = 0;
+        for (String task : TASKS) {
+            if (!owners.get(task).equals(assignments.get(task))) {
+                moved++;
+            }
+        }
+        Assert.assertEquals(1, moved);
+    }
+
+    @Test
+    public void testNoNodes() throws Exception {
+        Assert.assertTrue(SubversionCoordinator.balance(TASKS,
+                ImmutableMap.<String, String>of(), ImmutableList.<String>of()).isEmpty());
+    }
+
+    @Test
+    public void testHandedOver() throws Exception {
+        Map<String, Object> lease = Maps.newHashMap();
+        lease.put("node", "n1");
+        Assert.assertFalse("A task without a previous node starts at once",
+                SubversionWorker.isHandedOver(lease, 1000L));
+        lease.put("previous", "n0");
+        lease.put("previous_until", 2000L);
+        Assert.assertTrue("A task waits for its previous node",
+                SubversionWorker.isHandedOver(lease, 1000L));
+        Assert.assertFalse("A task starts once the lease of its previous node expired",
+                SubversionWorker.isHandedOver(lease, 3000L));
+        lease.put("previous", null);
+        Assert.assertFalse("A task starts once released by its previous node",
+                SubversionWorker.isHandedOver(lease, 1000L));
+    }
+}
@@ -1,6 +1,8 @@
 package org.elasticsearch.river.subversion;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import org.elasticsearch.river.subversion.crawler.DocumentHandler;
 import org.elasticsearch.river.subversion.crawler.Parameters;
 import org.elasticsearch.river.subversion.crawler.SubversionCrawler;
 import org.elasticsearch.river.subversion.type.SubversionDocument;
@@ -114,6 +116,28 @@ public class SubversionCrawlerTest {
         Assert.assertEquals(revisions.size(), 2);
     }
 
+    @Test
+    public void testGetSnapshot() throws URISyntaxException, SVNException {
+        final List<SubversionDocument> documents = Lists.newArrayList();
+        long count = SubversionCrawler.getSnapshot(
+                reposAsURL,
+                new Parameters.ParametersBuilder().create(),
+                7L,
+                new DocumentHandler() {
+                    @Override
+                    public void handle(SubversionDocument document) {
+                        documents.add(document);
+                    }
+                }
+        );
+        // At revision 7, there are only watchlist.txt and playlist.txt
+        Assert.assertEquals(count, 2L);
+        Assert.assertEquals(documents.size(), 2);
+        for (SubversionDocument document : documents) {
+            Assert.assertTrue(document.json().contains("\"content\""));
+        }
+    }
+
     @Test
     public void testGetLatestRevision() throws SVNException, URISyntaxException {
         long revision =
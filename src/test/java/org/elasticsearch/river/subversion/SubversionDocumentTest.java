@@ -6,14 +6,21 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.river.subversion.crawler.LogEntryFilter;
+import org.elasticsearch.river.subversion.crawler.Parameters;
+import org.elasticsearch.river.subversion.type.SubversionDeadLetter;
 import org.elasticsearch.river.subversion.type.SubversionDocument;
 import org.elasticsearch.river.subversion.type.SubversionRevision;
 import org.junit.Before;
 import org.junit.Test;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
 
 import java.io.File;
 
 import static java.lang.Thread.currentThread;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class SubversionDocumentTest {
@@ -57,5 +64,64 @@ public class SubversionDocumentTest {
         );
     }
 
+    @Test
+    public void testTextUnchangedDocumentJson() throws Exception {
+        SubversionDocument unchanged = new SubversionDocument(
+                new SVNLogEntryPath("/trunk/big.txt", 'M', null, -1, SVNNodeKind.FILE),
+                revision, 1024L, null);
+        unchanged.setTextUnchanged();
+        String json = unchanged.json();
+        logger.info(json);
+        assertTrue(unchanged.isTextUnchanged());
+        assertTrue("Document must contain its size", json.contains("\"size\":1024"));
+        assertFalse("Document must not contain any content", json.contains("\"content\""));
+        assertFalse("The flag is not indexed", json.contains("textUnchanged"));
+    }
+
+    @Test
+    public void testLazyDocumentsWithoutServer() throws Exception {
+        Parameters lazy = new Parameters.ParametersBuilder().setLazyContent(true).create();
+        LogEntryFilter keep = new LogEntryFilter(false, false, null);
+        // Without repository, any request to the server would fail
+        SubversionDocument file = new SubversionDocument(
+                new SVNLogEntryPath("/trunk/file.txt", 'A', null, -1, SVNNodeKind.FILE),
+                null, 1L, revision, keep, lazy);
+        SubversionDocument dir = new SubversionDocument(
+                new SVNLogEntryPath("/trunk/dir", 'A', null, -1, SVNNodeKind.DIR),
+                null, 1L, revision, keep, lazy);
+        assertTrue("A file must be pending", file.isPending());
+        assertFalse("A directory has no content to load", dir.isPending());
+    }
+
+    @Test
+    public void testDocumentJsonWithoutRevisionFields() throws Exception {
+        String json = document.json(SubversionDocument.REVISION_FIELDS);
+        logger.info(json);
+        assertTrue("Document must contain Metal Gear", json.contains("Metal Gear"));
+        assertFalse("Document must not contain the message", json.contains("\"message\""));
+        assertFalse("Document must not contain the author", json.contains("\"author\""));
+    }
+
+    @Test
+    public void testRevisionJsonWithDocuments() throws Exception {
+        SubversionRevision revisionWithDocuments = new Gson().fromJson(
+                "{\"revision\":6,\"message\":\"what the hell ?\",\"documents\":[]}", SubversionRevision.class);
+        revisionWithDocuments.addDocument(document);
+        String json = revisionWithDocuments.json(SubversionDocument.REVISION_FIELDS);
+        logger.info(json);
+        assertTrue("Revision must contain its documents", json.contains("\"documents\":[{"));
+        assertTrue("Revision must contain Metal Gear", json.contains("Metal Gear"));
+    }
+
+    @Test
+    public void testDeadLetter() throws Exception {
+        SubversionDeadLetter deadLetter = new SubversionDeadLetter(
+                "svn://localhost/repo", 6, "/trunk/hell.txt", 'M', "svn: E210002: Network connection closed");
+        SubversionDeadLetter again = new SubversionDeadLetter(
+                "svn://localhost/repo", 6, "/trunk/hell.txt", 'M', "svn: E175002: Connection reset");
+        logger.info(deadLetter.json());
+        assertTrue("Dead letter must contain its error", deadLetter.json().contains("E210002"));
+        assertEquals("A path failing again must have the same id", deadLetter.id(), again.id());
+    }
 
 }
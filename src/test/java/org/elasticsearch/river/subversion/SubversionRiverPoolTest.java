@@ -0,0 +1,85 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion;
+
+import com.google.common.collect.Lists;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SubversionRiverPoolTest {
+
+    @Test
+    public void testRiversTakeTurns() throws Exception {
+        SubversionRiverPool pool = new SubversionRiverPool(ImmutableSettings.settingsBuilder()
+                .put("threadpool.subversion_river.size", 1)
+                .build());
+        pool.start();
+        Assert.assertEquals(1, pool.getSize());
+        final List<String> cycles = Collections.synchronizedList(Lists.<String>newArrayList());
+        final CountDownLatch done = new CountDownLatch(4);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        // Hold the only thread, until every river has queued its cycle
+        pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        // A river catching up queues its next cycle behind the others
+        pool.submit(new Cycle(pool, cycles, done, "a", 3));
+        pool.submit(new Cycle(pool, cycles, done, "b", 1));
+        blocked.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Lists.newArrayList("a", "b", "a", "a"), cycles);
+        pool.stop();
+    }
+
+    private static class Cycle implements Runnable {
+        private final SubversionRiverPool pool;
+        private final List<String> cycles;
+        private final CountDownLatch done;
+        private final String river;
+        private int remaining;
+
+        Cycle(SubversionRiverPool pool, List<String> cycles, CountDownLatch done, String river, int remaining) {
+            this.pool = pool;
+            this.cycles = cycles;
+            this.done = done;
+            this.river = river;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public void run() {
+            cycles.add(river);
+            done.countDown();
+            if (--remaining > 0) {
+                pool.submit(this);
+            }
+        }
+    }
+}
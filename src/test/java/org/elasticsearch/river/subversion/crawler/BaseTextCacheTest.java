@@ -0,0 +1,55 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BaseTextCacheTest {
+
+    @Test
+    public void testEviction() throws Exception {
+        BaseTextCache cache = new BaseTextCache(100);
+        cache.put("/trunk/a.txt", new byte[20], null);
+        cache.put("/trunk/b.txt", new byte[20], "text/plain");
+        // Access a.txt, so that b.txt is the least recently used
+        Assert.assertNotNull(cache.get("/trunk/a.txt"));
+        cache.put("/trunk/c.txt", new byte[20], null);
+        cache.put("/trunk/d.txt", new byte[20], null);
+        cache.put("/trunk/e.txt", new byte[25], null);
+        Assert.assertTrue(cache.size() <= 100);
+        Assert.assertNull(cache.get("/trunk/b.txt"));
+        Assert.assertNotNull(cache.get("/trunk/a.txt"));
+        Assert.assertNotNull(cache.get("/trunk/e.txt"));
+        // Too big for the cache
+        cache.put("/trunk/f.txt", new byte[26], null);
+        Assert.assertNull(cache.get("/trunk/f.txt"));
+    }
+
+    @Test
+    public void testRemoveDirectory() throws Exception {
+        BaseTextCache cache = new BaseTextCache(1000);
+        cache.put("/trunk/dir/a.txt", new byte[10], null);
+        cache.put("/trunk/dir/sub/b.txt", new byte[10], null);
+        cache.put("/trunk/dir2/c.txt", new byte[10], null);
+        cache.remove("/trunk/dir");
+        Assert.assertNull(cache.get("/trunk/dir/a.txt"));
+        Assert.assertNull(cache.get("/trunk/dir/sub/b.txt"));
+        Assert.assertNotNull(cache.get("/trunk/dir2/c.txt"));
+        Assert.assertEquals(cache.size(), 10L);
+    }
+}
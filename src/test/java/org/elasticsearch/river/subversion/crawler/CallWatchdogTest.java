@@ -0,0 +1,61 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CallWatchdogTest {
+
+    @Test
+    public void testNoTimeout() {
+        Assert.assertNull(CallWatchdog.watch("svn://host/repos", null, 0));
+    }
+
+    @Test
+    public void testStalledCall() {
+        final AtomicInteger aborts = new AtomicInteger();
+        Runnable abort = new Runnable() {
+            @Override
+            public void run() {
+                aborts.incrementAndGet();
+            }
+        };
+        long stalled = CallWatchdog.getStalledCalls();
+        CallWatchdog.Watch watch = CallWatchdog.watch("svn://host/repos", abort, 60000);
+        CallWatchdog.Watch done = CallWatchdog.watch("svn://host/repos", abort, 60000);
+        CallWatchdog.unwatch(done);
+
+        // Still within its deadline
+        CallWatchdog.check(System.nanoTime());
+        Assert.assertFalse(watch.isAborted());
+
+        CallWatchdog.check(System.nanoTime() + TimeUnit.MINUTES.toNanos(2));
+        Assert.assertTrue(watch.isAborted());
+        Assert.assertFalse(done.isAborted());
+        Assert.assertEquals(1, aborts.get());
+        Assert.assertEquals(stalled + 1, CallWatchdog.getStalledCalls());
+
+        // Aborted only once
+        CallWatchdog.check(System.nanoTime() + TimeUnit.MINUTES.toNanos(3));
+        Assert.assertEquals(1, aborts.get());
+        CallWatchdog.unwatch(watch);
+    }
+}
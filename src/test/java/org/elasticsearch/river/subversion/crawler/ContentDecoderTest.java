@@ -0,0 +1,60 @@
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.base.Charsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+public class ContentDecoderTest {
+
+    private static final String TEXT = "Crème brûlée, ça déménage";
+
+    private static String decode(byte[] bytes, String mimeType, Charset fallback) throws Exception {
+        SniffingOutputStream buffer = ContentDecoder.getBuffer(mimeType == null);
+        buffer.write(bytes);
+        return ContentDecoder.decode(buffer, mimeType, fallback);
+    }
+
+    @Test
+    public void testMimeTypeCharset() throws Exception {
+        Assert.assertEquals(TEXT,
+                decode(TEXT.getBytes(Charsets.ISO_8859_1), "text/plain; charset=ISO-8859-1", Charsets.UTF_8));
+        Assert.assertNull(ContentDecoder.getMimeTypeCharset("text/plain"));
+        Assert.assertNull(ContentDecoder.getMimeTypeCharset("text/plain; charset=nonsense"));
+    }
+
+    @Test
+    public void testByteOrderMark() throws Exception {
+        byte[] text = TEXT.getBytes(Charsets.UTF_16LE);
+        byte[] bytes = new byte[text.length + 2];
+        bytes[0] = (byte) 0xFF;
+        bytes[1] = (byte) 0xFE;
+        System.arraycopy(text, 0, bytes, 2, text.length);
+        Assert.assertEquals(TEXT, decode(bytes, null, Charsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testDetection() throws Exception {
+        Assert.assertEquals(TEXT, decode(TEXT.getBytes(Charsets.UTF_8), null, Charsets.ISO_8859_1));
+        Assert.assertEquals(TEXT, decode(TEXT.getBytes(Charsets.ISO_8859_1), null, Charsets.ISO_8859_1));
+        Assert.assertEquals("日本語", decode("日本語".getBytes("Shift_JIS"), null, Charset.forName("Shift_JIS")));
+    }
+
+    @Test
+    public void testWindows1252() throws Exception {
+        String quoted = "\u201cCr\u00e8me\u201d \u2013 br\u00fbl\u00e9e \u20ac";
+        Charset windows1252 = Charset.forName("windows-1252");
+        Assert.assertEquals(quoted, decode(quoted.getBytes(windows1252), null, Charsets.ISO_8859_1));
+        Assert.assertFalse(ContentDecoder.hasControlCodes(TEXT.getBytes(Charsets.ISO_8859_1), TEXT.length()));
+    }
+
+    @Test
+    public void testTruncatedUTF8() throws Exception {
+        byte[] bytes = "é".getBytes(Charsets.UTF_8);
+        // Cut by the end of the checked prefix
+        Assert.assertTrue(ContentDecoder.isUTF8(bytes, 1, 2));
+        // Cut by the end of the content
+        Assert.assertFalse(ContentDecoder.isUTF8(bytes, 1, 1));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.elasticsearch.river.subversion.type.SubversionRevision;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DumpReaderTest {
+
+    private static String props(String... keyValues) {
+        StringBuilder props = new StringBuilder();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            props.append("K ").append(keyValues[i].length()).append('\n').append(keyValues[i]).append('\n');
+            props.append("V ").append(keyValues[i + 1].length()).append('\n').append(keyValues[i + 1]).append('\n');
+        }
+        return props.append("PROPS-END\n").toString();
+    }
+
+    private static String revision(long number, String props) {
+        return "Revision-number: " + number + "\n"
+                + "Prop-content-length: " + props.length() + "\n"
+                + "Content-length: " + props.length() + "\n\n"
+                + props + "\n";
+    }
+
+    private static String node(String path, String kind, String action, String props, String text) {
+        StringBuilder node = new StringBuilder("Node-path: " + path + "\n");
+        if (kind != null) {
+            node.append("Node-kind: ").append(kind).append('\n');
+        }
+        node.append("Node-action: ").append(action).append('\n');
+        int length = 0;
+        if (props != null) {
+            node.append("Prop-content-length: ").append(props.length()).append('\n');
+            length += props.length();
+        }
+        if (text != null) {
+            node.append("Text-content-length: ").append(text.length()).append('\n');
+            length += text.length();
+        }
+        node.append("Content-length: ").append(length).append("\n\n");
+        if (props != null) {
+            node.append(props);
+        }
+        if (text != null) {
+            node.append(text);
+        }
+        return node.append("\n\n").toString();
+    }
+
+    private static DumpReader reader(String dump, long maximumTextSize) {
+        return new DumpReader(new ByteArrayInputStream(dump.getBytes(Charsets.UTF_8)), maximumTextSize);
+    }
+
+    private static final String DUMP = "SVN-fs-dump-format-version: 2\n\n"
+            + "UUID: 0c8e7b4a-4c4e-4c3a-9b8a-2f0a3c9d1e2f\n\n"
+            + revision(0, props("svn:date", "2014-01-01T00:00:00.000000Z"))
+            + revision(1, props("svn:author", "alice", "svn:date", "2014-01-02T00:00:00.000000Z", "svn:log", "Initial import"))
+            + node("trunk", "dir", "add", props(), null)
+            + node("trunk/readme.txt", "file", "add", props("svn:eol-style", "native"), "Hello\nworld\n")
+            + revision(2, props("svn:author", "bob", "svn:log", "Remove"))
+            + node("trunk/readme.txt", null, "delete", null, null);
+
+    @Test
+    public void testRevisions() throws IOException {
+        DumpReader reader = reader(DUMP, 0);
+
+        DumpReader.Revision revision = reader.next();
+        Assert.assertEquals(0L, revision.getNumber());
+        Assert.assertTrue(revision.getNodes().isEmpty());
+
+        revision = reader.next();
+        Assert.assertEquals(1L, revision.getNumber());
+        Assert.assertEquals("alice", revision.getProperties().get("svn:author"));
+        Assert.assertEquals("Initial import", revision.getProperties().get("svn:log"));
+        Assert.assertEquals(2, revision.getNodes().size());
+        DumpReader.Node dir = revision.getNodes().get(0);
+        Assert.assertEquals("trunk", dir.getPath());
+        Assert.assertEquals("dir", dir.getKind());
+        Assert.assertEquals('A', dir.getType());
+        Assert.assertTrue(dir.getProperties().isEmpty());
+        Assert.assertNull(dir.getText());
+        DumpReader.Node file = revision.getNodes().get(1);
+        Assert.assertEquals("trunk/readme.txt", file.getPath());
+        Assert.assertEquals("native", file.getProperties().get("svn:eol-style"));
+        Assert.assertEquals(12L, file.getTextLength());
+        Assert.assertEquals("Hello\nworld\n", new String(file.getText(), Charsets.UTF_8));
+
+        revision = reader.next();
+        Assert.assertEquals(2L, revision.getNumber());
+        Assert.assertEquals(1, revision.getNodes().size());
+        Assert.assertEquals('D', revision.getNodes().get(0).getType());
+        Assert.assertNull(revision.getNodes().get(0).getProperties());
+        Assert.assertEquals(-1L, revision.getNodes().get(0).getTextLength());
+
+        Assert.assertNull(reader.next());
+        Assert.assertEquals("0c8e7b4a-4c4e-4c3a-9b8a-2f0a3c9d1e2f", reader.getUUID());
+    }
+
+    @Test
+    public void testDumpOfRepository() throws IOException {
+        File dumpFile = File.createTempFile("repository", ".dump");
+        dumpFile.deleteOnExit();
+        Files.write(DUMP, dumpFile, Charsets.UTF_8);
+        final AtomicInteger handled = new AtomicInteger();
+        RevisionHandler handler = new RevisionHandler() {
+            @Override
+            public void handle(SubversionRevision revision) {
+                handled.incrementAndGet();
+            }
+        };
+        Parameters parameters = new Parameters.ParametersBuilder().create();
+
+        // Another repository
+        Assert.assertEquals(-1L, SubversionCrawler.getDumpRevisions(dumpFile, "/repos", "/",
+                "another-uuid", Long.MAX_VALUE, parameters, handler));
+        Assert.assertEquals(0, handled.get());
+        // Past the HEAD revision of the repository
+        Assert.assertEquals(1L, SubversionCrawler.getDumpRevisions(dumpFile, "/repos", "/",
+                "0c8e7b4a-4c4e-4c3a-9b8a-2f0a3c9d1e2f", 1L, parameters, handler));
+        Assert.assertEquals(1, handled.get());
+    }
+
+    @Test
+    public void testTextTooBig() throws IOException {
+        DumpReader reader = reader(DUMP, 5);
+        reader.next();
+        DumpReader.Node file = reader.next().getNodes().get(1);
+        Assert.assertEquals(12L, file.getTextLength());
+        Assert.assertNull(file.getText());
+        // The skipped text does not shift the next records
+        Assert.assertEquals(2L, reader.next().getNumber());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformedHeader() throws IOException {
+        reader("Revision-number 1\n\n", 0).next();
+    }
+}
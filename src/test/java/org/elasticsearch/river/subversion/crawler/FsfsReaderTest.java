@@ -0,0 +1,191 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.Deflater;
+
+public class FsfsReaderTest {
+
+    private File root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(Charsets.UTF_8);
+    }
+
+    private static String md5(String s) {
+        return Hashing.md5().hashBytes(bytes(s)).toString();
+    }
+
+    // "hello world" from "hello" : copy 5 bytes of the source, then 6 new bytes
+    private static byte[] delta() {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        delta.write('S');
+        delta.write('V');
+        delta.write('N');
+        delta.write(0);
+        // Source offset and length, target length, instructions and new data lengths
+        byte[] window = {0, 5, 11, 3, 6, 0x05, 0x00, (byte) 0x86};
+        delta.write(window, 0, window.length);
+        byte[] newData = bytes(" world");
+        delta.write(newData, 0, newData.length);
+        return delta.toByteArray();
+    }
+
+    /**
+     * A linear repository, whose revision 1 adds /trunk, /trunk/a.txt as plain text,
+     * and /trunk/b.txt as a delta against it
+     */
+    private void createRepository() throws IOException {
+        File db = new File(root, "db");
+        new File(db, "revs").mkdirs();
+        new File(db, "revprops").mkdirs();
+        Files.write(bytes("fsfs\n"), new File(db, "fs-type"));
+        Files.write(bytes("6\nlayout linear\n"), new File(db, "format"));
+        Files.write(bytes("1\n"), new File(db, "current"));
+        Files.write(bytes("K 10\nsvn:author\nV 5\nalice\nK 7\nsvn:log\nV 6\nImport\nEND\n"),
+                new File(db, "revprops/1"));
+
+        ByteArrayOutputStream rev = new ByteArrayOutputStream();
+        String plain = "PLAIN\nhello\nENDREP\n";
+        rev.write(bytes(plain), 0, plain.length());
+        int props = rev.size();
+        String properties = "K 13\nsvn:mime-type\nV 10\ntext/plain\nEND\n";
+        String propsRep = "PLAIN\n" + properties + "ENDREP\n";
+        rev.write(bytes(propsRep), 0, propsRep.length());
+        int deltaOffset = rev.size();
+        byte[] delta = delta();
+        rev.write(bytes("DELTA 1 0 5\n"), 0, 12);
+        rev.write(delta, 0, delta.length);
+        rev.write(bytes("ENDREP\n"), 0, 7);
+        int a = rev.size();
+        String nodeA = "id: 0.0.r1/" + a + "\ntype: file\ntext: 1 0 5 5 " + md5("hello") + "\n\n";
+        rev.write(bytes(nodeA), 0, nodeA.length());
+        int b = rev.size();
+        String nodeB = "id: 1.0.r1/" + b + "\ntype: file\ntext: 1 " + deltaOffset + " " + delta.length
+                + " 11 " + md5("hello world") + "\nprops: 1 " + props + " " + properties.length()
+                + " " + properties.length() + " " + md5(properties) + "\n\n";
+        rev.write(bytes(nodeB), 0, nodeB.length());
+        int changes = rev.size();
+        String changesList = "2.0.r1/0 add-dir false false /trunk\n\n"
+                + "0.0.r1/" + a + " add-file true false /trunk/a.txt\n\n"
+                + "1.0.r1/" + b + " add-file true true /trunk/b.txt\n1 /trunk/a.txt\n"
+                + "\n0 " + changes + "\n";
+        rev.write(bytes(changesList), 0, changesList.length());
+        Files.write(rev.toByteArray(), new File(db, "revs/1"));
+    }
+
+    @Test
+    public void testRevision() throws Exception {
+        createRepository();
+        FsfsReader reader = FsfsReader.open(root);
+        Assert.assertNotNull(reader);
+        Assert.assertEquals(1L, reader.getYoungestRevision());
+        Assert.assertEquals("alice", reader.getRevisionProperties(1).get("svn:author"));
+        Assert.assertEquals("Import", reader.getRevisionProperties(1).get("svn:log"));
+
+        List<FsfsReader.Change> changes = reader.getChanges(1);
+        Assert.assertEquals(3, changes.size());
+        Assert.assertEquals("/trunk", changes.get(0).getPath());
+        Assert.assertEquals("dir", reader.getKind(changes.get(0)));
+
+        FsfsReader.Change a = changes.get(1);
+        Assert.assertEquals('A', a.getType());
+        Assert.assertEquals("file", reader.getKind(a));
+        Assert.assertEquals(5L, reader.getSize(a));
+        Assert.assertEquals("hello", new String(reader.getText(a), Charsets.UTF_8));
+        Assert.assertTrue(reader.getProperties(a).isEmpty());
+
+        FsfsReader.Change b = changes.get(2);
+        Assert.assertEquals("/trunk/a.txt", b.getCopyFromPath());
+        Assert.assertEquals(1L, b.getCopyFromRevision());
+        Assert.assertTrue(b.isPropertiesModified());
+        Assert.assertEquals(11L, reader.getSize(b));
+        Assert.assertEquals("hello world", new String(reader.getText(b), Charsets.UTF_8));
+        Assert.assertEquals("text/plain", reader.getProperties(b).get("svn:mime-type"));
+        reader.close();
+    }
+
+    @Test
+    public void testNotFsfs() throws Exception {
+        Assert.assertNull(FsfsReader.open(root));
+    }
+
+    @Test
+    public void testTargetCopy() throws Exception {
+        // "ab" as new data, then 4 bytes copied from the target itself, overlapping : "ababab"
+        byte[] delta = {'S', 'V', 'N', 0, 0, 0, 6, 3, 2, (byte) 0x82, 0x44, 0x00, 'a', 'b'};
+        Assert.assertEquals("ababab",
+                new String(FsfsReader.applyDelta(new byte[0], ByteBuffer.wrap(delta)), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testDecompress() throws Exception {
+        byte[] original = bytes("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        Deflater deflater = new Deflater();
+        deflater.setInput(original);
+        deflater.finish();
+        byte[] compressed = new byte[128];
+        int length = deflater.deflate(compressed);
+        ByteBuffer section = ByteBuffer.allocate(length + 1);
+        section.put((byte) original.length);
+        section.put(compressed, 0, length);
+        section.flip();
+        Assert.assertArrayEquals(original, FsfsReader.decompress(section, length + 1));
+
+        // Stored as is, when compressing does not pay off
+        section = ByteBuffer.wrap(new byte[]{3, 'a', 'b', 'c'});
+        Assert.assertEquals("abc", new String(FsfsReader.decompress(section, 4), Charsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedDelta() throws Exception {
+        FsfsReader.applyDelta(new byte[0], ByteBuffer.wrap(new byte[]{'S', 'V', 'N', 2}));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class HostLimiterTest {
+
+    @Test
+    public void testSharedByHost() throws Exception {
+        HostLimiter limiter = HostLimiter.configure("svn.shared.test", 0, 4);
+        Assert.assertSame(limiter, HostLimiter.configure("svn.shared.test", 0, 8));
+        Assert.assertSame(limiter, HostLimiter.of("svn.shared.test"));
+        Assert.assertNotSame(limiter, HostLimiter.of("svn.other.test"));
+    }
+
+    @Test
+    public void testUnlimited() throws Exception {
+        HostLimiter limiter = HostLimiter.of("svn.unlimited.test");
+        limiter.acquire();
+        limiter.release();
+        Assert.assertEquals(0, limiter.getRequests());
+    }
+
+    @Test
+    public void testMaxRequests() throws Exception {
+        final HostLimiter limiter = HostLimiter.configure("svn.max.test", 0, 1);
+        limiter.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                limiter.acquire();
+                acquired.countDown();
+                limiter.release();
+            }
+        });
+        other.start();
+        Thread.sleep(100);
+        Assert.assertEquals("The second request must wait for the first one", 1, acquired.getCount());
+        limiter.release();
+        other.join(1000);
+        Assert.assertEquals(0, acquired.getCount());
+        Assert.assertEquals(2, limiter.getRequests());
+        Assert.assertTrue("The wait must be measured", limiter.getWaitTime() >= 50);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.river.subversion.type.SubversionDocument;
+import org.elasticsearch.river.subversion.type.SubversionRevision;
+import org.junit.Assert;
+import org.junit.Test;
+import org.tmatesoft.svn.core.SVNLogEntry;
+
+import java.util.Date;
+
+public class MemoryBudgetTest {
+
+    private static MemoryCircuitBreaker breaker(long limit) {
+        return new MemoryCircuitBreaker(new ByteSizeValue(limit), 1.0, Loggers.getLogger(MemoryBudgetTest.class));
+    }
+
+    @Test
+    public void testRiverLimit() {
+        MemoryCircuitBreaker node = breaker(1000);
+        MemoryBudget budget = new MemoryBudget(node, 600);
+        Assert.assertTrue(budget.reserve(500));
+        // Over the limit of the river, but accounted all the same
+        Assert.assertFalse(budget.reserve(200));
+        Assert.assertEquals(700, budget.getReserved());
+        Assert.assertEquals(700, node.getUsed());
+        budget.releaseAll();
+        Assert.assertEquals(0, budget.getReserved());
+        Assert.assertEquals(0, node.getUsed());
+        Assert.assertTrue(budget.reserve(500));
+    }
+
+    @Test
+    public void testNodeLimit() {
+        MemoryCircuitBreaker node = breaker(1000);
+        MemoryBudget first = new MemoryBudget(node, 0);
+        MemoryBudget second = new MemoryBudget(node, 0);
+        Assert.assertTrue(first.reserve(800));
+        // The node is shared by the rivers
+        Assert.assertFalse(second.reserve(300));
+        first.releaseAll();
+        Assert.assertEquals(300, node.getUsed());
+        Assert.assertTrue(second.reserve(300));
+    }
+
+    @Test
+    public void testEstimate() {
+        SubversionRevision revision = new SubversionRevision(
+                new SVNLogEntry(null, 1L, "alice", new Date(), "message"), "/repos");
+        revision.addDocument(new SubversionDocument("/trunk/a.txt", 'A', 5L, "hello", revision));
+        long estimate = MemoryBudget.estimate(revision);
+        Assert.assertTrue(estimate >= 2 * MemoryBudget.OBJECT_OVERHEAD + 2 * "hello".length());
+    }
+}
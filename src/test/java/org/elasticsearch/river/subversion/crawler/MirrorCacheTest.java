@@ -0,0 +1,112 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+public class MirrorCacheTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("subversion-river", ".mirror");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void testEntries() throws Exception {
+        MirrorCache mirror = new MirrorCache(file);
+        mirror.putEntry("/trunk/a.txt", 2L, 5L, "hello");
+        mirror.putEntry("/trunk/b.bin", 2L, 1000L, null);
+        Assert.assertEquals(mirror.getEntry("/trunk/a.txt", 2L).getContent(), "hello");
+        Assert.assertNull(mirror.getEntry("/trunk/a.txt", 3L));
+        mirror.close();
+
+        // Everything is still there once reopened
+        mirror = new MirrorCache(file);
+        Assert.assertEquals(mirror.getEntry("/trunk/a.txt", 2L).getSize(), 5L);
+        Assert.assertEquals(mirror.getEntry("/trunk/a.txt", 2L).getContent(), "hello");
+        Assert.assertEquals(mirror.getEntry("/trunk/b.bin", 2L).getSize(), 1000L);
+        Assert.assertNull(mirror.getEntry("/trunk/b.bin", 2L).getContent());
+        mirror.close();
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception {
+        MirrorCache mirror = new MirrorCache(file);
+        mirror.putEntry("/trunk/a.txt", 2L, 5L, "hello");
+        mirror.putEntry("/trunk/b.txt", 2L, 5L, "world");
+        mirror.close();
+
+        // Simulate a crash in the middle of the last record
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(randomAccessFile.length() - 3);
+        randomAccessFile.close();
+
+        mirror = new MirrorCache(file);
+        Assert.assertEquals(mirror.getEntry("/trunk/a.txt", 2L).getContent(), "hello");
+        Assert.assertNull(mirror.getEntry("/trunk/b.txt", 2L));
+        mirror.putEntry("/trunk/b.txt", 2L, 5L, "again");
+        Assert.assertEquals(mirror.getEntry("/trunk/b.txt", 2L).getContent(), "again");
+        mirror.close();
+    }
+
+    @Test
+    public void testLogEntries() throws Exception {
+        Map<String, SVNLogEntryPath> changedPaths = Maps.newHashMap();
+        changedPaths.put("/trunk/a.txt",
+                new SVNLogEntryPath("/trunk/a.txt", 'M', null, -1L, SVNNodeKind.FILE));
+        SVNLogEntry logEntry = new SVNLogEntry(changedPaths, 3L, "author", new Date(), "message");
+
+        MirrorCache mirror = new MirrorCache(file);
+        mirror.putLogEntries("/trunk", 1L, 5L, ImmutableList.of(logEntry));
+        mirror.close();
+
+        mirror = new MirrorCache(file);
+        List<SVNLogEntry> logEntries = mirror.getLogEntries("/trunk", 2L, 4L);
+        Assert.assertEquals(logEntries.size(), 1);
+        Assert.assertEquals(logEntries.get(0).getRevision(), 3L);
+        Assert.assertEquals(logEntries.get(0).getMessage(), "message");
+        Assert.assertEquals(logEntries.get(0).getChangedPaths().get("/trunk/a.txt").getType(), 'M');
+        // Ranges not entirely mirrored, or of another path
+        Assert.assertNull(mirror.getLogEntries("/trunk", 4L, 6L));
+        Assert.assertNull(mirror.getLogEntries("/branches", 1L, 5L));
+        // Contiguous ranges are merged
+        mirror.putLogEntries("/trunk", 6L, 8L, ImmutableList.<SVNLogEntry>of());
+        Assert.assertEquals(mirror.getLogEntries("/trunk", 1L, 8L).size(), 1);
+        mirror.close();
+    }
+}
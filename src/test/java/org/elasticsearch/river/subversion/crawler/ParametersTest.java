@@ -16,6 +16,8 @@
 
 package org.elasticsearch.river.subversion.crawler;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import org.junit.Assert;
 import org.junit.Test;
@@ -34,6 +36,14 @@ public class ParametersTest {
         Assert.assertFalse(parameters.getMaximumFileSize().isPresent());
         Assert.assertEquals(parameters.getPatternsToFilter(), ImmutableSet.<Pattern>of());
         Assert.assertNotNull(parameters.getStoreDiffs().orNull());
+        Assert.assertNotNull(parameters.getLazyContent().orNull());
+        Assert.assertEquals(parameters.getContentExtractors(), ImmutableList.<ContentExtractor>of());
+        Assert.assertNotNull(parameters.getExtractorSizeBudget().orNull());
+        Assert.assertNotNull(parameters.getFallbackCharset().orNull());
+        Assert.assertNotNull(parameters.getDeltaContent().orNull());
+        Assert.assertNotNull(parameters.getDeltaCacheSize().orNull());
+        Assert.assertNotNull(parameters.getRetries().orNull());
+        Assert.assertNotNull(parameters.getRetryDelay().orNull());
     }
 
     @Test
@@ -47,5 +57,13 @@ public class ParametersTest {
         Assert.assertFalse(parameters.getMaximumFileSize().isPresent());
         Assert.assertEquals(parameters.getPatternsToFilter(), ImmutableSet.<Pattern>of());
         Assert.assertFalse(parameters.getStoreDiffs().get());
+        Assert.assertFalse(parameters.getLazyContent().get());
+        Assert.assertEquals(parameters.getContentExtractors(), ImmutableList.<ContentExtractor>of());
+        Assert.assertEquals(parameters.getExtractorSizeBudget().get(), Long.valueOf(10L * 1024L * 1024L));
+        Assert.assertEquals(parameters.getFallbackCharset().get(), Charsets.ISO_8859_1);
+        Assert.assertFalse(parameters.getDeltaContent().get());
+        Assert.assertEquals(parameters.getDeltaCacheSize().get(), Long.valueOf(64L * 1024L * 1024L));
+        Assert.assertEquals(parameters.getRetries().get(), Integer.valueOf(3));
+        Assert.assertEquals(parameters.getRetryDelay().get(), Long.valueOf(1000L));
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RevisionBitmapTest {
+
+    @Test
+    public void testAddAndContains() {
+        RevisionBitmap bitmap = new RevisionBitmap();
+        bitmap.add(1);
+        bitmap.add(42);
+        bitmap.add(42);
+        Assert.assertTrue(bitmap.contains(1));
+        Assert.assertTrue(bitmap.contains(42));
+        Assert.assertFalse(bitmap.contains(2));
+        Assert.assertEquals(2, bitmap.size());
+    }
+
+    @Test
+    public void testOutOfRange() {
+        RevisionBitmap bitmap = new RevisionBitmap();
+        bitmap.add(-1);
+        bitmap.add(Long.MAX_VALUE);
+        Assert.assertEquals(0, bitmap.size());
+        Assert.assertFalse(bitmap.contains(-1));
+        Assert.assertFalse(bitmap.contains(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testBytes() {
+        RevisionBitmap bitmap = new RevisionBitmap();
+        for (long revision = 100; revision < 200; revision += 3) {
+            bitmap.add(revision);
+        }
+        RevisionBitmap read = RevisionBitmap.fromBytes(bitmap.toBytes());
+        Assert.assertEquals(bitmap.size(), read.size());
+        Assert.assertTrue(read.contains(103));
+        Assert.assertFalse(read.contains(104));
+        Assert.assertEquals(0, RevisionBitmap.fromBytes(null).size());
+    }
+}
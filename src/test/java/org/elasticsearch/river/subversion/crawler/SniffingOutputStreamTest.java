@@ -0,0 +1,76 @@
+package org.elasticsearch.river.subversion.crawler;
+
+import com.google.common.base.Charsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class SniffingOutputStreamTest {
+    @Test
+    public void testText() throws Exception {
+        SniffingOutputStream outputStream = new SniffingOutputStream(true);
+        outputStream.write("I have to get me a cool game to play.".getBytes(Charsets.UTF_8));
+        Assert.assertFalse(outputStream.isBinary());
+        Assert.assertEquals(outputStream.toString(Charsets.UTF_8.name()), "I have to get me a cool game to play.");
+    }
+
+    @Test
+    public void testBinaryIsDiscarded() throws Exception {
+        SniffingOutputStream outputStream = new SniffingOutputStream(true);
+        byte[] chunk = new byte[SniffingOutputStream.SNIFF_LENGTH];
+        outputStream.write(chunk);
+        outputStream.write(chunk);
+        Assert.assertTrue(outputStream.isBinary());
+        Assert.assertEquals(outputStream.size(), 0);
+    }
+
+    @Test
+    public void testNoSniffing() throws Exception {
+        SniffingOutputStream outputStream = new SniffingOutputStream(false);
+        outputStream.write(new byte[SniffingOutputStream.SNIFF_LENGTH * 2]);
+        Assert.assertFalse(outputStream.isBinary());
+        Assert.assertEquals(outputStream.size(), SniffingOutputStream.SNIFF_LENGTH * 2);
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        SniffingOutputStream outputStream = new SniffingOutputStream(true);
+        outputStream.write(new byte[SniffingOutputStream.SNIFF_LENGTH * 2]);
+        Assert.assertTrue(outputStream.isBinary());
+        outputStream.restart();
+        outputStream.write("text".getBytes("UTF-8"));
+        Assert.assertFalse(outputStream.isBinary());
+        Assert.assertEquals(outputStream.getWritten(), 4);
+    }
+
+    @Test
+    public void testAbortOnBinaryAtSniffLength() throws Exception {
+        SniffingOutputStream outputStream = new SniffingOutputStream(true);
+        outputStream.abortOnBinary();
+        try {
+            outputStream.write(new byte[SniffingOutputStream.SNIFF_LENGTH]);
+            Assert.fail("The transfer of a binary must be aborted once sniffed");
+        } catch (SniffingOutputStream.BinaryContentException e) {
+            Assert.assertTrue(outputStream.isAborted());
+            Assert.assertTrue(outputStream.isBinary());
+            Assert.assertEquals(outputStream.size(), 0);
+        }
+    }
+
+    @Test
+    public void testTextAtSniffLength() throws Exception {
+        SniffingOutputStream outputStream = new SniffingOutputStream(true);
+        outputStream.abortOnBinary();
+        byte[] text = new byte[SniffingOutputStream.SNIFF_LENGTH];
+        Arrays.fill(text, (byte) 'a');
+        outputStream.write(text);
+        Assert.assertFalse(outputStream.isAborted());
+        Assert.assertFalse(outputStream.isBinary());
+        Assert.assertEquals(outputStream.size(), SniffingOutputStream.SNIFF_LENGTH);
+        // Only the first bytes are sniffed
+        outputStream.write(new byte[1]);
+        Assert.assertFalse(outputStream.isAborted());
+        Assert.assertEquals(outputStream.size(), SniffingOutputStream.SNIFF_LENGTH + 1);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SubversionCrawlerMimeTypeTest {
+    @Test
+    public void testGuessMimeType() throws Exception {
+        Assert.assertEquals("text/plain", SubversionCrawler.guessMimeType("text/plain", "/trunk/a.pdf"));
+        Assert.assertEquals("application/pdf", SubversionCrawler.guessMimeType(null, "/trunk/a.PDF"));
+        Assert.assertEquals("application/msword", SubversionCrawler.guessMimeType(null, "/trunk/a.doc"));
+        Assert.assertEquals("application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+                SubversionCrawler.guessMimeType(null, "/trunk/a.docx"));
+        Assert.assertEquals("application/vnd.oasis.opendocument.text", SubversionCrawler.guessMimeType(null, "/trunk/a.odt"));
+        Assert.assertEquals("image/png", SubversionCrawler.guessMimeType(null, "/trunk/a.png"));
+        Assert.assertNull(SubversionCrawler.guessMimeType(null, "/trunk/a.txt"));
+        Assert.assertNull(SubversionCrawler.guessMimeType(null, "/trunk.pdf/README"));
+    }
+}
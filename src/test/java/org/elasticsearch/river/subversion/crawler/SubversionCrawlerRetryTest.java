@@ -0,0 +1,33 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SubversionCrawlerRetryTest {
+    @Test
+    public void testBackoff() throws Exception {
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            long delay = 1000L << (attempt - 1);
+            long backoff = SubversionCrawler.getBackoff(1000L, attempt);
+            Assert.assertTrue("Backoff must be jittered around " + delay, backoff >= delay / 2);
+            Assert.assertTrue("Backoff must be jittered around " + delay, backoff <= delay * 3 / 2);
+        }
+        Assert.assertEquals(0L, SubversionCrawler.getBackoff(0L, 3));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright [2014] [Pascal Lombard]
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.elasticsearch.river.subversion.crawler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+
+import java.util.Arrays;
+
+public class SubversionCrawlerSubtreeTest {
+    @Test
+    public void testWithinSubtree() throws Exception {
+        Assert.assertTrue(SubversionCrawler.isWithinSubtree("/project/trunk", 'M', "/project/trunk"));
+        Assert.assertTrue(SubversionCrawler.isWithinSubtree("/project/trunk/a.txt", 'A', "/project/trunk/"));
+        Assert.assertTrue(SubversionCrawler.isWithinSubtree("/other/trunk/a.txt", 'M', "/"));
+        Assert.assertFalse(SubversionCrawler.isWithinSubtree("/project/trunk2/a.txt", 'M', "/project/trunk"));
+        Assert.assertFalse(SubversionCrawler.isWithinSubtree("/other/trunk/a.txt", 'A', "/project/trunk"));
+    }
+
+    @Test
+    public void testParentOfSubtree() throws Exception {
+        // A property set on a parent does not change the subtree...
+        Assert.assertFalse(SubversionCrawler.isWithinSubtree("/project", 'M', "/project/trunk"));
+        // ... but its deletion or replacement does
+        Assert.assertTrue(SubversionCrawler.isWithinSubtree("/project", 'D', "/project/trunk"));
+        Assert.assertTrue(SubversionCrawler.isWithinSubtree("/project", 'R', "/project/trunk"));
+    }
+
+    @Test
+    public void testSubtreePath() throws Exception {
+        Assert.assertEquals("/mySvnModule/trunk", SubversionCrawler.getSubtreePath("", "mySvnModule/trunk"));
+        Assert.assertEquals("/mySvnModule/trunk", SubversionCrawler.getSubtreePath("/", "mySvnModule/trunk/"));
+        // The location of the river is below the repository root
+        Assert.assertEquals("/project/trunk", SubversionCrawler.getSubtreePath("/project", "trunk"));
+        // Absolute paths are relative to the repository root
+        Assert.assertEquals("/other", SubversionCrawler.getSubtreePath("/project", "/other"));
+        Assert.assertEquals("/", SubversionCrawler.getSubtreePath("/", "/"));
+        Assert.assertEquals("/project", SubversionCrawler.getSubtreePath("/project", ""));
+    }
+
+    @Test
+    public void testWithinSubtreeWithoutLeadingSlash() throws Exception {
+        String path = SubversionCrawler.getSubtreePath("", "mySvnModule/trunk");
+        Assert.assertTrue(SubversionCrawler.isWithinSubtree("/mySvnModule/trunk/a.txt", 'M', path));
+        Assert.assertFalse(SubversionCrawler.isWithinSubtree("/mySvnModule/branches/a.txt", 'M', path));
+    }
+
+    @Test
+    public void testDirectoryModification() throws Exception {
+        SVNLogEntryPath file = new SVNLogEntryPath("/project/trunk/a.txt", 'M', null, -1, SVNNodeKind.FILE);
+        // The root of a merge gets its svn:mergeinfo
+        Assert.assertTrue(SubversionCrawler.hasDirectoryModification(Arrays.asList(file,
+                new SVNLogEntryPath("/project/trunk", 'M', null, -1, SVNNodeKind.DIR))));
+        Assert.assertTrue(SubversionCrawler.hasDirectoryModification(Arrays.asList(
+                new SVNLogEntryPath("/project/trunk/b.txt", 'M', null, -1, SVNNodeKind.UNKNOWN))));
+        Assert.assertFalse(SubversionCrawler.hasDirectoryModification(Arrays.asList(file,
+                new SVNLogEntryPath("/project/trunk/dir", 'A', null, -1, SVNNodeKind.DIR))));
+    }
+}
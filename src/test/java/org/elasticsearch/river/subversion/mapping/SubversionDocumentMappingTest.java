@@ -1,6 +1,8 @@
 package org.elasticsearch.river.subversion.mapping;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.river.subversion.Reindexer;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -17,4 +19,55 @@ public class SubversionDocumentMappingTest {
 
         Assert.assertNotNull("Mapping for SubversionDocument must be set", instance);
     }
+
+    @Test
+    public void testGetInstanceCompact() throws Exception {
+
+        final String mapping = SubversionDocumentMapping.getInstance(MappingProfile.compact()).string();
+        System.out.println(mapping);
+
+        Assert.assertTrue("_all must be disabled", mapping.contains("\"_all\":{\"enabled\":false}"));
+        Assert.assertTrue("content must be excluded from _source", mapping.contains("\"excludes\":[\"content\"]"));
+        Assert.assertFalse("message must be left out", mapping.contains("\"message\""));
+        Assert.assertFalse("path must not be untouched",
+                mapping.contains("\"path\":{\"type\":\"multi_field\""));
+        Assert.assertTrue("fullname must be untouched",
+                mapping.contains("\"fullname\":{\"type\":\"multi_field\""));
+    }
+
+    @Test
+    public void testGetInstanceChild() throws Exception {
+
+        final String mapping = SubversionDocumentMapping.getInstance(
+                MappingProfile.full().setDocumentModel(MappingProfile.CHILD)).string();
+        System.out.println(mapping);
+
+        Assert.assertTrue("_parent must be the revision", mapping.contains("\"_parent\":{\"type\":\"svnrevision\"}"));
+        Assert.assertFalse("author must be left to the parent", mapping.contains("\"author\""));
+    }
+
+    @Test
+    public void testGetRevisionInstanceNested() throws Exception {
+
+        final String mapping = SubversionRevisionMapping.getInstance(
+                MappingProfile.compact().setDocumentModel(MappingProfile.NESTED)).string();
+        System.out.println(mapping);
+
+        Assert.assertTrue("documents must be nested",
+                mapping.contains("\"documents\":{\"type\":\"nested\""));
+        Assert.assertTrue("content must be excluded from _source",
+                mapping.contains("\"excludes\":[\"documents.content\"]"));
+    }
+
+    @Test
+    public void testSourceComplete() throws Exception {
+
+        Assert.assertTrue("full _source must be reindexable", Reindexer.isSourceComplete(
+                XContentHelper.convertToMap(SubversionDocumentMapping.getInstance(MappingProfile.full()).bytes(), false).v2()));
+        Assert.assertFalse("_source without content must not be reindexable", Reindexer.isSourceComplete(
+                XContentHelper.convertToMap(SubversionDocumentMapping.getInstance(MappingProfile.compact()).bytes(), false).v2()));
+        Assert.assertFalse("nested _source without content must not be reindexable", Reindexer.isSourceComplete(
+                XContentHelper.convertToMap(SubversionRevisionMapping.getInstance(
+                        MappingProfile.compact().setDocumentModel(MappingProfile.NESTED)).bytes(), false).v2()));
+    }
 }